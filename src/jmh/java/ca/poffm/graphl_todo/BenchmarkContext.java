@@ -0,0 +1,29 @@
+package ca.poffm.graphl_todo;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ca.poffm.graphql.todo.App;
+
+/**
+ * Starts the app without a web server for benchmarks, against an H2 database seeded
+ * with the example tasks.
+ */
+final class BenchmarkContext {
+
+  static final int EXAMPLE_TASKS = 10000;
+
+  private BenchmarkContext() {}
+
+  static ConfigurableApplicationContext start() {
+    return new SpringApplicationBuilder(App.class)
+        .web(WebApplicationType.NONE)
+        .properties(
+            "todo.example-data.size=" + EXAMPLE_TASKS,
+            "todo.graphql.max-page-size=1000",
+            "logging.level.root=WARN")
+        .run();
+  }
+
+}
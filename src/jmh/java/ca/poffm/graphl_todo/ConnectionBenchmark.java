@@ -0,0 +1,124 @@
+package ca.poffm.graphl_todo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+
+import ca.poffm.graphql.todo.input.TaskOrder;
+import ca.poffm.graphql.todo.input.TaskOrderField;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions;
+import ca.poffm.graphql.todo.paging.JpaConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.JpaCursor;
+import ca.poffm.graphql.todo.paging.SortDirection;
+import ca.poffm.graphql.todo.paging.SortKey;
+import ca.poffm.graphql.todo.service.QueryRoot;
+import graphql.relay.Edge;
+
+/**
+ * exampleTasks page fetches through JpaConnection, by page size and by how deep into the
+ * example tasks the page starts. Keyset paging should cost about the same at any depth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionBenchmark {
+
+  @Param({ "10", "100", "500" })
+  private int pageSize;
+
+  /**
+   * Number of tasks before the page.
+   */
+  @Param({ "0", "5000", "9000" })
+  private int depth;
+
+  private ConfigurableApplicationContext context;
+  private QueryRoot query;
+  private EntityManager entityManager;
+
+  private final TaskOrder byName = new TaskOrder(TaskOrderField.NAME, SortDirection.ASC);
+  private String afterId;
+  private String afterName;
+
+  @Setup
+  public void setUp() {
+    this.context = BenchmarkContext.start();
+    this.query = this.context.getBean(QueryRoot.class);
+    this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(
+        this.context.getBean(EntityManagerFactory.class));
+
+    if (this.depth > 0) {
+      this.afterId = JpaCursor.encodeId((long) this.depth);
+
+      // The example task names sort as strings, so find the depth-th one.
+      List<String> names = IntStream.rangeClosed(1, BenchmarkContext.EXAMPLE_TASKS)
+          .mapToObj(i -> "name" + i)
+          .sorted()
+          .collect(Collectors.toList());
+      String name = names.get(this.depth - 1);
+      this.afterName = JpaCursor.encode(
+          Arrays.asList(this.byName.toSortKey(), new SortKey("id", SortDirection.ASC)),
+          Arrays.asList(name, Long.valueOf(name.substring("name".length()))));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.context.close();
+  }
+
+  @Benchmark
+  public List<Edge<Task>> byId() {
+    return this.query.exampleTasks(this.pageSize, this.afterId, null, null).getEdges();
+  }
+
+  @Benchmark
+  public List<Edge<Task>> byName() {
+    return this.query
+        .exampleTasks(this.pageSize, this.afterName, null, null, this.byName, null, null)
+        .getEdges();
+  }
+
+  /**
+   * A page of only the tasks' names, as for a query selecting only "name".
+   */
+  @Benchmark
+  public List<Edge<Task>> projectedById() {
+    return new JpaConnectionWithTotal<Task, Edge<Task>>(
+        Task.class, this.entityManager,
+        ConnectionArgs.builder().first(this.pageSize).after(this.afterId).build(),
+        JpaConnectionOptions.builder()
+          .queryConfig((query, cb, root) -> query.where(cb.equal(root.get("autoGeneratedExample"), true)))
+          .selectedAttributes(Collections.singleton("name"))
+          .maxPageSize(this.pageSize)
+          .build()
+        ).getEdges();
+  }
+
+}
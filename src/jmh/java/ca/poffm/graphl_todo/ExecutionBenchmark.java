@@ -0,0 +1,120 @@
+package ca.poffm.graphl_todo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.dataloader.DataLoaderRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import ca.poffm.graphql.todo.App;
+import ca.poffm.graphql.todo.execution.RequestContext;
+import ca.poffm.graphql.todo.input.TaskInput;
+import ca.poffm.graphql.todo.model.TaskResult;
+import ca.poffm.graphql.todo.service.DataLoaders;
+import ca.poffm.graphql.todo.service.MutationRoot;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+
+/**
+ * Whole operations through GraphQL.execute, with the app's schema, document cache and
+ * instrumentation: a myTasks page and an updateTask mutation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionBenchmark {
+
+  private static final int MY_TASKS = 1000;
+
+  private static final String MY_TASKS_QUERY =
+      "query($first: Int, $after: String) {"
+      + "  myTasks(first: $first, after: $after) {"
+      + "    totalCount"
+      + "    edges { cursor node { id name description done dueDate } }"
+      + "    pageInfo { hasNextPage endCursor }"
+      + "  }"
+      + "}";
+
+  private static final String UPDATE_TASK_MUTATION =
+      "mutation($id: Long!, $done: Boolean) {"
+      + "  updateTask(input: { clientMutationId: \"benchmark\", id: $id, patch: { done: $done } }) {"
+      + "    result { id done updated }"
+      + "  }"
+      + "}";
+
+  private ConfigurableApplicationContext context;
+  private App app;
+  private DataLoaders dataLoaders;
+  private long taskId;
+  private boolean done = false;
+
+  @Setup
+  public void setUp() {
+    this.context = BenchmarkContext.start();
+    this.app = this.context.getBean(App.class);
+    this.dataLoaders = this.context.getBean(DataLoaders.class);
+
+    List<TaskInput> inputs = new ArrayList<>();
+    for (int i = 1; i <= MY_TASKS; i++) {
+      TaskInput input = new TaskInput();
+      input.setName(Optional.of("my task " + i));
+      input.setDescription(Optional.of("description " + i));
+      inputs.add(input);
+    }
+    List<TaskResult> created = this.context.getBean(MutationRoot.class).createTasks(inputs);
+    this.taskId = created.get(0).getId();
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.context.close();
+  }
+
+  @Benchmark
+  public ExecutionResult myTasks() {
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("first", 50);
+    return this.execute(MY_TASKS_QUERY, variables);
+  }
+
+  @Benchmark
+  public ExecutionResult updateTask() {
+    this.done = !this.done;
+    Map<String, Object> variables = new HashMap<>();
+    variables.put("id", this.taskId);
+    variables.put("done", this.done);
+    return this.execute(UPDATE_TASK_MUTATION, variables);
+  }
+
+  private ExecutionResult execute(String query, Map<String, Object> variables) {
+    DataLoaderRegistry registry = this.dataLoaders.newRegistry();
+    ExecutionResult result = this.app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query(query)
+        .variables(variables)
+        .context(new RequestContext(null, registry))
+        .build());
+    if (!result.getErrors().isEmpty()) {
+      throw new IllegalStateException(result.getErrors().toString());
+    }
+    return result;
+  }
+
+}
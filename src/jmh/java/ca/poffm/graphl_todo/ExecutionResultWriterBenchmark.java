@@ -0,0 +1,112 @@
+package ca.poffm.graphl_todo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.poffm.graphql.todo.execution.ExecutionResultWriter;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+
+/**
+ * Compares serializing a page of tasks through toSpecification() and Jackson, against
+ * the streaming ExecutionResultWriter. Run with "-prof gc" for the bytes allocated per
+ * response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionResultWriterBenchmark {
+
+  private static final OutputStream NULL_OUTPUT = new OutputStream() {
+    @Override
+    public void write(int b) {}
+
+    @Override
+    public void write(byte[] b, int off, int len) {}
+  };
+
+  @Param({ "10", "500" })
+  private int pageSize;
+
+  private ObjectMapper objectMapper;
+  private ExecutionResult result;
+
+  @Setup
+  public void setUp() {
+    this.objectMapper = new ObjectMapper();
+    this.result = taskPage(this.pageSize);
+  }
+
+  @Benchmark
+  public void specificationMap() throws IOException {
+    this.objectMapper.writeValue(NULL_OUTPUT, this.result.toSpecification());
+  }
+
+  @Benchmark
+  public void streaming() throws IOException {
+    try (JsonGenerator generator =
+        this.objectMapper.getFactory().createGenerator(NULL_OUTPUT, JsonEncoding.UTF8)) {
+      ExecutionResultWriter.write(generator, this.result);
+    }
+  }
+
+  /**
+   * Build the data tree graphql-java produces for a myTasks page with every Task field.
+   */
+  private static ExecutionResult taskPage(int size) {
+    List<Object> edges = new ArrayList<>();
+    for (int i = 1; i <= size; i++) {
+      Map<String, Object> node = new LinkedHashMap<>();
+      node.put("id", (long) i);
+      node.put("name", "name" + i);
+      node.put("description", "description" + i);
+      node.put("dueDate", null);
+      node.put("done", false);
+      node.put("created", "2018-03-01T00:00:00Z");
+      node.put("updated", "2018-03-01T00:00:00Z");
+
+      Map<String, Object> edge = new LinkedHashMap<>();
+      edge.put("cursor", String.valueOf(i));
+      edge.put("node", node);
+      edges.add(edge);
+    }
+
+    Map<String, Object> pageInfo = new LinkedHashMap<>();
+    pageInfo.put("hasNextPage", true);
+    pageInfo.put("hasPreviousPage", false);
+
+    Map<String, Object> connection = new LinkedHashMap<>();
+    connection.put("totalCount", 10000L);
+    connection.put("edges", edges);
+    connection.put("pageInfo", pageInfo);
+
+    return new ExecutionResultImpl(
+        Collections.singletonMap("myTasks", connection), Collections.emptyList());
+  }
+
+}
@@ -0,0 +1,63 @@
+package ca.poffm.graphl_todo;
+
+import java.util.Date;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.poffm.graphql.todo.input.InputConverter;
+import ca.poffm.graphql.todo.input.TaskInput;
+import ca.poffm.graphql.todo.model.Task;
+
+/**
+ * InputConverter mapping a TaskInput into a new Task, and patching an existing one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputConverterBenchmark {
+
+  private final InputConverter converter = new InputConverter();
+  private final Task task = new Task();
+  private TaskInput input;
+  private TaskInput patch;
+
+  @Setup
+  public void setUp() {
+    this.input = new TaskInput();
+    this.input.setName(Optional.of("name"));
+    this.input.setDescription(Optional.of("description"));
+    this.input.setDueDate(Optional.of(new Date()));
+    this.input.setDone(Optional.of(false));
+
+    this.patch = new TaskInput();
+    this.patch.setDone(Optional.of(true));
+
+    this.converter.compile(TaskInput.class, Task.class);
+  }
+
+  @Benchmark
+  public Task convert() {
+    return this.converter.convert(this.input, Task.class);
+  }
+
+  @Benchmark
+  public Task patch() {
+    this.converter.patch(this.patch, this.task);
+    return this.task;
+  }
+
+}
@@ -0,0 +1,146 @@
+package ca.poffm.graphl_todo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.poffm.graphql.todo.journal.TaskJournal;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.service.InMemoryTaskStore;
+
+/**
+ * The journaled in-memory task store: durable creates from one and many threads, which
+ * share fsyncs, and recovering a snapshot plus the journal written after it.
+ */
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskJournalBenchmark {
+
+  private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+  private static Task task(int i) {
+    Task task = new Task();
+    task.setName("Task " + i);
+    task.setDescription("A journaled task to recover.");
+    return task;
+  }
+
+  private static void delete(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @State(Scope.Benchmark)
+  public static class Writes {
+
+    TaskJournal journal;
+    InMemoryTaskStore store;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      this.directory = Files.createTempDirectory("task-journal");
+      this.journal = new TaskJournal(this.directory.toString(), 1 << 26, 0);
+      this.store = new InMemoryTaskStore(VALIDATOR, Optional.of(this.journal));
+      this.store.recover();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      this.journal.close();
+      delete(this.directory);
+    }
+
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(1)
+  public Task create(Writes writes) {
+    Task task = task(0);
+    writes.store.create(task);
+    return task;
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  @Threads(16)
+  public Task createConcurrently(Writes writes) {
+    Task task = task(0);
+    writes.store.create(task);
+    return task;
+  }
+
+  @State(Scope.Benchmark)
+  public static class Recovery {
+
+    /** Tasks in the snapshot; as many again are replayed from the journal after it. */
+    @Param({ "100000" })
+    int tasks;
+
+    Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      this.directory = Files.createTempDirectory("task-journal");
+      TaskJournal journal = new TaskJournal(this.directory.toString(), 1 << 26, 0);
+      InMemoryTaskStore store = new InMemoryTaskStore(VALIDATOR, Optional.of(journal));
+      store.recover();
+      for (int i = 0; i < this.tasks; i++) {
+        store.create(task(i));
+      }
+      journal.snapshot();
+      for (int i = 0; i < this.tasks; i++) {
+        store.create(task(i));
+      }
+      // Closed without another snapshot, so the second half is replayed.
+      journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      delete(this.directory);
+    }
+
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  @Warmup(iterations = 3)
+  @Measurement(iterations = 10)
+  public InMemoryTaskStore recover(Recovery recovery) {
+    TaskJournal journal = new TaskJournal(recovery.directory.toString(), 1 << 26, 0);
+    InMemoryTaskStore store = new InMemoryTaskStore(VALIDATOR, Optional.of(journal));
+    store.recover();
+    journal.close();
+    return store;
+  }
+
+}
@@ -1,24 +1,61 @@
 package ca.poffm.graphql.todo;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 import javax.servlet.http.HttpServletRequest;
 
+import org.dataloader.DataLoaderRegistry;
+import org.reactivestreams.Publisher;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.poffm.graphql.todo.execution.CachingPreparsedDocumentProvider;
+import ca.poffm.graphql.todo.execution.GraphQLWebSocketHandler;
+import ca.poffm.graphql.todo.execution.GraphQLRequest;
+import ca.poffm.graphql.todo.execution.MetricsInstrumentation;
+import ca.poffm.graphql.todo.execution.PersistedQueryException;
+import ca.poffm.graphql.todo.execution.PersistedQueryStore;
+import ca.poffm.graphql.todo.execution.QueryCostInstrumentation;
+import ca.poffm.graphql.todo.execution.RequestContext;
+import ca.poffm.graphql.todo.execution.SqlStatsInstrumentation;
+import ca.poffm.graphql.todo.service.DataLoaders;
 import ca.poffm.graphql.todo.service.MutationRoot;
 import ca.poffm.graphql.todo.service.QueryRoot;
+import ca.poffm.graphql.todo.service.SubscriptionRoot;
 import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
 import graphql.GraphQL;
+import graphql.execution.instrumentation.dataloader.DataLoaderDispatcherInstrumentation;
+import graphql.schema.GraphQLSchema;
 import io.leangen.graphql.GraphQLRuntime;
 import io.leangen.graphql.GraphQLSchemaGenerator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 
 /**
  * GraphQL to-do list API.
@@ -27,9 +64,23 @@ import io.leangen.graphql.GraphQLSchemaGenerator;
  */
 @SpringBootApplication
 @RestController
-public class App {
+@EnableWebSocket
+public class App implements WebSocketConfigurer {
 
-  private final GraphQL graphQL;
+  private final GraphQLSchema schema;
+  private final CachingPreparsedDocumentProvider documentCache;
+  private final QueryCostInstrumentation queryCost;
+  private final MetricsInstrumentation metrics;
+  private final SqlStatsInstrumentation sqlStats;
+  private final DataLoaders dataLoaders;
+  private final PersistedQueryStore persistedQueries;
+  private final ObjectMapper objectMapper;
+  private final ExecutorService executor;
+  private final int maxBatchSize;
+  private final long timeout;
+  private final Counter timeouts;
+  private final int sendTimeLimit;
+  private final int sendBufferSize;
 
   /**
    * Main method.
@@ -43,32 +94,203 @@ public class App {
   @Autowired
   public App(
       QueryRoot queryRoot,
-      MutationRoot mutationRoot
+      MutationRoot mutationRoot,
+      SubscriptionRoot subscriptionRoot,
+      CachingPreparsedDocumentProvider documentCache,
+      QueryCostInstrumentation queryCost,
+      MetricsInstrumentation metrics,
+      SqlStatsInstrumentation sqlStats,
+      PersistedQueryStore persistedQueries,
+      DataLoaders dataLoaders,
+      ObjectMapper objectMapper,
+      @Qualifier("graphQLExecutor") ExecutorService executor,
+      @Value("${todo.graphql.max-batch-size:20}") int maxBatchSize,
+      @Value("${todo.graphql.timeout:30000}") long timeout,
+      @Value("${todo.subscriptions.send-time-limit:10000}") int sendTimeLimit,
+      @Value("${todo.subscriptions.send-buffer-size:524288}") int sendBufferSize,
+      MeterRegistry registry
       ) {
     
-    graphQL = GraphQLRuntime.newGraphQL(
-        new GraphQLSchemaGenerator()
-            .withOperationsFromSingleton(queryRoot)
-            .withOperationsFromSingleton(mutationRoot, MutationRoot.class)
-            .withRelayCompliantMutations()
-            .generate()
-        ).build();
+    this.documentCache = documentCache;
+    this.queryCost = queryCost;
+    this.metrics = metrics;
+    this.sqlStats = sqlStats;
+    this.persistedQueries = persistedQueries;
+    this.dataLoaders = dataLoaders;
+    this.objectMapper = objectMapper;
+    this.executor = executor;
+    this.maxBatchSize = maxBatchSize;
+    this.timeout = timeout;
+    this.sendTimeLimit = sendTimeLimit;
+    this.sendBufferSize = sendBufferSize;
+    this.timeouts = Counter.builder("graphql.requests.timeout")
+        .description("GraphQL requests that did not complete within the request timeout")
+        .register(registry);
+    
+    this.schema = new GraphQLSchemaGenerator()
+        .withOperationsFromSingleton(queryRoot)
+        .withOperationsFromSingleton(mutationRoot, MutationRoot.class)
+        .withOperationsFromSingleton(subscriptionRoot)
+        .withRelayCompliantMutations()
+        .generate();
+  }
+  
+  /**
+   * Create the GraphQL instance for one operation. The data loader instrumentation is
+   * bound to a registry, so each operation gets its own to keep batches and memoized
+   * results from leaking between requests. Building it only wires up the shared schema.
+   * 
+   * @param dataLoaders The operation's data loaders
+   * @return
+   */
+  public GraphQL newGraphQL(DataLoaderRegistry dataLoaders) {
+    GraphQLRuntime.Builder builder = GraphQLRuntime.newGraphQL(this.schema);
+    
+    // Re-use parsed and validated documents for repeated queries.
+    builder.preparsedDocumentProvider(this.documentCache);
+    
+    // Time operations and resolvers. Goes first so rejected operations are timed too.
+    if (this.metrics.isEnabled()) {
+      builder.instrumentation(this.metrics);
+    }
+    
+    // Reject operations over the cost, depth, alias or page size limits before they run.
+    builder.instrumentation(this.queryCost);
+    
+    // Dispatch the data loaders' batches as each level of the query completes.
+    builder.instrumentation(new DataLoaderDispatcherInstrumentation(dataLoaders));
+    
+    // Count the SQL statements each operation runs. Goes last so the data loaders'
+    // batches run while the operation's stats are current.
+    if (this.sqlStats.isEnabled()) {
+      builder.instrumentation(this.sqlStats);
+    }
+    
+    return builder.build();
   }
   
+  /**
+   * Execute a single GraphQL request, or a batch of requests sent as a JSON array.
+   * Batched operations run concurrently and their results are returned in request order.
+   * Operations run on the GraphQL executor, so the servlet thread is released while
+   * they execute. Results are streamed to the response by ExecutionResultHttpMessageConverter.
+   * 
+   * @param body The request body
+   * @param raw The servlet request
+   * @return The result, or a list of results for a batch
+   */
   @PostMapping(
       value = "/graphql", consumes = MediaType.APPLICATION_JSON_UTF8_VALUE,
       produces = MediaType.APPLICATION_JSON_UTF8_VALUE
       )
   @ResponseBody
-  public Map<String, Object> indexFromAnnotated(@RequestBody Map<String, String> request, HttpServletRequest raw) {
-    return graphQL.execute(
-        ExecutionInput.newExecutionInput()
-            .query(request.get("query"))
-            .operationName(request.get("operationName"))
-            .context(raw)
-            .build()
-        )
-        .toSpecification();
+  public DeferredResult<Object> indexFromAnnotated(@RequestBody JsonNode body, HttpServletRequest raw) {
+    DeferredResult<Object> response = new DeferredResult<>(this.timeout);
+    response.onTimeout(() -> {
+      this.timeouts.increment();
+      response.setErrorResult(
+          new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "GraphQL request timed out")
+          );
+    });
+    
+    CompletableFuture<?> result;
+    if (!body.isArray()) {
+      result = this.executeHttp(this.objectMapper.convertValue(body, GraphQLRequest.class), raw);
+    } else {
+      if (body.size() > this.maxBatchSize) {
+        throw new ResponseStatusException(
+            HttpStatus.BAD_REQUEST, "Batch size must not exceed " + this.maxBatchSize
+            );
+      }
+      
+      List<CompletableFuture<ExecutionResult>> results = new ArrayList<>();
+      for (JsonNode operation : body) {
+        GraphQLRequest request = this.objectMapper.convertValue(operation, GraphQLRequest.class);
+        results.add(this.executeHttp(request, raw));
+      }
+      
+      result = CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+          .thenApply(done -> results.stream().map(CompletableFuture::join).toArray(ExecutionResult[]::new));
+    }
+    
+    result.whenComplete((value, error) -> {
+      if (error == null) {
+        response.setResult(value);
+      } else {
+        Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+        response.setErrorResult(
+            cause instanceof RejectedExecutionException
+                ? new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, cause.getMessage())
+                : cause
+            );
+      }
+    });
+    
+    return response;
+  }
+  
+  /**
+   * Serve GraphQL operations, including subscriptions, over a WebSocket at /subscriptions.
+   */
+  @Override
+  public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+    registry.addHandler(
+        new GraphQLWebSocketHandler(
+            request -> this.executeAsync(request, null), this.objectMapper,
+            this.sendTimeLimit, this.sendBufferSize),
+        "/subscriptions");
+  }
+  
+  /**
+   * Execute one operation sent over HTTP, which can't carry a subscription's results.
+   * 
+   * @param request
+   * @param raw
+   * @return The result, or a 400 for a subscription.
+   */
+  private CompletableFuture<ExecutionResult> executeHttp(GraphQLRequest request, HttpServletRequest raw) {
+    return this.executeAsync(request, raw).thenApply(result -> {
+      if (result.getData() instanceof Publisher) {
+        throw new ResponseStatusException(
+            HttpStatus.BAD_REQUEST, "Subscriptions are only served over the WebSocket at /subscriptions"
+            );
+      }
+      return result;
+    });
+  }
+  
+  /**
+   * Execute one operation on the GraphQL executor.
+   * 
+   * @param request
+   * @param raw The HTTP request, or null for operations sent over a WebSocket
+   * @return The result. A subscription's data is a Publisher of results.
+   */
+  private CompletableFuture<ExecutionResult> executeAsync(GraphQLRequest request, HttpServletRequest raw) {
+    String query;
+    try {
+      query = persistedQueries.resolve(request.getQuery(), request.getExtensions());
+    } catch (PersistedQueryException e) {
+      return CompletableFuture.completedFuture(new ExecutionResultImpl(e));
+    }
+    
+    DataLoaderRegistry dataLoaders = this.dataLoaders.newRegistry();
+    ExecutionInput input = ExecutionInput.newExecutionInput()
+        .query(query)
+        .operationName(request.getOperationName())
+        .variables(request.getVariables() != null ? request.getVariables() : Collections.emptyMap())
+        .context(new RequestContext(raw, dataLoaders))
+        .build();
+    
+    try {
+      return CompletableFuture
+          .supplyAsync(() -> this.newGraphQL(dataLoaders).executeAsync(input), this.executor)
+          .thenCompose(Function.identity());
+    } catch (RejectedExecutionException e) {
+      CompletableFuture<ExecutionResult> rejected = new CompletableFuture<>();
+      rejected.completeExceptionally(e);
+      return rejected;
+    }
   }
 
 }
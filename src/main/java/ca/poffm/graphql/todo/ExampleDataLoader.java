@@ -1,18 +1,23 @@
 package ca.poffm.graphql.todo;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
-import javax.transaction.Transactional;
+import java.util.logging.Level;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.service.TaskStore;
 import lombok.extern.java.Log;
 
 /**
- * Loads example data on startup.
+ * Loads example data on startup, unless the task store already has tasks, e.g. ones
+ * recovered from its journal.
  * 
  * @author PoffM
  */
@@ -20,24 +25,102 @@ import lombok.extern.java.Log;
 @Log
 public class ExampleDataLoader implements ApplicationRunner {
   
-  @PersistenceContext
-  private EntityManager entityManager;
+  /**
+   * Published when loading example data in the background ends, even if it failed, so
+   * in-memory views of the tasks built at startup can be rebuilt.
+   */
+  public static class LoadedEvent extends ApplicationEvent {
+    private static final long serialVersionUID = 1L;
+    
+    public LoadedEvent(Object source) {
+      super(source);
+    }
+  }
+  
+  private final TaskStore taskStore;
+  private final TransactionTemplate transactions;
+  private final ApplicationEventPublisher events;
+  private final int size;
+  private final int batchSize;
+  private final boolean background;
+  
+  public ExampleDataLoader(
+      TaskStore taskStore,
+      PlatformTransactionManager transactionManager,
+      ApplicationEventPublisher events,
+      @Value("${todo.example-data.size:10000}") int size,
+      @Value("${todo.example-data.batch-size:1000}") int batchSize,
+      @Value("${todo.example-data.background:false}") boolean background
+      ) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("todo.example-data.batch-size must be positive, was " + batchSize);
+    }
+    this.taskStore = taskStore;
+    this.transactions = new TransactionTemplate(transactionManager);
+    this.events = events;
+    this.size = size;
+    this.batchSize = batchSize;
+    this.background = background;
+  }
   
   /**
-   * Load sample data.
+   * Load sample data, or start loading it in the background.
    */
-  @Transactional
   @Override
   public void run(ApplicationArguments args) throws Exception {
-    log.info("Loading sample data.");
-    for (int i = 1; i <= 10000; i++) {
-      Task task = new Task();
-      task.setName("name" + i);
-      task.setDescription("description" + i);
-      task.setAutoGeneratedExample(true);
-      entityManager.persist(task);
+    if (this.size <= 0) {
+      return;
+    }
+    if (!this.taskStore.isEmpty()) {
+      log.info("Tasks were recovered, so no example tasks are loaded.");
+      return;
+    }
+    
+    if (this.background) {
+      Thread loader = new Thread(this::loadInBackground, "example-data-loader");
+      loader.setDaemon(true);
+      loader.start();
+    } else {
+      this.load();
+    }
+  }
+  
+  private void loadInBackground() {
+    try {
+      this.load();
+    } catch (RuntimeException e) {
+      log.log(Level.SEVERE, "Loading example tasks failed. The batches loaded before it are kept.", e);
+    }
+    this.events.publishEvent(new LoadedEvent(this));
+  }
+  
+  /**
+   * Insert the example tasks, one transaction per batch. Each transaction starts with an
+   * empty persistence context, so memory use doesn't grow with the number of tasks, and
+   * its inserts are sent as JDBC batches when it commits.
+   */
+  private void load() {
+    log.info("Loading " + this.size + " example tasks.");
+    long start = System.nanoTime();
+    
+    for (int from = 1; from <= this.size; from += this.batchSize) {
+      int first = from;
+      int last = Math.min(from + this.batchSize - 1, this.size);
+      this.transactions.execute(status -> {
+        for (int i = first; i <= last; i++) {
+          Task task = new Task();
+          task.setName("name" + i);
+          task.setDescription("description" + i);
+          task.setAutoGeneratedExample(true);
+          this.taskStore.create(task);
+        }
+        return null;
+      });
     }
-    log.info("Sample data loaded.");
+    
+    long millis = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+    log.info("Loaded " + this.size + " example tasks in " + millis + "ms ("
+        + (this.size * 1000L / millis) + " rows/s).");
   }
   
 }
@@ -0,0 +1,254 @@
+package ca.poffm.graphql.todo.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToLongBiFunction;
+
+import lombok.NonNull;
+
+/**
+ * Thread-safe LRU cache bounded by the total weight of its entries, optionally expiring
+ * entries a fixed time after they're written.
+ * Keeps hit, miss, put and eviction counts so the bound can be sized from metrics.
+ *
+ * @author PoffM
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public class BoundedCache<K, V> {
+
+  /**
+   * A cached value with its weight and expiry time.
+   */
+  private static class Entry<V> {
+    private final V value;
+    private final long weight;
+    private final long expiresAt;
+
+    Entry(V value, long weight, long expiresAt) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  private final long maxWeight;
+  private final ToLongBiFunction<K, V> weigher;
+
+  /**
+   * Nanoseconds an entry lives after it's written, or 0 to keep entries until evicted.
+   */
+  private final long ttlNanos;
+  private final LongSupplier nanoTime;
+
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight = 0;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder puts = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  /**
+   * Create a cache where every entry weighs 1, i.e. bounded by entry count.
+   *
+   * @param maxSize Maximum number of entries
+   */
+  public BoundedCache(long maxSize) {
+    this(maxSize, (key, value) -> 1);
+  }
+
+  /**
+   * Create a cache bounded by total entry weight.
+   *
+   * @param maxWeight Maximum total weight of all entries
+   * @param weigher Computes the weight of an entry
+   */
+  public BoundedCache(long maxWeight, @NonNull ToLongBiFunction<K, V> weigher) {
+    this(maxWeight, weigher, Duration.ZERO, System::nanoTime);
+  }
+
+  /**
+   * Create a cache bounded by total entry weight, where entries expire after a time.
+   *
+   * @param maxWeight Maximum total weight of all entries
+   * @param weigher Computes the weight of an entry
+   * @param ttl How long an entry lives after it's written. Zero keeps entries until evicted.
+   * @param nanoTime The clock, in nanoseconds
+   */
+  public BoundedCache(
+      long maxWeight,
+      @NonNull ToLongBiFunction<K, V> weigher,
+      @NonNull Duration ttl,
+      @NonNull LongSupplier nanoTime
+      ) {
+    if (maxWeight < 0) {
+      throw new IllegalArgumentException("maxWeight must not be negative: " + maxWeight);
+    }
+    if (ttl.isNegative()) {
+      throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+    }
+    this.maxWeight = maxWeight;
+    this.weigher = weigher;
+    this.ttlNanos = ttl.toNanos();
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Get a cached value. Expired entries are removed and count as misses.
+   *
+   * @param key
+   * @return The value, or null if not cached.
+   */
+  public V get(K key) {
+    V value = null;
+    synchronized (this) {
+      Entry<V> entry = this.entries.get(key);
+      if (entry != null) {
+        if (this.isExpired(entry)) {
+          this.remove(key);
+          this.evictions.increment();
+        } else {
+          value = entry.value;
+        }
+      }
+    }
+    (value != null ? this.hits : this.misses).increment();
+    return value;
+  }
+
+  /**
+   * Get a cached value, computing and caching it on a miss. The value is computed
+   * outside of the cache lock, so concurrent misses on one key may compute twice.
+   *
+   * @param key
+   * @param compute Computes the value on a miss
+   * @return The cached or computed value.
+   */
+  public V get(K key, Function<? super K, ? extends V> compute) {
+    V value = this.get(key);
+    if (value == null) {
+      value = compute.apply(key);
+      if (value != null) {
+        this.put(key, value);
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Cache a value, evicting the least recently used entries when over the weight bound.
+   * Values heavier than the whole bound are not cached.
+   *
+   * @param key
+   * @param value
+   */
+  public void put(@NonNull K key, @NonNull V value) {
+    long entryWeight = this.weigher.applyAsLong(key, value);
+    if (entryWeight > this.maxWeight) {
+      return;
+    }
+    this.puts.increment();
+    long expiresAt = this.ttlNanos > 0 ? this.nanoTime.getAsLong() + this.ttlNanos : 0;
+
+    synchronized (this) {
+      Entry<V> previous = this.entries.put(key, new Entry<>(value, entryWeight, expiresAt));
+      if (previous != null) {
+        this.weight -= previous.weight;
+      }
+      this.weight += entryWeight;
+
+      Iterator<Entry<V>> lru = this.entries.values().iterator();
+      while (this.weight > this.maxWeight && lru.hasNext()) {
+        this.weight -= lru.next().weight;
+        lru.remove();
+        this.evictions.increment();
+      }
+    }
+  }
+
+  /**
+   * Remove a cached value.
+   *
+   * @param key
+   */
+  public synchronized void invalidate(K key) {
+    this.remove(key);
+  }
+
+  /**
+   * Remove the cached values whose keys match.
+   *
+   * @param matches Tests a key
+   */
+  public synchronized void invalidateIf(Predicate<? super K> matches) {
+    Iterator<Map.Entry<K, Entry<V>>> entries = this.entries.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<K, Entry<V>> entry = entries.next();
+      if (matches.test(entry.getKey())) {
+        this.weight -= entry.getValue().weight;
+        entries.remove();
+      }
+    }
+  }
+
+  /**
+   * Remove all cached values.
+   */
+  public synchronized void invalidateAll() {
+    this.entries.clear();
+    this.weight = 0;
+  }
+
+  private void remove(K key) {
+    Entry<V> previous = this.entries.remove(key);
+    if (previous != null) {
+      this.weight -= previous.weight;
+    }
+  }
+
+  private boolean isExpired(Entry<V> entry) {
+    return this.ttlNanos > 0 && this.nanoTime.getAsLong() - entry.expiresAt >= 0;
+  }
+
+  public synchronized long size() {
+    return this.entries.size();
+  }
+
+  public synchronized long weight() {
+    return this.weight;
+  }
+
+  public long maxWeight() {
+    return this.maxWeight;
+  }
+
+  public long hitCount() {
+    return this.hits.sum();
+  }
+
+  public long missCount() {
+    return this.misses.sum();
+  }
+
+  public long putCount() {
+    return this.puts.sum();
+  }
+
+  /**
+   * The number of entries removed for the weight bound or because they expired.
+   *
+   * @return
+   */
+  public long evictionCount() {
+    return this.evictions.sum();
+  }
+
+}
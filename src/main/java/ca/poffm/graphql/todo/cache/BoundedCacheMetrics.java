@@ -0,0 +1,59 @@
+package ca.poffm.graphql.todo.cache;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.binder.cache.CacheMeterBinder;
+
+/**
+ * Exposes a BoundedCache's statistics as the standard Micrometer cache metrics.
+ *
+ * @author PoffM
+ */
+public class BoundedCacheMetrics extends CacheMeterBinder {
+
+  private final BoundedCache<?, ?> cache;
+
+  public BoundedCacheMetrics(BoundedCache<?, ?> cache, String cacheName, Iterable<Tag> tags) {
+    super(cache, cacheName, tags);
+    this.cache = cache;
+  }
+
+  @Override
+  protected Long size() {
+    return this.cache.size();
+  }
+
+  @Override
+  protected long hitCount() {
+    return this.cache.hitCount();
+  }
+
+  @Override
+  protected long missCount() {
+    return this.cache.missCount();
+  }
+
+  @Override
+  protected Long evictionCount() {
+    return this.cache.evictionCount();
+  }
+
+  @Override
+  protected long putCount() {
+    return this.cache.putCount();
+  }
+
+  @Override
+  protected void bindImplementationSpecificMetrics(MeterRegistry registry) {
+    Gauge.builder("cache.weight", this.cache, BoundedCache::weight)
+        .tags(getTagsWithCacheName())
+        .description("The total weight of the entries in the cache")
+        .register(registry);
+    Gauge.builder("cache.max.weight", this.cache, BoundedCache::maxWeight)
+        .tags(getTagsWithCacheName())
+        .description("The maximum total weight of the entries in the cache")
+        .register(registry);
+  }
+
+}
@@ -0,0 +1,46 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.cache.BoundedCache;
+import ca.poffm.graphql.todo.cache.BoundedCacheMetrics;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Caches parsed and validated GraphQL documents by query text, so repeated queries
+ * skip parsing and validation. Entries are weighed by query length.
+ *
+ * @author PoffM
+ */
+@Component
+public class CachingPreparsedDocumentProvider implements PreparsedDocumentProvider, MeterBinder {
+
+  private final BoundedCache<String, PreparsedDocumentEntry> cache;
+
+  public CachingPreparsedDocumentProvider(
+      @Value("${todo.graphql.document-cache.max-weight:1000000}") long maxWeight
+      ) {
+    this.cache = new BoundedCache<>(maxWeight, (query, entry) -> query.length());
+  }
+
+  @Override
+  public PreparsedDocumentEntry get(
+      String query, Function<String, PreparsedDocumentEntry> computeFunction
+      ) {
+    return this.cache.get(query, computeFunction);
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    new BoundedCacheMetrics(this.cache, "graphql.documents", Collections.emptyList())
+        .bindTo(registry);
+  }
+
+}
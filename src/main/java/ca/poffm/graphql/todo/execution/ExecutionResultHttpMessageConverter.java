@@ -0,0 +1,69 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.io.IOException;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionResult;
+
+/**
+ * Streams ExecutionResults, and arrays of them for batched requests, straight to the
+ * response body.
+ *
+ * @author PoffM
+ */
+@Component
+public class ExecutionResultHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+  private final ObjectMapper objectMapper;
+
+  public ExecutionResultHttpMessageConverter(ObjectMapper objectMapper) {
+    super(MediaType.APPLICATION_JSON_UTF8, MediaType.APPLICATION_JSON);
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  protected boolean supports(Class<?> clazz) {
+    return ExecutionResult.class.isAssignableFrom(clazz) || ExecutionResult[].class.equals(clazz);
+  }
+
+  @Override
+  protected boolean canRead(MediaType mediaType) {
+    return false;
+  }
+
+  @Override
+  protected Object readInternal(Class<? extends Object> clazz, HttpInputMessage inputMessage)
+      throws IOException, HttpMessageNotReadableException {
+    throw new HttpMessageNotReadableException("ExecutionResults can't be read");
+  }
+
+  @Override
+  protected void writeInternal(Object result, HttpOutputMessage outputMessage)
+      throws IOException, HttpMessageNotWritableException {
+    try (JsonGenerator generator = this.objectMapper.getFactory()
+        .createGenerator(outputMessage.getBody(), JsonEncoding.UTF8)) {
+
+      if (result instanceof ExecutionResult[]) {
+        generator.writeStartArray();
+        for (ExecutionResult item : (ExecutionResult[]) result) {
+          ExecutionResultWriter.write(generator, item);
+        }
+        generator.writeEndArray();
+      } else {
+        ExecutionResultWriter.write(generator, (ExecutionResult) result);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.java.Log;
+
+/**
+ * Executor for running GraphQL operations off the servlet thread.
+ *
+ * Uses a virtual thread per task when enabled and the runtime supports them (Java 21+),
+ * otherwise a fixed thread pool with a bounded queue. Pool size, queue depth and
+ * rejections are published as "graphql.executor" metrics.
+ *
+ * @author PoffM
+ */
+@Log
+@Configuration
+public class GraphQLExecutorConfig {
+
+  @Bean(destroyMethod = "shutdown")
+  public ExecutorService graphQLExecutor(
+      MeterRegistry registry,
+      @Value("${todo.graphql.executor.threads:16}") int threads,
+      @Value("${todo.graphql.executor.queue-capacity:1000}") int queueCapacity,
+      @Value("${todo.graphql.executor.virtual-threads:false}") boolean virtualThreads
+      ) {
+
+    ExecutorService executor = virtualThreads ? newVirtualThreadExecutor() : null;
+
+    if (executor == null) {
+      Counter rejected = Counter.builder("graphql.executor.rejected")
+          .description("GraphQL operations rejected because the executor queue was full")
+          .register(registry);
+
+      executor = new ThreadPoolExecutor(
+          threads, threads, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(queueCapacity),
+          new CustomizableThreadFactory("graphql-"),
+          (task, pool) -> {
+            rejected.increment();
+            throw new RejectedExecutionException("GraphQL executor queue is full");
+          }
+      );
+    }
+
+    return ExecutorServiceMetrics.monitor(registry, executor, "graphql.executor", Collections.emptyList());
+  }
+
+  /**
+   * Create a virtual-thread-per-task executor through reflection, so the app still
+   * compiles and runs on runtimes without virtual threads.
+   *
+   * @return The executor, or null if virtual threads are not supported.
+   */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      log.warning("Virtual threads are not supported by this runtime, using a thread pool.");
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,18 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * Body of a GraphQL request sent to the /graphql endpoint.
+ * 
+ * @author PoffM
+ */
+@Data
+public class GraphQLRequest {
+  private String query;
+  private String operationName;
+  private Map<String, Object> variables;
+  private Map<String, Object> extensions;
+}
@@ -0,0 +1,512 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.SubProtocolCapable;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import graphql.ExecutionResult;
+import lombok.extern.java.Log;
+
+/**
+ * Runs GraphQL operations over a WebSocket with the graphql-ws protocol used by Apollo's
+ * subscriptions-transport-ws. A subscription's results are sent as "data" messages until
+ * the client stops it or the stream completes. Queries and mutations send one result.
+ * Every operation ends with a "complete" message, including one the client stopped.
+ *
+ * Messages are written with the container's asynchronous send, one at a time per
+ * session, so a client that stops reading never holds a thread. A subscription's next
+ * result is requested only once the previous one is written, which leaves a slow
+ * client's pending results in the subscription's buffer instead of in memory here. A
+ * session whose queued messages outgrow the send buffer, or whose write outlasts the
+ * send time limit, has its operations stopped and is closed.
+ *
+ * @author PoffM
+ */
+@Log
+public class GraphQLWebSocketHandler extends TextWebSocketHandler implements SubProtocolCapable {
+
+  public static final String PROTOCOL = "graphql-ws";
+
+  private static final String CONNECTION_INIT = "connection_init";
+  private static final String CONNECTION_ACK = "connection_ack";
+  private static final String CONNECTION_ERROR = "connection_error";
+  private static final String CONNECTION_TERMINATE = "connection_terminate";
+  private static final String START = "start";
+  private static final String STOP = "stop";
+  private static final String DATA = "data";
+  private static final String ERROR = "error";
+  private static final String COMPLETE = "complete";
+
+  private static final String OPERATIONS = "graphql.operations";
+  private static final String OUTBOX = "graphql.outbox";
+
+  /** Tomcat's session property for how long a blocking send, like the close frame, waits. */
+  private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+  /**
+   * Times each session's write. The container's own send timeout can miss a write that
+   * started in the same millisecond as another session's.
+   */
+  private static final ScheduledThreadPoolExecutor DEADLINES = deadlines();
+
+  private final Function<GraphQLRequest, CompletableFuture<ExecutionResult>> execute;
+  private final ObjectMapper objectMapper;
+  private final int sendTimeLimit;
+  private final int sendBufferSize;
+
+  /**
+   * Create a handler.
+   *
+   * @param execute Executes an operation
+   * @param objectMapper
+   * @param sendTimeLimit Milliseconds a write may take before the session is closed
+   * @param sendBufferSize Characters of messages queued for a session before it is closed
+   */
+  public GraphQLWebSocketHandler(
+      Function<GraphQLRequest, CompletableFuture<ExecutionResult>> execute,
+      ObjectMapper objectMapper,
+      int sendTimeLimit,
+      int sendBufferSize
+      ) {
+    this.execute = execute;
+    this.objectMapper = objectMapper;
+    this.sendTimeLimit = sendTimeLimit;
+    this.sendBufferSize = sendBufferSize;
+  }
+
+  @Override
+  public List<String> getSubProtocols() {
+    return Collections.singletonList(PROTOCOL);
+  }
+
+  @Override
+  public void afterConnectionEstablished(WebSocketSession session) {
+    javax.websocket.Session nativeSession = session instanceof NativeWebSocketSession
+        ? ((NativeWebSocketSession) session).getNativeSession(javax.websocket.Session.class)
+        : null;
+    if (nativeSession == null) {
+      throw new IllegalStateException("GraphQL WebSockets need a JSR-356 container");
+    }
+    session.getAttributes().put(OPERATIONS, new ConcurrentHashMap<String, Operation>());
+    session.getAttributes().put(OUTBOX, new Outbox(
+        nativeSession, this.sendTimeLimit, this.sendBufferSize, () -> this.stopAll(session)));
+  }
+
+  @Override
+  protected void handleTextMessage(WebSocketSession session, TextMessage message) throws IOException {
+    Outbox socket = this.outbox(session);
+    JsonNode json = this.objectMapper.readTree(message.getPayload());
+    String type = json.path("type").asText();
+    String id = json.path("id").asText(null);
+
+    switch (type) {
+      case CONNECTION_INIT:
+        this.send(socket, CONNECTION_ACK, null, null);
+        break;
+      case START:
+        GraphQLRequest request = this.objectMapper.treeToValue(json.path("payload"), GraphQLRequest.class);
+        // The id is reserved before the operation runs, so a STOP can't miss it.
+        Operation operation = new Operation();
+        if (id == null || this.operations(session).putIfAbsent(id, operation) != null) {
+          this.send(socket, ERROR, id, this.objectMapper.createObjectNode()
+              .put("message", "Operation id must be unique: " + id));
+          break;
+        }
+        this.start(session, socket, id, operation, request);
+        break;
+      case STOP:
+        Operation stopped = this.operations(session).remove(id);
+        if (stopped != null) {
+          stopped.stop();
+          this.send(socket, COMPLETE, id, null);
+        }
+        break;
+      case CONNECTION_TERMINATE:
+        session.close();
+        break;
+      default:
+        this.send(socket, CONNECTION_ERROR, null, this.objectMapper.createObjectNode()
+            .put("message", "Unknown message type: " + type));
+    }
+  }
+
+  @Override
+  public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+    this.outbox(session).close();
+    this.stopAll(session);
+  }
+
+  private void stopAll(WebSocketSession session) {
+    Map<String, Operation> operations = this.operations(session);
+    operations.values().forEach(Operation::stop);
+    operations.clear();
+  }
+
+  @SuppressWarnings("unchecked")
+  private void start(
+      WebSocketSession session, Outbox socket, String id, Operation operation, GraphQLRequest request) {
+    Map<String, Operation> operations = this.operations(session);
+    this.execute.apply(request).whenComplete((result, error) -> {
+      if (error != null) {
+        if (operations.remove(id, operation)) {
+          this.send(socket, ERROR, id, this.objectMapper.createObjectNode().put("message", error.getMessage()));
+        }
+        return;
+      }
+
+      if (!(result.getData() instanceof Publisher)) {
+        if (operations.remove(id, operation)) {
+          this.send(socket, DATA, id, result);
+          this.send(socket, COMPLETE, id, null);
+        }
+        return;
+      }
+
+      ((Publisher<ExecutionResult>) result.getData()).subscribe(new Subscriber<ExecutionResult>() {
+        private Subscription subscription;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+          this.subscription = subscription;
+          if (!operation.subscribed(subscription)) {
+            // Stopped, or the session closed, while the operation ran.
+            subscription.cancel();
+            return;
+          }
+          subscription.request(1);
+        }
+
+        @Override
+        public void onNext(ExecutionResult item) {
+          // The next result is requested once this one is written.
+          if (!GraphQLWebSocketHandler.this.send(socket, DATA, id, item, () -> this.subscription.request(1))) {
+            this.subscription.cancel();
+          }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+          if (operations.remove(id, operation)) {
+            GraphQLWebSocketHandler.this.send(socket, ERROR, id,
+                GraphQLWebSocketHandler.this.objectMapper.createObjectNode().put("message", error.getMessage()));
+          }
+        }
+
+        @Override
+        public void onComplete() {
+          if (operations.remove(id, operation)) {
+            GraphQLWebSocketHandler.this.send(socket, COMPLETE, id, null);
+          }
+        }
+      });
+    });
+  }
+
+  private boolean send(Outbox socket, String type, String id, Object payload) {
+    return this.send(socket, type, id, payload, null);
+  }
+
+  /**
+   * Queue a protocol message.
+   *
+   * @param socket
+   * @param type
+   * @param id The operation id, if any
+   * @param payload An ExecutionResult or JsonNode, if any
+   * @param written Run once the message is written, if any
+   * @return Whether the session can still send.
+   */
+  private boolean send(Outbox socket, String type, String id, Object payload, Runnable written) {
+    StringWriter message = new StringWriter();
+    try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(message)) {
+      generator.writeStartObject();
+      generator.writeStringField("type", type);
+      if (id != null) {
+        generator.writeStringField("id", id);
+      }
+      if (payload instanceof ExecutionResult) {
+        generator.writeFieldName("payload");
+        ExecutionResultWriter.write(generator, (ExecutionResult) payload);
+      } else if (payload != null) {
+        generator.writeFieldName("payload");
+        this.objectMapper.writeTree(generator, (JsonNode) payload);
+      }
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new IllegalStateException("Couldn't write a GraphQL WebSocket message", e);
+    }
+    return socket.send(message.toString(), written);
+  }
+
+  private static ScheduledThreadPoolExecutor deadlines() {
+    ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "graphql-ws-deadlines");
+      thread.setDaemon(true);
+      return thread;
+    });
+    deadlines.setRemoveOnCancelPolicy(true);
+    return deadlines;
+  }
+
+  private Outbox outbox(WebSocketSession session) {
+    return (Outbox) session.getAttributes().get(OUTBOX);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Operation> operations(WebSocketSession session) {
+    return (Map<String, Operation>) session.getAttributes().get(OPERATIONS);
+  }
+
+  /**
+   * A started operation, kept under its id from START until it ends or is stopped.
+   */
+  private static class Operation {
+
+    private Subscription subscription;
+    private boolean stopped = false;
+
+    /**
+     * Attach the operation's subscription.
+     *
+     * @param subscription
+     * @return False if the operation was already stopped, so the subscription must be
+     *     cancelled.
+     */
+    synchronized boolean subscribed(Subscription subscription) {
+      this.subscription = subscription;
+      return !this.stopped;
+    }
+
+    /**
+     * Stop the operation, cancelling its subscription now or as soon as it has one.
+     */
+    void stop() {
+      Subscription subscription;
+      synchronized (this) {
+        this.stopped = true;
+        subscription = this.subscription;
+      }
+      if (subscription != null) {
+        subscription.cancel();
+      }
+    }
+
+  }
+
+  /**
+   * A session's outgoing messages. One is written at a time with the container's
+   * asynchronous send, and the rest wait in a queue, so no thread waits on the client.
+   */
+  private static class Outbox implements SendHandler {
+
+    private final javax.websocket.Session session;
+    private final int sendTimeLimit;
+    private final int bufferSize;
+    private final Runnable failed;
+
+    private final Deque<Message> queue = new ArrayDeque<>();
+    private int queuedSize = 0;
+    private Message writing;
+    private boolean closed = false;
+
+    /**
+     * Create an outbox.
+     *
+     * @param session
+     * @param sendTimeLimit Milliseconds a write may take before the session is closed
+     * @param bufferSize Characters of messages queued before the session fails
+     * @param failed Run once if the session fails
+     */
+    Outbox(javax.websocket.Session session, int sendTimeLimit, int bufferSize, Runnable failed) {
+      this.session = session;
+      this.sendTimeLimit = sendTimeLimit;
+      this.bufferSize = bufferSize;
+      this.failed = failed;
+      session.getAsyncRemote().setSendTimeout(sendTimeLimit);
+    }
+
+    /**
+     * Queue a message, writing it now if nothing else is being written.
+     *
+     * @param text
+     * @param written Run once the message is written, if any
+     * @return False if the session is closed or failed.
+     */
+    boolean send(String text, Runnable written) {
+      Message next;
+      synchronized (this) {
+        if (this.closed) {
+          return false;
+        }
+        this.queue.add(new Message(text, written));
+        this.queuedSize += text.length();
+        if (this.queuedSize > this.bufferSize) {
+          next = null;
+        } else if (this.writing != null) {
+          return true;
+        } else {
+          next = this.next();
+        }
+      }
+      if (next == null) {
+        this.fail("send buffer of " + this.bufferSize + " exceeded");
+        return false;
+      }
+      this.write(next);
+      return true;
+    }
+
+    /**
+     * Stop sending, dropping the queued messages.
+     */
+    synchronized void close() {
+      this.closed = true;
+      this.queue.clear();
+      this.queuedSize = 0;
+    }
+
+    @Override
+    public void onResult(SendResult result) {
+      if (!result.isOK()) {
+        synchronized (this) {
+          this.finished();
+        }
+        this.fail(String.valueOf(result.getException()));
+        return;
+      }
+      Message done;
+      Message next;
+      boolean closed;
+      synchronized (this) {
+        done = this.finished();
+        closed = this.closed;
+        next = closed ? null : this.next();
+      }
+      if (closed) {
+        // Failed while the write was in flight, which is now safe to close behind.
+        this.closeQuietly();
+        return;
+      }
+      if (done != null && done.written != null) {
+        done.written.run();
+      }
+      if (next != null) {
+        this.write(next);
+      }
+    }
+
+    /** Take the next queued message as the one being written. */
+    private Message next() {
+      this.writing = this.queue.poll();
+      if (this.writing != null) {
+        this.queuedSize -= this.writing.text.length();
+      }
+      return this.writing;
+    }
+
+    /** End the write in flight, returning its message. */
+    private Message finished() {
+      Message done = this.writing;
+      this.writing = null;
+      if (done != null && done.deadline != null) {
+        done.deadline.cancel(false);
+      }
+      return done;
+    }
+
+    private void write(Message message) {
+      message.deadline = DEADLINES.schedule(
+          () -> this.expired(message), this.sendTimeLimit, TimeUnit.MILLISECONDS);
+      try {
+        this.session.getAsyncRemote().sendText(message.text, this);
+      } catch (RuntimeException e) {
+        this.fail(e.getMessage());
+      }
+    }
+
+    /**
+     * Stop the session's operations. A write still in flight closes the session when it
+     * completes or times out; closing here would wait for it.
+     */
+    private void fail(String reason) {
+      boolean idle;
+      synchronized (this) {
+        if (this.closed) {
+          return;
+        }
+        this.close();
+        idle = this.writing == null;
+      }
+      log.fine("Closing GraphQL WebSocket session " + this.session.getId() + ": " + reason);
+      this.failed.run();
+      if (idle) {
+        this.closeQuietly();
+      }
+    }
+
+    /**
+     * Fail a session whose write outlasted the send time limit. The write would hold up the
+     * close frame, so the connection is closed without one.
+     */
+    private void expired(Message message) {
+      synchronized (this) {
+        if (this.writing != message) {
+          return;
+        }
+      }
+      this.fail("write took longer than " + this.sendTimeLimit + "ms");
+      this.session.getUserProperties().put(BLOCKING_SEND_TIMEOUT, 0L);
+      this.closeQuietly();
+    }
+
+    private void closeQuietly() {
+      try {
+        this.session.close();
+      } catch (IOException e) {
+        log.fine("Couldn't close GraphQL WebSocket session " + this.session.getId() + ": " + e.getMessage());
+      }
+    }
+
+  }
+
+  private static class Message {
+
+    final String text;
+    final Runnable written;
+    volatile ScheduledFuture<?> deadline;
+
+    Message(String text, Runnable written) {
+      this.text = text;
+      this.written = written;
+    }
+
+  }
+
+}
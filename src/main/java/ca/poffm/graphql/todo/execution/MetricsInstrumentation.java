@@ -0,0 +1,238 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import graphql.ExecutionResult;
+import graphql.execution.ExecutionTypeInfo;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationValidationParameters;
+import graphql.language.Document;
+import graphql.language.OperationDefinition;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLType;
+import graphql.validation.ValidationError;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Times GraphQL operations, document parsing and validation, and field resolvers:
+ * <ul>
+ * <li>graphql.operations, tagged with the operation's name and type</li>
+ * <li>graphql.documents, tagged with the phase. Documents found in the document cache
+ * aren't parsed or validated, so these only time cache misses.</li>
+ * <li>graphql.fields, tagged with the field and its parent type. A field that returns a
+ * future is timed until it completes, which for batched fields includes waiting for the
+ * batch to be dispatched.</li>
+ * </ul>
+ * Every timer has an outcome tag of "success" or "error", so it also counts errors.
+ *
+ * Fields resolved once per list item, like each node's fields in a page, aren't timed
+ * unless list-item-fields is on: there are many of them and they are mostly getters.
+ * Operation names come from clients, so only the first max-operation-names distinct
+ * names are tagged and the rest are tagged "other".
+ *
+ * @author PoffM
+ */
+@Component
+public class MetricsInstrumentation extends SimpleInstrumentation implements MeterBinder {
+
+  private static final String SUCCESS = "success";
+  private static final String ERROR = "error";
+  private static final String OTHER = "other";
+
+  /**
+   * The name and type of the operation being executed, once it's known.
+   */
+  private static class OperationState implements InstrumentationState {
+    private volatile String name = "unknown";
+    private volatile String type = "unknown";
+  }
+
+  private final boolean enabled;
+  private final boolean listItemFields;
+  private final int maxOperationNames;
+
+  private final Set<String> operationNames = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Successful field timers by parent type name and field name, so timing a field
+   * doesn't build a meter id.
+   */
+  private final Map<String, Map<String, Timer>> fieldTimers = new ConcurrentHashMap<>();
+
+  private volatile MeterRegistry registry;
+
+  public MetricsInstrumentation(
+      @Value("${todo.graphql.metrics.enabled:true}") boolean enabled,
+      @Value("${todo.graphql.metrics.list-item-fields:false}") boolean listItemFields,
+      @Value("${todo.graphql.metrics.max-operation-names:100}") int maxOperationNames
+      ) {
+    this.enabled = enabled;
+    this.listItemFields = listItemFields;
+    this.maxOperationNames = maxOperationNames;
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public InstrumentationState createState() {
+    return new OperationState();
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecution(InstrumentationExecutionParameters parameters) {
+    long start = System.nanoTime();
+    OperationState state = parameters.getInstrumentationState();
+    return SimpleInstrumentationContext.whenCompleted((result, error) -> this.record(
+        "graphql.operations", "GraphQL operations", start,
+        error != null || result == null || !result.getErrors().isEmpty(),
+        "operation", state.name, "type", state.type));
+  }
+
+  @Override
+  public InstrumentationContext<Document> beginParse(InstrumentationExecutionParameters parameters) {
+    return this.phase("parse", document -> false);
+  }
+
+  @Override
+  public InstrumentationContext<List<ValidationError>> beginValidation(
+      InstrumentationValidationParameters parameters
+      ) {
+    return this.phase("validate", errors -> !errors.isEmpty());
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters
+      ) {
+    OperationState state = parameters.getInstrumentationState();
+    OperationDefinition operation = parameters.getExecutionContext().getOperationDefinition();
+    state.name = this.operationName(operation.getName());
+    state.type = operation.getOperation().name().toLowerCase();
+    return super.beginExecuteOperation(parameters);
+  }
+
+  @Override
+  public DataFetcher<?> instrumentDataFetcher(
+      DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters
+      ) {
+    DataFetchingEnvironment env = parameters.getEnvironment();
+    GraphQLType parentType = env.getParentType();
+    if (this.registry == null || parentType.getName().startsWith("__")
+        || (!this.listItemFields && isListItemField(env))) {
+      return dataFetcher;
+    }
+
+    String parent = parentType.getName();
+    String field = env.getFieldDefinition().getName();
+    return fieldEnv -> {
+      long start = System.nanoTime();
+      Object value;
+      try {
+        value = dataFetcher.get(fieldEnv);
+      } catch (RuntimeException e) {
+        this.recordField(parent, field, start, true);
+        throw e;
+      }
+      if (value instanceof CompletionStage) {
+        ((CompletionStage<?>) value).whenComplete(
+            (result, error) -> this.recordField(parent, field, start, error != null));
+      } else {
+        this.recordField(parent, field, start, false);
+      }
+      return value;
+    };
+  }
+
+  private <T> InstrumentationContext<T> phase(String phase, Predicate<T> invalid) {
+    long start = System.nanoTime();
+    return SimpleInstrumentationContext.whenCompleted((value, error) -> this.record(
+        "graphql.documents", "GraphQL document parsing and validation", start,
+        error != null || (value != null && invalid.test(value)), "phase", phase));
+  }
+
+  private void recordField(String parent, String field, long start, boolean failed) {
+    long elapsed = System.nanoTime() - start;
+    if (failed) {
+      this.timer("graphql.fields", "GraphQL field resolvers", true, "parent", parent, "field", field)
+          .record(elapsed, TimeUnit.NANOSECONDS);
+      return;
+    }
+    this.fieldTimers
+        .computeIfAbsent(parent, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(field, key -> this.timer(
+            "graphql.fields", "GraphQL field resolvers", false, "parent", parent, "field", field))
+        .record(elapsed, TimeUnit.NANOSECONDS);
+  }
+
+  private void record(String name, String description, long start, boolean failed, String... tags) {
+    if (this.registry != null) {
+      this.timer(name, description, failed, tags).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private Timer timer(String name, String description, boolean failed, String... tags) {
+    return Timer.builder(name)
+        .description(description)
+        .tags(tags)
+        .tag("outcome", failed ? ERROR : SUCCESS)
+        .register(this.registry);
+  }
+
+  /**
+   * The tag for an operation name, keeping the number of distinct names bounded.
+   */
+  private String operationName(String name) {
+    if (name == null) {
+      return "anonymous";
+    }
+    if (this.operationNames.contains(name)) {
+      return name;
+    }
+    if (this.operationNames.size() < this.maxOperationNames && this.operationNames.add(name)) {
+      return name;
+    }
+    return this.operationNames.contains(name) ? name : OTHER;
+  }
+
+  /**
+   * Whether a field is resolved for an item of a list, so once per item. Walks up the
+   * type infos, which each completed list is one of, rather than building the path's list
+   * of segments on every fetch.
+   */
+  private static boolean isListItemField(DataFetchingEnvironment env) {
+    for (ExecutionTypeInfo info = env.getFieldTypeInfo().getParentTypeInfo();
+        info != null;
+        info = info.getParentTypeInfo()) {
+      if (info.isListType()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
@@ -0,0 +1,67 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import graphql.ErrorType;
+import graphql.GraphQLError;
+import graphql.GraphQLException;
+import graphql.language.SourceLocation;
+import lombok.Getter;
+
+/**
+ * Thrown when a persisted query can't be resolved or registered. Reported to the client
+ * using the automatic persisted query protocol's error messages and codes.
+ *
+ * @author PoffM
+ */
+public class PersistedQueryException extends GraphQLException implements GraphQLError {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The client should retry the request with the full query text.
+   */
+  public static PersistedQueryException notFound() {
+    return new PersistedQueryException("PersistedQueryNotFound", "PERSISTED_QUERY_NOT_FOUND");
+  }
+
+  /**
+   * The query is not on the server's allow-list.
+   */
+  public static PersistedQueryException notAllowed() {
+    return new PersistedQueryException("PersistedQueryNotAllowed", "PERSISTED_QUERY_NOT_ALLOWED");
+  }
+
+  /**
+   * The hash sent by the client doesn't match the query text.
+   */
+  public static PersistedQueryException hashMismatch() {
+    return new PersistedQueryException("provided sha does not match query", "INTERNAL_SERVER_ERROR");
+  }
+
+  @Getter
+  private final String code;
+
+  private PersistedQueryException(String message, String code) {
+    super(message);
+    this.code = code;
+  }
+
+  @Override
+  public List<SourceLocation> getLocations() {
+    return null;
+  }
+
+  @Override
+  public ErrorType getErrorType() {
+    return ErrorType.ValidationError;
+  }
+
+  @Override
+  public Map<String, Object> getExtensions() {
+    return Collections.singletonMap("code", this.code);
+  }
+
+}
@@ -0,0 +1,153 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import ca.poffm.graphql.todo.cache.BoundedCache;
+import ca.poffm.graphql.todo.cache.BoundedCacheMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.java.Log;
+
+/**
+ * Resolves automatic persisted queries: clients send the SHA-256 hash of a query in
+ * the "persistedQuery" request extension, and only send the full text when the
+ * server doesn't know the hash yet.
+ *
+ * Queries found in the allow-list location are registered at startup. In allow-list
+ * mode no other queries are accepted, whether sent by hash or as text.
+ *
+ * @author PoffM
+ */
+@Log
+@Component
+public class PersistedQueryStore implements MeterBinder {
+
+  private static final String EXTENSION = "persistedQuery";
+
+  private final boolean allowListOnly;
+
+  /** Queries registered at startup, by hash. */
+  private final Map<String, String> allowList;
+
+  /** Queries registered by clients, by hash. */
+  private final BoundedCache<String, String> registered;
+
+  public PersistedQueryStore(
+      @Value("${todo.graphql.persisted-queries.max-size:10000}") long maxSize,
+      @Value("${todo.graphql.persisted-queries.allow-list-only:false}") boolean allowListOnly,
+      @Value("${todo.graphql.persisted-queries.allow-list:classpath*:persisted-queries/*.graphql}")
+          String allowListLocation
+      ) throws IOException {
+    this.allowListOnly = allowListOnly;
+    this.registered = new BoundedCache<>(maxSize);
+
+    Map<String, String> allowList = new HashMap<>();
+    for (Resource resource : new PathMatchingResourcePatternResolver().getResources(allowListLocation)) {
+      try (InputStream in = resource.getInputStream()) {
+        String query = StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        allowList.put(sha256Hex(query), query);
+      }
+    }
+    this.allowList = Collections.unmodifiableMap(allowList);
+    log.info("Registered " + allowList.size() + " persisted queries from " + allowListLocation);
+  }
+
+  /**
+   * Resolve the query text to execute for a request.
+   *
+   * @param query The query text sent by the client, if any
+   * @param extensions The request extensions sent by the client, if any
+   * @return The query text to execute
+   * @throws PersistedQueryException If the query is unknown or not allowed
+   */
+  public String resolve(String query, Map<String, Object> extensions) {
+    String hash = getHash(extensions);
+
+    if (hash == null) {
+      if (this.allowListOnly && query != null && !this.allowList.containsKey(sha256Hex(query))) {
+        throw PersistedQueryException.notAllowed();
+      }
+      return query;
+    }
+
+    if (query == null) {
+      String persisted = this.lookup(hash);
+      if (persisted == null) {
+        throw this.allowListOnly
+            ? PersistedQueryException.notAllowed()
+            : PersistedQueryException.notFound();
+      }
+      return persisted;
+    }
+
+    // The client sent both the hash and the text: register the query.
+    if (!hash.equalsIgnoreCase(sha256Hex(query))) {
+      throw PersistedQueryException.hashMismatch();
+    }
+    if (this.allowListOnly) {
+      if (!this.allowList.containsKey(hash)) {
+        throw PersistedQueryException.notAllowed();
+      }
+    } else {
+      this.registered.put(hash, query);
+    }
+    return query;
+  }
+
+  private String lookup(String hash) {
+    String query = this.allowList.get(hash);
+    if (query == null && !this.allowListOnly) {
+      query = this.registered.get(hash);
+    }
+    return query;
+  }
+
+  private static String getHash(Map<String, Object> extensions) {
+    if (extensions == null || !(extensions.get(EXTENSION) instanceof Map)) {
+      return null;
+    }
+    Object hash = ((Map<?, ?>) extensions.get(EXTENSION)).get("sha256Hash");
+    return hash != null ? hash.toString().toLowerCase() : null;
+  }
+
+  /**
+   * Hex encoded SHA-256 hash of a query's UTF-8 bytes.
+   *
+   * @param query
+   * @return
+   */
+  public static String sha256Hex(String query) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    StringBuilder hex = new StringBuilder(digest.length * 2);
+    for (byte b : digest) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    new BoundedCacheMetrics(this.registered, "graphql.persisted.queries", Collections.emptyList())
+        .bindTo(registry);
+  }
+
+}
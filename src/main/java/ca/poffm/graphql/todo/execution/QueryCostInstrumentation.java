@@ -0,0 +1,165 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import graphql.ExecutionResult;
+import graphql.analysis.QueryTraversal;
+import graphql.analysis.QueryVisitorEnvironment;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.ExecutionContext;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Rejects operations that are too expensive before any resolver runs. The analysis runs
+ * per execution rather than at validation, because validated documents are cached and
+ * page sizes can come from variables.
+ *
+ * Every field costs 1, and a connection field (one taking "first" or "last") costs
+ * connection-cost more for its query. Fields under a connection are multiplied by its
+ * page size, so a node field costs once per node it can be resolved for. Operations are
+ * also limited in depth, number of aliased fields and page size.
+ *
+ * @author PoffM
+ */
+@Component
+public class QueryCostInstrumentation extends SimpleInstrumentation implements MeterBinder {
+
+  /**
+   * The cost totals of one operation.
+   */
+  private static class Cost {
+    private long cost = 0;
+    private int depth = 0;
+    private int aliases = 0;
+    private final List<String> pageSizeErrors = new ArrayList<>();
+  }
+
+  /**
+   * Costs stop growing here, so huge page sizes can't overflow them.
+   */
+  private static final long COST_CAP = Integer.MAX_VALUE;
+
+  private final long maxCost;
+  private final int maxDepth;
+  private final int maxAliases;
+  private final int maxPageSize;
+  private final int connectionCost;
+
+  private Counter rejected;
+
+  public QueryCostInstrumentation(
+      @Value("${todo.graphql.query-cost.max-cost:5000}") long maxCost,
+      @Value("${todo.graphql.query-cost.max-depth:15}") int maxDepth,
+      @Value("${todo.graphql.query-cost.max-aliases:30}") int maxAliases,
+      @Value("${todo.graphql.query-cost.connection-cost:10}") int connectionCost,
+      @Value("${todo.graphql.max-page-size:100}") int maxPageSize
+      ) {
+    this.maxCost = maxCost;
+    this.maxDepth = maxDepth;
+    this.maxAliases = maxAliases;
+    this.connectionCost = connectionCost;
+    this.maxPageSize = maxPageSize;
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters
+      ) {
+    ExecutionContext context = parameters.getExecutionContext();
+    Cost cost = new Cost();
+    new QueryTraversal(
+        context.getGraphQLSchema(), context.getDocument(),
+        context.getOperationDefinition().getName(), context.getVariables()
+        ).visitPreOrder(env -> this.visit(env, cost));
+
+    String error = this.check(cost);
+    if (error != null) {
+      if (this.rejected != null) {
+        this.rejected.increment();
+      }
+      // Thrown before execution starts, so GraphQL answers with this error and no data.
+      throw new AbortExecutionException(error);
+    }
+    return super.beginExecuteOperation(parameters);
+  }
+
+  private void visit(QueryVisitorEnvironment env, Cost cost) {
+    long multiplier = 1;
+    int depth = 1;
+    for (QueryVisitorEnvironment parent = env.getParentEnvironment(); parent != null;
+        parent = parent.getParentEnvironment()) {
+      if (isConnection(parent)) {
+        multiplier = Math.min(multiplier * Math.max(pageSize(parent), 0), COST_CAP);
+      }
+      depth++;
+    }
+
+    long fieldCost = 1;
+    if (isConnection(env)) {
+      fieldCost += this.connectionCost;
+      int pageSize = pageSize(env);
+      if (pageSize < 0 || pageSize > this.maxPageSize) {
+        cost.pageSizeErrors.add(env.getField().getName() + " page size must be between 0 and "
+            + this.maxPageSize + ", but was " + pageSize + ".");
+      }
+    }
+
+    cost.cost = Math.min(cost.cost + fieldCost * multiplier, COST_CAP);
+    cost.depth = Math.max(cost.depth, depth);
+    if (env.getField().getAlias() != null) {
+      cost.aliases++;
+    }
+  }
+
+  /**
+   * Check an operation's totals against the limits.
+   *
+   * @param cost
+   * @return The reason the operation is rejected, or null if it's allowed.
+   */
+  private String check(Cost cost) {
+    if (!cost.pageSizeErrors.isEmpty()) {
+      return String.join(" ", cost.pageSizeErrors);
+    }
+    if (cost.depth > this.maxDepth) {
+      return "Query depth " + cost.depth + " exceeds the maximum of " + this.maxDepth + ".";
+    }
+    if (cost.aliases > this.maxAliases) {
+      return "Query has " + cost.aliases + " aliased fields, more than the maximum of " + this.maxAliases + ".";
+    }
+    if (cost.cost > this.maxCost) {
+      return "Query cost " + cost.cost + " exceeds the maximum of " + this.maxCost + ".";
+    }
+    return null;
+  }
+
+  private static boolean isConnection(QueryVisitorEnvironment env) {
+    return env.getFieldDefinition().getArgument("first") != null
+        || env.getFieldDefinition().getArgument("last") != null;
+  }
+
+  private static int pageSize(QueryVisitorEnvironment env) {
+    Object first = env.getArguments().get("first");
+    Object last = env.getArguments().get("last");
+    Object size = first != null ? first : last;
+    return size instanceof Number ? ((Number) size).intValue() : ConnectionArgs.DEFAULT_PAGE_SIZE;
+  }
+
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    this.rejected = Counter.builder("graphql.requests.rejected")
+        .description("GraphQL operations rejected by the query cost limits")
+        .register(registry);
+  }
+
+}
@@ -0,0 +1,27 @@
+package ca.poffm.graphql.todo.execution;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.dataloader.DataLoaderRegistry;
+
+import lombok.Data;
+
+/**
+ * Context of one GraphQL operation, available to resolvers through @GraphQLRootContext.
+ * 
+ * @author PoffM
+ */
+@Data
+public class RequestContext {
+  
+  /**
+   * The HTTP request the operation came in, or null for operations sent over a WebSocket.
+   */
+  private final HttpServletRequest request;
+  
+  /**
+   * The operation's data loaders. Loads are batched and memoized for this operation only.
+   */
+  private final DataLoaderRegistry dataLoaders;
+  
+}
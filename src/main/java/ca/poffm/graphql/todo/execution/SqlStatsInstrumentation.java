@@ -0,0 +1,196 @@
+package ca.poffm.graphql.todo.execution;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.jdbc.SqlStats;
+import graphql.ErrorType;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+import graphql.GraphQLError;
+import graphql.execution.instrumentation.InstrumentationContext;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimpleInstrumentation;
+import graphql.execution.instrumentation.SimpleInstrumentationContext;
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.language.SourceLocation;
+import graphql.schema.DataFetcher;
+import io.leangen.graphql.execution.ContextWrapper;
+import lombok.extern.java.Log;
+
+/**
+ * Counts the SQL statements, rows and JDBC time of each GraphQL operation, and warns
+ * about operations that run too many statements or run the same statement many times
+ * (N+1 queries). The counts are added to the result's extensions as "sql" when the
+ * request has the debug header.
+ *
+ * The operation's stats are current on the thread that starts it until the operation
+ * is dispatched and, while resolving fields, on any thread that resolves them. They are
+ * exited on the thread that entered them, since the operation may complete on another.
+ * Warnings are logged, and with fail-on-warning they are also added to the result as
+ * errors, so tests fail when an operation's statement count regresses.
+ *
+ * @author PoffM
+ */
+@Log
+@Component
+public class SqlStatsInstrumentation extends SimpleInstrumentation {
+
+  public static final String DEBUG_HEADER = "X-GraphQL-Debug";
+
+  /**
+   * One operation's stats and name.
+   */
+  private static class OperationStats extends SqlStats implements InstrumentationState {
+    private volatile String name = null;
+  }
+
+  /**
+   * A warning reported as an error, with fail-on-warning.
+   */
+  private static class Warning implements GraphQLError {
+    private final String message;
+
+    Warning(String message) {
+      this.message = message;
+    }
+
+    @Override
+    public String getMessage() {
+      return this.message;
+    }
+
+    @Override
+    public List<SourceLocation> getLocations() {
+      return null;
+    }
+
+    @Override
+    public ErrorType getErrorType() {
+      return ErrorType.DataFetchingException;
+    }
+  }
+
+  private final boolean enabled;
+  private final long maxStatements;
+  private final long maxRepeats;
+  private final boolean failOnWarning;
+
+  public SqlStatsInstrumentation(
+      @Value("${todo.graphql.sql-stats.enabled:false}") boolean enabled,
+      @Value("${todo.graphql.sql-stats.max-statements:20}") long maxStatements,
+      @Value("${todo.graphql.sql-stats.max-repeats:10}") long maxRepeats,
+      @Value("${todo.graphql.sql-stats.fail-on-warning:false}") boolean failOnWarning
+      ) {
+    this.enabled = enabled;
+    this.maxStatements = maxStatements;
+    this.maxRepeats = maxRepeats;
+    this.failOnWarning = failOnWarning;
+  }
+
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  @Override
+  public InstrumentationState createState() {
+    return new OperationStats();
+  }
+
+  @Override
+  public InstrumentationContext<ExecutionResult> beginExecuteOperation(
+      InstrumentationExecuteOperationParameters parameters
+      ) {
+    OperationStats stats = parameters.getInstrumentationState();
+    stats.name = parameters.getExecutionContext().getOperationDefinition().getName();
+    SqlStats previous = stats.enter();
+    // Dispatched on this thread, once everything that runs synchronously has.
+    return SimpleInstrumentationContext.whenDispatched(result -> stats.exit(previous));
+  }
+
+  @Override
+  public DataFetcher<?> instrumentDataFetcher(
+      DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters
+      ) {
+    OperationStats stats = parameters.getInstrumentationState();
+    if (SqlStats.current() == stats) {
+      return dataFetcher;
+    }
+    // Resolving on another thread, e.g. after an asynchronous field completed.
+    return env -> {
+      SqlStats previous = stats.enter();
+      try {
+        return dataFetcher.get(env);
+      } finally {
+        stats.exit(previous);
+      }
+    };
+  }
+
+  @Override
+  public CompletableFuture<ExecutionResult> instrumentExecutionResult(
+      ExecutionResult result, InstrumentationExecutionParameters parameters
+      ) {
+    OperationStats stats = parameters.getInstrumentationState();
+    List<String> warnings = this.warnings(stats);
+    warnings.forEach(log::warning);
+
+    boolean debug = isDebug(parameters.getContext());
+    if (!debug && !(this.failOnWarning && !warnings.isEmpty())) {
+      return CompletableFuture.completedFuture(result);
+    }
+
+    List<GraphQLError> errors = new ArrayList<>(result.getErrors());
+    if (this.failOnWarning) {
+      warnings.forEach(warning -> errors.add(new Warning(warning)));
+    }
+    Map<Object, Object> extensions = new LinkedHashMap<>();
+    if (result.getExtensions() != null) {
+      extensions.putAll(result.getExtensions());
+    }
+    if (debug) {
+      Map<String, Object> sql = new LinkedHashMap<>();
+      sql.put("statements", stats.getStatements());
+      sql.put("rows", stats.getRows());
+      sql.put("jdbcTimeMillis", stats.getJdbcNanos() / 1e6);
+      extensions.put("sql", sql);
+    }
+    return CompletableFuture.completedFuture(new ExecutionResultImpl(
+        result.getData(), errors, extensions.isEmpty() ? null : extensions));
+  }
+
+  private List<String> warnings(OperationStats stats) {
+    List<String> warnings = new ArrayList<>();
+    String operation = stats.name != null ? "Operation " + stats.name : "An anonymous operation";
+    if (stats.getStatements() > this.maxStatements) {
+      warnings.add(operation + " ran " + stats.getStatements() + " SQL statements, more than "
+          + this.maxStatements + ".");
+    }
+    stats.repeated(this.maxRepeats).forEach((sql, times) -> warnings.add(
+        operation + " ran the same SQL statement " + times + " times, which may be an N+1 query: " + sql));
+    return warnings;
+  }
+
+  private static boolean isDebug(Object context) {
+    // SPQR wraps the context it's given.
+    if (context instanceof ContextWrapper) {
+      context = ((ContextWrapper) context).getContext();
+    }
+    if (!(context instanceof RequestContext)) {
+      return false;
+    }
+    HttpServletRequest request = ((RequestContext) context).getRequest();
+    return request != null && "true".equalsIgnoreCase(request.getHeader(DEBUG_HEADER));
+  }
+
+}
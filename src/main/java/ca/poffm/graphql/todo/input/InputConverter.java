@@ -1,14 +1,25 @@
 package ca.poffm.graphql.todo.input;
 
 import java.beans.PropertyDescriptor;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import org.springframework.beans.BeanUtils;
+import org.springframework.core.ResolvableType;
 import org.springframework.stereotype.Component;
-
-import lombok.extern.java.Log;
+import org.springframework.util.ClassUtils;
 
 /**
  * Converts an input object to a POJO object. Input objects are expected to have
@@ -16,14 +27,57 @@ import lombok.extern.java.Log;
  * Optional.empty(), because GraphQL SPQR serializes null as null and ignores
  * undefined values.
  * 
- * TODO rewrite with less code, less reflection. Use some other library like MapStruct
+ * The property mapping between two classes is worked out once, into a plan of getter and
+ * setter lambdas generated with LambdaMetafactory, so converting doesn't use reflection.
  * 
  * @author PoffM
  */
-@Log
 @Component
 public class InputConverter {
 
+  /**
+   * Copies one property from a source object to a target object.
+   */
+  private static class PropertyCopy {
+    private final Function<Object, Object> getter;
+    private final BiConsumer<Object, Object> setter;
+    // A primitive can't be set to null.
+    private final boolean primitive;
+
+    PropertyCopy(Function<Object, Object> getter, BiConsumer<Object, Object> setter, boolean primitive) {
+      this.getter = getter;
+      this.setter = setter;
+      this.primitive = primitive;
+    }
+  }
+
+  /**
+   * The compiled mapping from a source class to a target class.
+   */
+  private static class Plan {
+    private final Supplier<Object> constructor;
+    private final List<PropertyCopy> properties;
+
+    Plan(Supplier<Object> constructor, List<PropertyCopy> properties) {
+      this.constructor = constructor;
+      this.properties = properties;
+    }
+  }
+
+  private final Map<Class<?>, Map<Class<?>, Plan>> plans = new ConcurrentHashMap<>();
+
+  /**
+   * Check and compile the mapping between two classes ahead of use, so a source property
+   * without a matching target property fails at startup instead of on a request.
+   * 
+   * @param sourceClass
+   * @param targetClass
+   * @throws IllegalArgumentException If the classes can't be mapped.
+   */
+  public void compile(Class<?> sourceClass, Class<?> targetClass) {
+    this.getPlan(sourceClass, targetClass);
+  }
+
   /**
    * Converts from the input object to a new object of the target class.
    * 
@@ -32,58 +86,144 @@ public class InputConverter {
    * @return
    */
   public <S, D> D convert(S source, Class<D> targetClass) {
-    D output;
-    try {
-      output = targetClass.newInstance();
-    } catch (ReflectiveOperationException e) {
-      throw new IllegalArgumentException(targetClass.getName(), e);
+    Plan plan = this.getPlan(source.getClass(), targetClass);
+    if (plan.constructor == null) {
+      throw new IllegalArgumentException(targetClass.getName() + " has no public no-arg constructor");
     }
 
-    this.patch(source, output);
-
+    D output = targetClass.cast(plan.constructor.get());
+    this.apply(plan, source, output);
     return output;
   }
 
   /**
    * Apply values from the source input object to the target object.
    * Optional values are resolved and applied.
-   * null is applied as null.
+   * null is applied as null, except to primitive properties, which keep their value.
    * Optional.empty() is not applied.
    * 
    * @param source
    * @param target
    */
   public <S, D> void patch(S source, D target) {
-    
+    this.apply(this.getPlan(source.getClass(), target.getClass()), source, target);
+  }
+
+  private void apply(Plan plan, Object source, Object target) {
+    for (PropertyCopy property : plan.properties) {
+      Object inputValue = property.getter.apply(source);
+
+      if (inputValue instanceof Optional && ((Optional<?>) inputValue).isPresent()) {
+        property.setter.accept(target, ((Optional<?>) inputValue).get());
+      } else if (inputValue == null && !property.primitive) {
+        property.setter.accept(target, null);
+      }
+    }
+  }
+
+  private Plan getPlan(Class<?> sourceClass, Class<?> targetClass) {
+    return this.plans
+        .computeIfAbsent(sourceClass, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(targetClass, key -> buildPlan(sourceClass, targetClass));
+  }
+
+  private static Plan buildPlan(Class<?> sourceClass, Class<?> targetClass) {
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    List<PropertyCopy> properties = new ArrayList<>();
+
     // Loop through source object properties
-    for (PropertyDescriptor sourcePd : BeanUtils.getPropertyDescriptors(source.getClass())) {
+    for (PropertyDescriptor sourcePd : BeanUtils.getPropertyDescriptors(sourceClass)) {
       Method readMethod = sourcePd.getReadMethod();
+      if (readMethod == null) continue;
 
-      PropertyDescriptor destPd =
-          BeanUtils.getPropertyDescriptor(target.getClass(), sourcePd.getName());
+      PropertyDescriptor destPd = BeanUtils.getPropertyDescriptor(targetClass, sourcePd.getName());
       if (destPd == null) {
         throw new IllegalArgumentException(
-            "No property descriptor on " + target.getClass().getName() + " for " + sourcePd.getName()
+            "No property descriptor on " + targetClass.getName() + " for " + sourcePd.getName()
             );
       }
       
       Method writeMethod = destPd.getWriteMethod();
       if (writeMethod == null) continue;
 
-      try {
+      // An Optional<T> input sets its T value.
+      ResolvableType inputType = ResolvableType.forMethodReturnType(readMethod);
+      Class<?> valueType = inputType.resolve(Object.class) == Optional.class
+          ? inputType.getGeneric(0).resolve(Object.class)
+          : inputType.resolve(Object.class);
+      if (!ClassUtils.isAssignable(writeMethod.getParameterTypes()[0], valueType)) {
+        throw new IllegalArgumentException(
+            sourceClass.getName() + "." + sourcePd.getName() + " is a " + valueType.getName()
+            + ", which can't be set on " + targetClass.getName() + "." + destPd.getName()
+            + " of type " + writeMethod.getParameterTypes()[0].getName()
+            );
+      }
 
-        Object inputValue = readMethod.invoke(source);
+      properties.add(new PropertyCopy(
+          getter(lookup, readMethod),
+          setter(lookup, writeMethod),
+          writeMethod.getParameterTypes()[0].isPrimitive()));
+    }
 
-        if (inputValue instanceof Optional && ((Optional<?>) inputValue).isPresent()) {
-          writeMethod.invoke(target, ((Optional<?>) inputValue).get());
-        } else if (inputValue == null) {
-          writeMethod.invoke(target, inputValue);
-        }
+    return new Plan(constructor(lookup, targetClass), properties);
+  }
 
-      } catch (ReflectiveOperationException e) {
-        log.severe(Arrays.toString(e.getStackTrace()));
-      }
+  @SuppressWarnings("unchecked")
+  private static Function<Object, Object> getter(MethodHandles.Lookup lookup, Method method) {
+    try {
+      MethodHandle handle = lookup.unreflect(method);
+      CallSite site = LambdaMetafactory.metafactory(
+          lookup, "apply",
+          MethodType.methodType(Function.class),
+          MethodType.methodType(Object.class, Object.class),
+          handle,
+          handle.type().wrap());
+      return (Function<Object, Object>) site.getTarget().invoke();
+    } catch (Throwable e) {
+      throw new IllegalArgumentException("Can't compile getter " + method, e);
+    }
+  }
 
+  @SuppressWarnings("unchecked")
+  private static BiConsumer<Object, Object> setter(MethodHandles.Lookup lookup, Method method) {
+    try {
+      MethodHandle handle = lookup.unreflect(method);
+      CallSite site = LambdaMetafactory.metafactory(
+          lookup, "accept",
+          MethodType.methodType(BiConsumer.class),
+          MethodType.methodType(void.class, Object.class, Object.class),
+          handle,
+          handle.type().wrap().changeReturnType(void.class));
+      return (BiConsumer<Object, Object>) site.getTarget().invoke();
+    } catch (Throwable e) {
+      throw new IllegalArgumentException("Can't compile setter " + method, e);
+    }
+  }
+
+  /**
+   * Compile the target class's public no-arg constructor.
+   * 
+   * @return The constructor, or null if there isn't one.
+   */
+  @SuppressWarnings("unchecked")
+  private static Supplier<Object> constructor(MethodHandles.Lookup lookup, Class<?> targetClass) {
+    MethodHandle handle;
+    try {
+      handle = lookup.findConstructor(targetClass, MethodType.methodType(void.class));
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+
+    try {
+      CallSite site = LambdaMetafactory.metafactory(
+          lookup, "get",
+          MethodType.methodType(Supplier.class),
+          MethodType.methodType(Object.class),
+          handle,
+          handle.type());
+      return (Supplier<Object>) site.getTarget().invoke();
+    } catch (Throwable e) {
+      throw new IllegalArgumentException("Can't compile constructor of " + targetClass.getName(), e);
     }
   }
 
@@ -0,0 +1,124 @@
+package ca.poffm.graphql.todo.input;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions.QueryConfig;
+import lombok.Data;
+
+/**
+ * Model of the input object for filtering task connections. Unset fields don't filter.
+ * 
+ * @author PoffM
+ */
+@Data
+public class TaskFilter {
+  private Boolean done;
+  private Date dueBefore;
+  private Date dueAfter;
+  private Boolean overdue;
+  private String namePrefix;
+  
+  /**
+   * Query config adding this filter's predicates to the query's restriction. Each one is
+   * a comparison on an indexed column, so the database can range scan instead of
+   * testing every row.
+   * 
+   * @return
+   */
+  public QueryConfig toQueryConfig() {
+    Date now = new Date();
+    return (query, cb, root) -> {
+      Path<Boolean> done = root.get("done");
+      Path<Date> dueDate = root.get("dueDate");
+      Path<String> name = root.get("name");
+      
+      List<Predicate> predicates = new ArrayList<>();
+      if (query.getRestriction() != null) {
+        predicates.add(query.getRestriction());
+      }
+      if (this.done != null) {
+        predicates.add(cb.equal(done, this.done));
+      }
+      if (this.dueAfter != null) {
+        predicates.add(cb.greaterThan(dueDate, this.dueAfter));
+      }
+      if (this.dueBefore != null) {
+        predicates.add(cb.lessThan(dueDate, this.dueBefore));
+      }
+      if (this.overdue != null) {
+        predicates.add(this.overdue
+            ? cb.and(cb.equal(done, false), cb.lessThan(dueDate, now))
+            : cb.or(cb.equal(done, true), cb.isNull(dueDate), cb.greaterThanOrEqualTo(dueDate, now)));
+      }
+      if (this.namePrefix != null && !this.namePrefix.isEmpty()) {
+        // The lower bound lets the database seek to the prefix; LIKE ends the range.
+        predicates.add(cb.greaterThanOrEqualTo(name, this.namePrefix));
+        predicates.add(cb.like(name, escapeLike(this.namePrefix) + "%", '\\'));
+      }
+      query.where(predicates.toArray(new Predicate[0]));
+    };
+  }
+  
+  /**
+   * The index that serves this filter's range, for the connection's index hint. H2 would
+   * otherwise read the connection's equality index and test the range on every row.
+   * 
+   * @return The index name, or null if the filter has no range.
+   */
+  public String indexHint() {
+    if (this.namePrefix != null && !this.namePrefix.isEmpty()) {
+      return Task.NAME_INDEX;
+    }
+    if (Boolean.TRUE.equals(this.overdue)
+        || (this.done != null && (this.dueAfter != null || this.dueBefore != null))) {
+      return Task.DONE_DUE_DATE_INDEX;
+    }
+    if (this.dueAfter != null || this.dueBefore != null) {
+      return Task.DUE_DATE_INDEX;
+    }
+    return null;
+  }
+  
+  /**
+   * Test for the tasks this filter keeps, matching {@link #toQueryConfig()} for stores
+   * that don't query a database. Comparisons with a null due date are false, as in SQL.
+   * 
+   * @return
+   */
+  public java.util.function.Predicate<Task> toPredicate() {
+    Date now = new Date();
+    return task -> {
+      Date dueDate = task.getDueDate();
+      if (this.done != null && !this.done.equals(task.getDone())) {
+        return false;
+      }
+      if (this.dueAfter != null && (dueDate == null || !dueDate.after(this.dueAfter))) {
+        return false;
+      }
+      if (this.dueBefore != null && (dueDate == null || !dueDate.before(this.dueBefore))) {
+        return false;
+      }
+      if (this.overdue != null) {
+        boolean overdue = !task.getDone() && dueDate != null && dueDate.before(now);
+        if (overdue != this.overdue) {
+          return false;
+        }
+      }
+      if (this.namePrefix != null && !this.namePrefix.isEmpty()
+          && (task.getName() == null || !task.getName().startsWith(this.namePrefix))) {
+        return false;
+      }
+      return true;
+    };
+  }
+  
+  private static String escapeLike(String value) {
+    return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+  }
+}
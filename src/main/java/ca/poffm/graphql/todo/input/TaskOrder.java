@@ -0,0 +1,31 @@
+package ca.poffm.graphql.todo.input;
+
+import ca.poffm.graphql.todo.paging.SortDirection;
+import ca.poffm.graphql.todo.paging.SortKey;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Model of the input object for sorting task connections.
+ * 
+ * @author PoffM
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TaskOrder {
+  private TaskOrderField field = TaskOrderField.ID;
+  private SortDirection direction = SortDirection.ASC;
+  
+  /**
+   * The connection sort key for this order.
+   * 
+   * @return
+   */
+  public SortKey toSortKey() {
+    return new SortKey(
+        this.field != null ? this.field.getAttribute() : TaskOrderField.ID.getAttribute(),
+        this.direction != null ? this.direction : SortDirection.ASC);
+  }
+}
@@ -0,0 +1,25 @@
+package ca.poffm.graphql.todo.input;
+
+import lombok.Getter;
+
+/**
+ * The Task fields a task connection can be sorted by.
+ * 
+ * @author PoffM
+ */
+public enum TaskOrderField {
+  ID("id"),
+  NAME("name"),
+  DUE_DATE("dueDate"),
+  CREATED("created");
+  
+  /**
+   * The Task JPA attribute.
+   */
+  @Getter
+  private final String attribute;
+  
+  TaskOrderField(String attribute) {
+    this.attribute = attribute;
+  }
+}
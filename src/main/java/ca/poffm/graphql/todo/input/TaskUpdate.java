@@ -0,0 +1,24 @@
+package ca.poffm.graphql.todo.input;
+
+import io.leangen.graphql.annotations.GraphQLNonNull;
+import lombok.Data;
+
+/**
+ * Model of the input object for one task of a bulk update.
+ * 
+ * @author PoffM
+ */
+@Data
+public class TaskUpdate {
+  private Long id;
+  private TaskInput patch;
+  
+  /**
+   * The schema takes an input field's type from its setter, so the id is required here.
+   * 
+   * @param id
+   */
+  public void setId(@GraphQLNonNull Long id) {
+    this.id = id;
+  }
+}
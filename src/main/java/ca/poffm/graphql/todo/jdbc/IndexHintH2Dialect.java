@@ -0,0 +1,28 @@
+package ca.poffm.graphql.todo.jdbc;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.hibernate.dialect.H2Dialect;
+
+/**
+ * H2 dialect that writes Hibernate query hints as H2 index hints: a query hinted with
+ * index names reads its root table with {@code USE INDEX (...)}.
+ *
+ * @author PoffM
+ */
+public class IndexHintH2Dialect extends H2Dialect {
+
+  /** The root table and its alias, e.g. "from task task0_". */
+  private static final Pattern FROM_TABLE = Pattern.compile("\\bfrom\\s+\\w+\\s+\\w+", Pattern.CASE_INSENSITIVE);
+
+  @Override
+  public String getQueryHintString(String query, String hints) {
+    Matcher from = FROM_TABLE.matcher(query);
+    if (hints.isEmpty() || !from.find()) {
+      return query;
+    }
+    return query.substring(0, from.end()) + " USE INDEX (" + hints + ")" + query.substring(from.end());
+  }
+
+}
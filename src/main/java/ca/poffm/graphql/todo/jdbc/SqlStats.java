@@ -0,0 +1,112 @@
+package ca.poffm.graphql.todo.jdbc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * SQL statements, rows and JDBC time of one unit of work, usually a GraphQL operation.
+ * Statements run through a {@link SqlStatsDataSource} are counted in the stats current
+ * on the thread that runs them.
+ *
+ * @author PoffM
+ */
+public class SqlStats {
+
+  /**
+   * Most distinct statements counted separately, to find repeated ones.
+   */
+  private static final int MAX_DISTINCT_STATEMENTS = 100;
+
+  private static final ThreadLocal<SqlStats> CURRENT = new ThreadLocal<>();
+
+  private final LongAdder statements = new LongAdder();
+  private final LongAdder rows = new LongAdder();
+  private final LongAdder jdbcNanos = new LongAdder();
+  private final Map<String, LongAdder> executions = new ConcurrentHashMap<>();
+
+  /**
+   * The stats that statements run on this thread are counted in, if any.
+   *
+   * @return
+   */
+  public static SqlStats current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Count the statements run on this thread in these stats, until they're exited.
+   *
+   * @return The stats that were current before.
+   */
+  public SqlStats enter() {
+    SqlStats previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  /**
+   * Stop counting this thread's statements in these stats, if they're current.
+   *
+   * @param previous The stats to make current again
+   */
+  public void exit(SqlStats previous) {
+    if (CURRENT.get() == this) {
+      if (previous == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(previous);
+      }
+    }
+  }
+
+  void executed(String sql, long nanos) {
+    this.statements.increment();
+    this.jdbcNanos.add(nanos);
+    if (sql != null) {
+      LongAdder count = this.executions.get(sql);
+      if (count == null && this.executions.size() < MAX_DISTINCT_STATEMENTS) {
+        count = this.executions.computeIfAbsent(sql, key -> new LongAdder());
+      }
+      if (count != null) {
+        count.increment();
+      }
+    }
+  }
+
+  void rows(long rows) {
+    this.rows.add(rows);
+  }
+
+  public long getStatements() {
+    return this.statements.sum();
+  }
+
+  /**
+   * Rows read from result sets plus rows changed by updates.
+   *
+   * @return
+   */
+  public long getRows() {
+    return this.rows.sum();
+  }
+
+  public long getJdbcNanos() {
+    return this.jdbcNanos.sum();
+  }
+
+  /**
+   * Statements run at least a number of times, which usually means something loads
+   * rows one at a time (N+1 queries).
+   *
+   * @param times
+   * @return The number of times each of those statements ran.
+   */
+  public Map<String, Long> repeated(long times) {
+    return this.executions.entrySet().stream()
+        .filter(entry -> entry.getValue().sum() >= times)
+        .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().sum()));
+  }
+
+}
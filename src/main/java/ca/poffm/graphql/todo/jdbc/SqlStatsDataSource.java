@@ -0,0 +1,119 @@
+package ca.poffm.graphql.todo.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+/**
+ * Wraps a DataSource so the statements run on its connections are counted in the
+ * current {@link SqlStats}: each execution and its time, the rows read through its
+ * result sets and the rows changed by updates. A batch counts as one statement.
+ * Statements run while no stats are current aren't counted.
+ *
+ * @author PoffM
+ */
+public final class SqlStatsDataSource {
+
+  private SqlStatsDataSource() {}
+
+  public static DataSource wrap(DataSource dataSource) {
+    return proxy(DataSource.class, dataSource, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      return result instanceof Connection ? wrapConnection((Connection) result) : result;
+    });
+  }
+
+  private static Connection wrapConnection(Connection connection) {
+    return proxy(Connection.class, connection, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      if (result instanceof Statement) {
+        // Prepared statements and calls get their SQL now, plain statements when executed.
+        String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+        return wrapStatement(method.getReturnType(), (Statement) result, sql);
+      }
+      return result;
+    });
+  }
+
+  private static Object wrapStatement(Class<?> type, Statement statement, String preparedSql) {
+    return proxy(type, statement, (target, method, args) -> {
+      String name = method.getName();
+      SqlStats stats = SqlStats.current();
+      if (stats == null) {
+        return invoke(target, method, args);
+      }
+
+      if (name.equals("getResultSet")) {
+        return wrapResultSet((ResultSet) invoke(target, method, args), stats);
+      }
+      if (!name.startsWith("execute")) {
+        return invoke(target, method, args);
+      }
+
+      long start = System.nanoTime();
+      Object result = invoke(target, method, args);
+      String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : preparedSql;
+      stats.executed(sql, System.nanoTime() - start);
+
+      if (result instanceof ResultSet) {
+        return wrapResultSet((ResultSet) result, stats);
+      }
+      if (name.endsWith("Update") && result instanceof Number) {
+        stats.rows(((Number) result).longValue());
+      } else if (result instanceof int[]) {
+        for (int count : (int[]) result) {
+          stats.rows(Math.max(count, 0));
+        }
+      } else if (result instanceof long[]) {
+        for (long count : (long[]) result) {
+          stats.rows(Math.max(count, 0));
+        }
+      }
+      return result;
+    });
+  }
+
+  private static ResultSet wrapResultSet(ResultSet resultSet, SqlStats stats) {
+    if (resultSet == null) {
+      return null;
+    }
+    return proxy(ResultSet.class, resultSet, (target, method, args) -> {
+      Object result = invoke(target, method, args);
+      if (method.getName().equals("next") && Boolean.TRUE.equals(result)) {
+        stats.rows(1);
+      }
+      return result;
+    });
+  }
+
+  /**
+   * Handles a call on a wrapped object, given the object it wraps.
+   */
+  @FunctionalInterface
+  private interface Handler<T> {
+    Object invoke(T target, Method method, Object[] args) throws Throwable;
+  }
+
+  private static <T> T proxy(Class<?> type, T target, Handler<T> handler) {
+    InvocationHandler invocationHandler = (proxy, method, args) -> handler.invoke(target, method, args);
+    @SuppressWarnings("unchecked")
+    T proxy = (T) Proxy.newProxyInstance(SqlStatsDataSource.class.getClassLoader(), new Class<?>[] { type },
+        invocationHandler);
+    return proxy;
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+}
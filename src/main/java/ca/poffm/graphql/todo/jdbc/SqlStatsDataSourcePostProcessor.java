@@ -0,0 +1,35 @@
+package ca.poffm.graphql.todo.jdbc;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+
+/**
+ * Wraps the app's DataSource with {@link SqlStatsDataSource}. Runs after the other post
+ * processors, so they still see the pool's own DataSource type.
+ *
+ * @author PoffM
+ */
+@Component
+public class SqlStatsDataSourcePostProcessor implements BeanPostProcessor, Ordered {
+
+  private final boolean enabled;
+
+  public SqlStatsDataSourcePostProcessor(@Value("${todo.graphql.sql-stats.enabled:false}") boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  @Override
+  public Object postProcessAfterInitialization(Object bean, String beanName) {
+    return this.enabled && bean instanceof DataSource ? SqlStatsDataSource.wrap((DataSource) bean) : bean;
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.LOWEST_PRECEDENCE;
+  }
+
+}
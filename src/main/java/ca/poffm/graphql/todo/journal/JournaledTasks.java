@@ -0,0 +1,50 @@
+package ca.poffm.graphql.todo.journal;
+
+import java.util.function.Consumer;
+
+import ca.poffm.graphql.todo.model.Task;
+
+/**
+ * The tasks a {@link TaskJournal} records the changes to, recovered into at startup
+ * and read for snapshots.
+ *
+ * @author PoffM
+ */
+public interface JournaledTasks {
+
+  /**
+   * Store a recovered task as it was saved, keeping its id and timestamps.
+   *
+   * @param task
+   */
+  void restore(Task task);
+
+  /**
+   * Remove a task whose deletion was recovered. Its id isn't given to a new task.
+   *
+   * @param id
+   */
+  void restoreDeleted(Long id);
+
+  /**
+   * Don't give new tasks ids up to this one.
+   *
+   * @param id
+   */
+  void restoreLastId(long id);
+
+  /**
+   * The last id given to a task, including tasks since deleted.
+   *
+   * @return
+   */
+  long lastId();
+
+  /**
+   * Read every task.
+   *
+   * @param consumer
+   */
+  void forEach(Consumer<Task> consumer);
+
+}
@@ -0,0 +1,77 @@
+package ca.poffm.graphql.todo.journal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import ca.poffm.graphql.todo.model.Task;
+
+/**
+ * Binary form of a task, for journal records and snapshots. Strings are length-prefixed
+ * UTF-8 and dates are epoch milliseconds, with a marker for null.
+ *
+ * @author PoffM
+ */
+final class TaskCodec {
+
+  private static final int NULL_STRING = -1;
+  private static final long NULL_DATE = Long.MIN_VALUE;
+
+  private TaskCodec() {}
+
+  static void write(DataOutput out, Task task) throws IOException {
+    out.writeLong(task.getId());
+    writeString(out, task.getName());
+    writeString(out, task.getDescription());
+    writeDate(out, task.getDueDate());
+    out.writeBoolean(task.getDone());
+    writeDate(out, task.getCreated());
+    writeDate(out, task.getUpdated());
+    out.writeBoolean(task.getAutoGeneratedExample());
+  }
+
+  static Task read(DataInput in) throws IOException {
+    Task task = new Task();
+    task.setId(in.readLong());
+    task.setName(readString(in));
+    task.setDescription(readString(in));
+    task.setDueDate(readDate(in));
+    task.setDone(in.readBoolean());
+    task.setCreated(readDate(in));
+    task.setUpdated(readDate(in));
+    task.setAutoGeneratedExample(in.readBoolean());
+    return task;
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_STRING);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    int length = in.readInt();
+    if (length == NULL_STRING) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeDate(DataOutput out, Date value) throws IOException {
+    out.writeLong(value != null ? value.getTime() : NULL_DATE);
+  }
+
+  private static Date readDate(DataInput in) throws IOException {
+    long value = in.readLong();
+    return value != NULL_DATE ? new Date(value) : null;
+  }
+
+}
@@ -0,0 +1,509 @@
+package ca.poffm.graphql.todo.journal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.model.Task;
+import lombok.extern.java.Log;
+
+/**
+ * Append-only journal of task changes, so the in-memory task store survives restarts.
+ * Each saved task is recorded whole and each deletion by id, so replaying a record
+ * more than once gives the same tasks.
+ *
+ * Records are appended to memory-mapped segment files, named after the journal position
+ * (LSN) they start at. A record is its payload's length and CRC-32, then the payload,
+ * so a record torn by a crash ends the replay of its segment. Appending doesn't wait for
+ * the disk: {@link #sync(long)} does, and concurrent callers share one fsync (group
+ * commit). The first waiter forces the segment for everyone who appended before it, and
+ * the ones arriving meanwhile wait for the next.
+ *
+ * Snapshots of all the tasks are taken periodically and at shutdown. A snapshot starts
+ * a new segment and records its LSN; the tasks it reads may already include later
+ * changes, which is fine since their records are replayed over it. Once the snapshot is
+ * on disk, older snapshots and segments are deleted. Recovery loads the latest snapshot,
+ * then replays the records from its LSN on.
+ *
+ * @author PoffM
+ */
+@Log
+@Component
+@ConditionalOnExpression("'${todo.store.type:jpa}' == 'memory' and ${todo.store.journal.enabled:false}")
+public class TaskJournal {
+
+  private static final byte PUT = 1;
+  private static final byte DELETE = 2;
+
+  /**
+   * A record's payload length and CRC-32.
+   */
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * Written instead of a length when the next record doesn't fit in the segment.
+   */
+  private static final int END_OF_SEGMENT = -1;
+
+  private static final String SEGMENT_PREFIX = "journal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String SNAPSHOT_PREFIX = "snapshot-";
+  private static final String SNAPSHOT_SUFFIX = ".bin";
+
+  /**
+   * Output stream whose buffer can be read without copying it.
+   */
+  private static class RecordBuffer extends ByteArrayOutputStream {
+    byte[] bytes() {
+      return this.buf;
+    }
+  }
+
+  /**
+   * Writes a record's payload after its type.
+   */
+  @FunctionalInterface
+  private interface PayloadWriter {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long snapshotInterval;
+
+  // Appending. Guarded by appendLock.
+  private final Object appendLock = new Object();
+  private final RecordBuffer record = new RecordBuffer();
+  private final DataOutputStream recordOut = new DataOutputStream(this.record);
+  private final CRC32 crc = new CRC32();
+  private MappedByteBuffer segment;
+  private long segmentStart;
+  private long written;
+
+  // Group commit. Guarded by syncLock.
+  private final ReentrantLock syncLock = new ReentrantLock();
+  private final Condition synced = this.syncLock.newCondition();
+  private long durable;
+  private boolean syncing = false;
+
+  private final AtomicLong syncs = new AtomicLong();
+  private final Object snapshotLock = new Object();
+  private long lastSnapshot = -1;
+
+  private volatile JournaledTasks tasks;
+  private ScheduledExecutorService snapshots;
+
+  public TaskJournal(
+      @Value("${todo.store.journal.dir:data/journal}") String directory,
+      @Value("${todo.store.journal.segment-size:67108864}") int segmentSize,
+      @Value("${todo.store.journal.snapshot-interval:600}") long snapshotInterval
+      ) {
+    this.directory = Paths.get(directory);
+    this.segmentSize = segmentSize;
+    this.snapshotInterval = snapshotInterval;
+  }
+
+  /**
+   * Recover the tasks from the latest snapshot and the journal after it, then start
+   * recording their changes and taking snapshots.
+   *
+   * @param tasks Where to recover the tasks to. Only changes made after this returns
+   *     are recorded.
+   */
+  public void open(JournaledTasks tasks) {
+    try {
+      Files.createDirectories(this.directory);
+      long start = System.nanoTime();
+
+      List<Path> snapshotFiles = this.files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+      long cut = 0;
+      long restored = 0;
+      if (!snapshotFiles.isEmpty()) {
+        Path snapshot = snapshotFiles.get(snapshotFiles.size() - 1);
+        cut = lsnOf(snapshot, SNAPSHOT_PREFIX);
+        restored = TaskSnapshot.read(snapshot, tasks);
+      }
+
+      long end = cut;
+      long replayed = 0;
+      List<Path> segments = this.files(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+      for (Path segmentFile : segments) {
+        long[] replay = this.replay(segmentFile, cut, tasks);
+        end = Math.max(end, replay[0]);
+        replayed += replay[1];
+      }
+      // An empty last segment is started again instead of being left behind.
+      if (!segments.isEmpty()) {
+        Path last = segments.get(segments.size() - 1);
+        if (lsnOf(last, SEGMENT_PREFIX) == end) {
+          Files.delete(last);
+        }
+      }
+
+      synchronized (this.appendLock) {
+        this.openSegment(end);
+      }
+      this.durable = end;
+      this.lastSnapshot = snapshotFiles.isEmpty() ? -1 : cut;
+      this.tasks = tasks;
+
+      log.info("Recovered " + restored + " tasks from the snapshot and replayed " + replayed
+          + " journal records in " + (System.nanoTime() - start) / 1_000_000 + "ms.");
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't recover the task journal in " + this.directory, e);
+    }
+
+    if (this.snapshotInterval > 0) {
+      this.snapshots = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "task-snapshots");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.snapshots.scheduleWithFixedDelay(
+          this::snapshotQuietly, this.snapshotInterval, this.snapshotInterval, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Record a created or updated task. Call after the change is visible in the tasks, so
+   * a snapshot taken after the record's LSN has it.
+   *
+   * @param task
+   * @return The LSN to {@link #sync(long)} to make the record durable.
+   */
+  public long put(Task task) {
+    return this.append(PUT, out -> TaskCodec.write(out, task));
+  }
+
+  /**
+   * Record a deleted task. Call after it's removed from the tasks.
+   *
+   * @param id
+   * @return The LSN to {@link #sync(long)} to make the record durable.
+   */
+  public long delete(Long id) {
+    return this.append(DELETE, out -> out.writeLong(id));
+  }
+
+  private long append(byte type, PayloadWriter payload) {
+    synchronized (this.appendLock) {
+      if (this.segment == null) {
+        throw new IllegalStateException("The task journal isn't open.");
+      }
+      try {
+        this.record.reset();
+        this.recordOut.writeByte(type);
+        payload.write(this.recordOut);
+        int length = this.record.size();
+        if (HEADER_SIZE + length > this.segmentSize) {
+          throw new IllegalArgumentException("Journal record of " + length + " bytes is over the segment size.");
+        }
+        if (this.segment.remaining() < HEADER_SIZE + length) {
+          this.roll();
+        }
+
+        this.crc.reset();
+        this.crc.update(this.record.bytes(), 0, length);
+        this.segment.putInt(length);
+        this.segment.putInt((int) this.crc.getValue());
+        this.segment.put(this.record.bytes(), 0, length);
+        this.written = this.segmentStart + this.segment.position();
+        return this.written;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Can't append to the task journal.", e);
+      }
+    }
+  }
+
+  /**
+   * Wait until the journal is on disk up to an LSN. Callers waiting at the same time
+   * share one fsync.
+   *
+   * @param lsn
+   */
+  public void sync(long lsn) {
+    this.syncLock.lock();
+    try {
+      while (this.durable < lsn) {
+        if (this.syncing) {
+          this.synced.awaitUninterruptibly();
+          continue;
+        }
+
+        // Lead this group: force everything appended so far.
+        this.syncing = true;
+        long target = this.durable;
+        this.syncLock.unlock();
+        try {
+          target = this.force();
+        } finally {
+          this.syncLock.lock();
+          this.syncing = false;
+          this.durable = Math.max(this.durable, target);
+          this.synced.signalAll();
+        }
+      }
+    } finally {
+      this.syncLock.unlock();
+    }
+  }
+
+  private long force() {
+    MappedByteBuffer segment;
+    long target;
+    synchronized (this.appendLock) {
+      segment = this.segment;
+      target = this.written;
+    }
+    // Earlier segments were forced when they were rolled, and a closed journal when
+    // it was closed.
+    if (segment != null) {
+      segment.force();
+      this.syncs.incrementAndGet();
+    }
+    return target;
+  }
+
+  /**
+   * The number of fsyncs so far. With many writers it's lower than the number of syncs
+   * asked for.
+   *
+   * @return
+   */
+  public long getSyncs() {
+    return this.syncs.get();
+  }
+
+  /**
+   * Write a snapshot of all the tasks, then delete the journal it replaces. Does nothing
+   * if nothing changed since the last snapshot.
+   */
+  public void snapshot() {
+    synchronized (this.snapshotLock) {
+      JournaledTasks tasks = this.tasks;
+      if (tasks == null) {
+        return;
+      }
+      long start = System.nanoTime();
+      long cut;
+      synchronized (this.appendLock) {
+        if (this.segment == null || this.written == this.lastSnapshot) {
+          return;
+        }
+        this.roll();
+        cut = this.segmentStart;
+      }
+
+      try {
+        Path file = this.directory.resolve(fileName(SNAPSHOT_PREFIX, cut, SNAPSHOT_SUFFIX));
+        Path temporary = this.directory.resolve(file.getFileName() + ".tmp");
+        long count = TaskSnapshot.write(temporary, tasks);
+        Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        this.forceDirectory();
+        this.lastSnapshot = cut;
+
+        for (Path old : this.files(SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+          if (lsnOf(old, SNAPSHOT_PREFIX) < cut) {
+            Files.delete(old);
+          }
+        }
+        for (Path old : this.files(SEGMENT_PREFIX, SEGMENT_SUFFIX)) {
+          if (lsnOf(old, SEGMENT_PREFIX) < cut) {
+            Files.delete(old);
+          }
+        }
+        log.info("Task snapshot of " + count + " tasks written in "
+            + (System.nanoTime() - start) / 1_000_000 + "ms.");
+      } catch (IOException e) {
+        throw new UncheckedIOException("Can't write a task snapshot in " + this.directory, e);
+      }
+    }
+  }
+
+  private void snapshotQuietly() {
+    try {
+      this.snapshot();
+    } catch (RuntimeException e) {
+      log.warning("Task snapshot failed: " + e);
+    }
+  }
+
+  /**
+   * Take a last snapshot, so the next start has no journal to replay, and close.
+   */
+  @PreDestroy
+  public void shutdown() {
+    if (this.snapshots != null) {
+      this.snapshots.shutdownNow();
+    }
+    try {
+      this.snapshot();
+    } finally {
+      this.close();
+    }
+  }
+
+  /**
+   * Force the journal to disk and stop recording, without a snapshot.
+   */
+  public void close() {
+    if (this.snapshots != null) {
+      this.snapshots.shutdownNow();
+    }
+    synchronized (this.appendLock) {
+      if (this.segment != null) {
+        this.segment.force();
+        this.segment = null;
+      }
+    }
+    this.tasks = null;
+  }
+
+  /**
+   * End the current segment and start the next one at the current LSN. Call with the
+   * append lock held.
+   */
+  private void roll() {
+    if (this.segment.position() == 0) {
+      return;
+    }
+    if (this.segment.remaining() >= 4) {
+      this.segment.putInt(END_OF_SEGMENT);
+    }
+    this.segment.force();
+    try {
+      this.openSegment(this.segmentStart + this.segment.position());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Can't start a task journal segment.", e);
+    }
+  }
+
+  /**
+   * Create and map a segment. Call with the append lock held.
+   */
+  private void openSegment(long start) throws IOException {
+    Path file = this.directory.resolve(fileName(SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // The mapping stays valid after the channel is closed.
+      this.segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+    }
+    this.forceDirectory();
+    this.segmentStart = start;
+    this.written = start;
+  }
+
+  /**
+   * Replay a segment's records from an LSN on.
+   *
+   * @return The LSN after the segment's last whole record, and the number of records
+   *     replayed.
+   */
+  private long[] replay(Path file, long from, JournaledTasks tasks) throws IOException {
+    long start = lsnOf(file, SEGMENT_PREFIX);
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    long replayed = 0;
+    CRC32 crc = new CRC32();
+    int end = 0;
+    while (buffer.remaining() >= HEADER_SIZE) {
+      int length = buffer.getInt();
+      // The end marker, space never written, or a record cut off by a crash.
+      if (length <= 0 || length > buffer.remaining() - 4) {
+        break;
+      }
+      int checksum = buffer.getInt();
+      byte[] payload = new byte[length];
+      buffer.get(payload);
+      crc.reset();
+      crc.update(payload, 0, length);
+      if ((int) crc.getValue() != checksum) {
+        break;
+      }
+
+      if (start + end >= from) {
+        apply(payload, tasks);
+        replayed++;
+      }
+      end = buffer.position();
+    }
+    return new long[] { start + end, replayed };
+  }
+
+  private static void apply(byte[] payload, JournaledTasks tasks) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = in.readByte();
+    if (type == PUT) {
+      tasks.restore(TaskCodec.read(in));
+    } else if (type == DELETE) {
+      tasks.restoreDeleted(in.readLong());
+    } else {
+      throw new IllegalStateException("Unknown task journal record type " + type);
+    }
+  }
+
+  /**
+   * Make created, renamed and deleted files durable.
+   */
+  private void forceDirectory() {
+    try (FileChannel channel = FileChannel.open(this.directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Not every platform can open a directory; its entries are then written eventually.
+    }
+  }
+
+  /**
+   * A directory's journal files of one kind, by LSN.
+   */
+  private List<Path> files(String prefix, String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(this.directory)) {
+      return files
+          .filter(file -> {
+            String name = file.getFileName().toString();
+            return name.startsWith(prefix) && name.endsWith(suffix);
+          })
+          .sorted((a, b) -> Long.compare(lsnOf(a, prefix), lsnOf(b, prefix)))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static String fileName(String prefix, long lsn, String suffix) {
+    return String.format("%s%020d%s", prefix, lsn, suffix);
+  }
+
+  private static long lsnOf(Path file, String prefix) {
+    String name = file.getFileName().toString();
+    return Long.parseLong(name.substring(prefix.length(), name.indexOf('.')));
+  }
+
+}
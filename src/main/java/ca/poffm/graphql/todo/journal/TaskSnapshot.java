@@ -0,0 +1,104 @@
+package ca.poffm.graphql.todo.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A file with every task, so recovery only replays the journal written after it. Holds
+ * the last id given out, then the tasks, then their count and a CRC-32 of everything
+ * before it.
+ *
+ * @author PoffM
+ */
+final class TaskSnapshot {
+
+  private static final int MAGIC = 0x54534e50;
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private TaskSnapshot() {}
+
+  /**
+   * Write a snapshot and force it to disk.
+   *
+   * @param file
+   * @param tasks
+   * @return The number of tasks written.
+   */
+  static long write(Path file, JournaledTasks tasks) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      CheckedOutputStream checked = new CheckedOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), new CRC32());
+      DataOutputStream out = new DataOutputStream(checked);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(tasks.lastId());
+
+      long[] count = { 0 };
+      try {
+        tasks.forEach(task -> {
+          try {
+            out.writeBoolean(true);
+            TaskCodec.write(out, task);
+            count[0]++;
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      out.writeBoolean(false);
+      out.writeLong(count[0]);
+      out.writeLong(checked.getChecksum().getValue());
+      out.flush();
+      channel.force(true);
+      return count[0];
+    }
+  }
+
+  /**
+   * Restore a snapshot's tasks.
+   *
+   * @param file
+   * @param tasks Where to restore them
+   * @return The number of tasks restored.
+   * @throws IllegalStateException If the file isn't a whole snapshot.
+   */
+  static long read(Path file, JournaledTasks tasks) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      CheckedInputStream checked = new CheckedInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE), new CRC32());
+      DataInputStream in = new DataInputStream(checked);
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IllegalStateException("Not a task snapshot: " + file);
+      }
+      tasks.restoreLastId(in.readLong());
+
+      long count = 0;
+      while (in.readBoolean()) {
+        tasks.restore(TaskCodec.read(in));
+        count++;
+      }
+      long expectedCount = in.readLong();
+      long crc = checked.getChecksum().getValue();
+      if (count != expectedCount || in.readLong() != crc) {
+        throw new IllegalStateException("Task snapshot " + file + " is corrupt.");
+      }
+      return count;
+    }
+  }
+
+}
@@ -4,7 +4,11 @@ import java.util.Date;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Size;
 
@@ -19,11 +23,31 @@ import lombok.Data;
  * @author PoffM
  */
 @Entity
+@Table(indexes = {
+    // Keyset pagination indexes for each task connection order, led by the
+    // myTasks/exampleTasks filter.
+    @Index(name = "idx_task_id", columnList = "autoGeneratedExample, id"),
+    @Index(name = Task.NAME_INDEX, columnList = "autoGeneratedExample, name, id"),
+    @Index(name = Task.DUE_DATE_INDEX, columnList = "autoGeneratedExample, dueDate, id"),
+    @Index(name = "idx_task_created", columnList = "autoGeneratedExample, created, id"),
+    // Filter indexes. The name prefix and due date ranges use the order indexes above.
+    @Index(name = Task.DONE_DUE_DATE_INDEX, columnList = "autoGeneratedExample, done, dueDate, id")
+})
 @Data
 public class Task implements JpaNode {
 
+  // Indexes that task filters name in their index hints.
+  public static final String NAME_INDEX = "idx_task_name";
+  public static final String DUE_DATE_INDEX = "idx_task_due_date";
+  public static final String DONE_DUE_DATE_INDEX = "idx_task_done_due_date";
+
+  /**
+   * Ids are allocated from a pooled sequence, 50 at a time, so inserts don't need a
+   * round trip each to get their id and can be sent as one JDBC batch.
+   */
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "task_seq")
+  @SequenceGenerator(name = "task_seq", sequenceName = "task_seq", allocationSize = 50)
   private Long id;
 
   @NotNull
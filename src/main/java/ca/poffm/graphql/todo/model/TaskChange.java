@@ -0,0 +1,24 @@
+package ca.poffm.graphql.todo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * A committed change to a task, published to taskChanged subscribers.
+ * 
+ * @author PoffM
+ */
+@Data
+@AllArgsConstructor
+public class TaskChange {
+  
+  private TaskChangeType type;
+  
+  private Long id;
+  
+  /**
+   * The task as committed. Null for deletes.
+   */
+  private Task task;
+  
+}
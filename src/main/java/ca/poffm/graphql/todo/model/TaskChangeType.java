@@ -0,0 +1,12 @@
+package ca.poffm.graphql.todo.model;
+
+/**
+ * How a task changed.
+ * 
+ * @author PoffM
+ */
+public enum TaskChangeType {
+  CREATED,
+  UPDATED,
+  DELETED
+}
@@ -0,0 +1,39 @@
+package ca.poffm.graphql.todo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of one item of a bulk task mutation. Items fail on their own, so a bulk
+ * mutation reports an error per failed item instead of failing as a whole.
+ * 
+ * @author PoffM
+ */
+@Data
+@AllArgsConstructor
+public class TaskResult {
+  
+  /**
+   * The task's id, when known.
+   */
+  private Long id;
+  
+  /**
+   * The created or updated task. Null for deletes and failed items.
+   */
+  private Task task;
+  
+  /**
+   * Why the item failed, or null if it succeeded.
+   */
+  private String error;
+  
+  public static TaskResult success(Long id, Task task) {
+    return new TaskResult(id, task, null);
+  }
+  
+  public static TaskResult failure(Long id, String error) {
+    return new TaskResult(id, null, error);
+  }
+  
+}
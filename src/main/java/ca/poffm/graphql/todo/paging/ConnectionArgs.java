@@ -15,8 +15,32 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class ConnectionArgs {
+  
+  /**
+   * The page size when neither "first" nor "last" is set.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 10;
+  
   private Integer first;
   private String after;
   private Integer last;
   private String before;
+  
+  /**
+   * Check the requested page size.
+   * 
+   * @param maxPageSize The largest page allowed
+   * @throws IllegalArgumentException If "first" or "last" is negative or over the maximum.
+   */
+  public void checkPageSize(int maxPageSize) {
+    checkPageSize("first", this.first, maxPageSize);
+    checkPageSize("last", this.last, maxPageSize);
+  }
+  
+  private static void checkPageSize(String arg, Integer size, int maxPageSize) {
+    if (size != null && (size < 0 || size > maxPageSize)) {
+      throw new IllegalArgumentException(
+          "\"" + arg + "\" must be between 0 and " + maxPageSize + ", but was " + size + ".");
+    }
+  }
 }
@@ -0,0 +1,80 @@
+package ca.poffm.graphql.todo.paging;
+
+import java.util.Collections;
+import java.util.List;
+
+import graphql.relay.DefaultPageInfo;
+import graphql.relay.Edge;
+import graphql.relay.PageInfo;
+import lombok.NonNull;
+
+/**
+ * A connection page read once and kept, so it can be cached and served again without
+ * querying. The edges, page info and total count are each read from the source connection
+ * the first time they're asked for, so a selection of only the total count never runs the
+ * page query.
+ *
+ * @author PoffM
+ *
+ * @param <E> The edge type.
+ */
+public class ConnectionSnapshot<E extends Edge<?>> implements ConnectionWithTotal<E> {
+
+  private ConnectionWithTotal<E> source;
+
+  private List<E> edges;
+  private PageInfo pageInfo;
+  private Long totalCount;
+  private boolean totalCountRead;
+
+  /**
+   * Keep a connection, to read its page when it's first asked for.
+   *
+   * @param source
+   */
+  public ConnectionSnapshot(@NonNull ConnectionWithTotal<E> source) {
+    this.source = source;
+  }
+
+  @Override
+  public synchronized List<E> getEdges() {
+    if (this.edges == null) {
+      this.edges = Collections.unmodifiableList(this.source.getEdges());
+      this.release();
+    }
+    return this.edges;
+  }
+
+  @Override
+  public synchronized PageInfo getPageInfo() {
+    if (this.pageInfo == null) {
+      PageInfo pageInfo = this.source.getPageInfo();
+      this.pageInfo = new DefaultPageInfo(
+          pageInfo.getStartCursor(), pageInfo.getEndCursor(),
+          pageInfo.isHasPreviousPage(), pageInfo.isHasNextPage());
+      this.release();
+    }
+    return this.pageInfo;
+  }
+
+  @Override
+  public synchronized Long getTotalCount() {
+    if (!this.totalCountRead) {
+      this.totalCount = this.source.getTotalCount();
+      this.totalCountRead = true;
+      this.release();
+    }
+    return this.totalCount;
+  }
+
+  /**
+   * Let the source connection and its query state be collected once everything has been
+   * read from it.
+   */
+  private void release() {
+    if (this.edges != null && this.pageInfo != null && this.totalCountRead) {
+      this.source = null;
+    }
+  }
+
+}
@@ -0,0 +1,359 @@
+package ca.poffm.graphql.todo.paging;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.ObjectUtils;
+
+import ca.poffm.graphql.todo.model.JpaNode;
+import graphql.relay.ConnectionCursor;
+import graphql.relay.DefaultEdge;
+import graphql.relay.Edge;
+import graphql.relay.PageInfo;
+import lombok.NonNull;
+
+/**
+ * GraphQL relay connection over nodes kept in memory, with the same order, cursors and
+ * page info as {@link JpaConnection}: the sort keys are followed by the id, nulls sort as
+ * the lowest value, and a cursor from one of these connections pages through the other.
+ *
+ * Pages in id order are read straight from the sorted node map, starting at the cursor,
+ * so they cost the same however deep they are. Other orders test every node and keep
+ * the best page's worth in a bounded heap.
+ *
+ * @author PoffM
+ *
+ * @param <T> The node type.
+ * @param <E> The edge type.
+ */
+public class InMemoryConnection<T extends JpaNode, E extends Edge<T>> implements ConnectionWithTotal<E> {
+
+  private final NavigableMap<Long, T> nodes;
+  private final ConnectionArgs connectionArgs;
+  private final InMemoryConnectionOptions<T> connectionOptions;
+
+  /**
+   * Whether the page is read from the back, for the "last" arg.
+   */
+  private final boolean backwards;
+
+  /**
+   * The sort order: the configured keys followed by the id.
+   */
+  private final List<SortKey> order;
+
+  /**
+   * Reads each key of the order from a node.
+   */
+  private final List<Function<T, Object>> keyReaders;
+
+  private List<T> results;
+  private boolean hasMore;
+  private List<E> edges;
+
+  /**
+   * Create a new connection.
+   *
+   * @param nodes The nodes to page through, by id. Usually a concurrent map, which can
+   *     change while it's read.
+   * @param connectionArgs Connection arguments
+   * @param connectionOptions Filter, order and other configuration
+   * @throws IllegalArgumentException If the page size is over the options' maximum, or
+   *     the order has an attribute the options can't read.
+   */
+  public InMemoryConnection(
+      @NonNull NavigableMap<Long, T> nodes,
+      @NonNull ConnectionArgs connectionArgs,
+      @NonNull InMemoryConnectionOptions<T> connectionOptions
+  ) {
+    this.nodes = nodes;
+    this.connectionArgs = connectionArgs;
+    this.connectionOptions = connectionOptions;
+    connectionArgs.checkPageSize(connectionOptions.getMaxPageSize());
+
+    this.backwards = connectionArgs.getFirst() == null && connectionArgs.getLast() != null;
+
+    // Break ties by id, in the same direction as the last key, as JpaConnection does.
+    List<SortKey> order = new ArrayList<>(connectionOptions.getSort());
+    if (order.stream().noneMatch(key -> key.getAttribute().equals("id"))) {
+      SortDirection direction = order.isEmpty()
+          ? SortDirection.ASC
+          : order.get(order.size() - 1).getDirection();
+      order.add(new SortKey("id", direction));
+    }
+    this.order = Collections.unmodifiableList(order);
+
+    List<Function<T, Object>> keyReaders = new ArrayList<>();
+    for (SortKey key : this.order) {
+      Function<T, Object> reader = key.getAttribute().equals("id")
+          ? JpaNode::getId
+          : connectionOptions.getAttributes().get(key.getAttribute());
+      if (reader == null) {
+        throw new IllegalArgumentException("Can't sort by " + key.getAttribute() + ".");
+      }
+      keyReaders.add(reader);
+    }
+    this.keyReaders = keyReaders;
+  }
+
+  /**
+   * Get the page's nodes, reading them on first use.
+   *
+   * @return The page's nodes in order
+   */
+  protected List<T> getResults() {
+    if (this.results == null) {
+      this.fetchResults();
+    }
+    return this.results;
+  }
+
+  /**
+   * Whether there are more results past the end of the page in the fetch direction.
+   *
+   * @return
+   */
+  protected boolean hasMore() {
+    if (this.results == null) {
+      this.fetchResults();
+    }
+    return this.hasMore;
+  }
+
+  private void fetchResults() {
+    String afterCursor = this.connectionArgs.getAfter();
+    String beforeCursor = this.connectionArgs.getBefore();
+    List<Object> after = afterCursor != null ? this.decode(afterCursor) : null;
+    List<Object> before = beforeCursor != null ? this.decode(beforeCursor) : null;
+
+    // Read one extra node to find out whether there are more past this page.
+    int limit = ObjectUtils.firstNonNull(
+        this.connectionArgs.getFirst(), this.connectionArgs.getLast(), ConnectionArgs.DEFAULT_PAGE_SIZE);
+    Comparator<T> fetchOrder = this.backwards ? this::compareReversed : this::compare;
+
+    List<T> page;
+    if (this.order.size() == 1) {
+      page = this.idRange(after, before)
+          .stream()
+          .filter(this.connectionOptions.getFilter())
+          .limit(limit + 1L)
+          .collect(Collectors.toList());
+    } else {
+      // Keep the best limit + 1 nodes, evicting the one furthest into the page.
+      PriorityQueue<T> best = new PriorityQueue<>(limit + 2, fetchOrder.reversed());
+      for (T node : this.nodes.values()) {
+        if (!this.connectionOptions.getFilter().test(node)
+            || (after != null && this.compareToCursor(node, after, afterCursor) <= 0)
+            || (before != null && this.compareToCursor(node, before, beforeCursor) >= 0)) {
+          continue;
+        }
+        best.add(node);
+        if (best.size() > limit + 1) {
+          best.poll();
+        }
+      }
+      page = new ArrayList<>(best);
+      page.sort(fetchOrder);
+    }
+
+    List<T> results = new ArrayList<>(page.size() > limit ? page.subList(0, limit) : page);
+    if (this.backwards) {
+      Collections.reverse(results);
+    }
+
+    this.hasMore = page.size() > limit;
+    this.results = results;
+  }
+
+  /**
+   * The nodes between the cursors of a connection in id order, in the fetch direction.
+   *
+   * @param after The "after" cursor's values, or null
+   * @param before The "before" cursor's values, or null
+   * @return
+   */
+  private Collection<T> idRange(List<Object> after, List<Object> before) {
+    boolean ascending = this.order.get(0).getDirection() == SortDirection.ASC;
+    Long afterId = after != null ? (Long) after.get(0) : null;
+    Long beforeId = before != null ? (Long) before.get(0) : null;
+    Long lower = ascending ? afterId : beforeId;
+    Long upper = ascending ? beforeId : afterId;
+    if (lower != null && upper != null && lower >= upper) {
+      return Collections.emptyList();
+    }
+
+    NavigableMap<Long, T> range = this.nodes;
+    if (lower != null) {
+      range = range.tailMap(lower, false);
+    }
+    if (upper != null) {
+      range = range.headMap(upper, false);
+    }
+    return ascending != this.backwards ? range.values() : range.descendingMap().values();
+  }
+
+  /**
+   * Decode a cursor's values, in the form they're compared in.
+   *
+   * @param cursor
+   * @return
+   */
+  private List<Object> decode(String cursor) {
+    List<Object> values = new ArrayList<>();
+    for (Object value : JpaCursor.decode(cursor, this.order)) {
+      Object comparable = comparable(value);
+      if (comparable != null && !(comparable instanceof Comparable)) {
+        throw new IllegalArgumentException("Invalid cursor: " + cursor);
+      }
+      values.add(comparable);
+    }
+    if (!(values.get(values.size() - 1) instanceof Long)) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    return values;
+  }
+
+  private int compare(T a, T b) {
+    for (int i = 0; i < this.order.size(); i++) {
+      Function<T, Object> reader = this.keyReaders.get(i);
+      int comparison = compareValues(comparable(reader.apply(a)), comparable(reader.apply(b)));
+      if (comparison != 0) {
+        return this.order.get(i).getDirection() == SortDirection.ASC ? comparison : -comparison;
+      }
+    }
+    return 0;
+  }
+
+  private int compareReversed(T a, T b) {
+    return this.compare(b, a);
+  }
+
+  /**
+   * Compare a node to a cursor's position in the connection's order.
+   *
+   * @param node
+   * @param values The cursor's decoded values
+   * @param cursor The cursor, for error messages
+   * @return Negative if the node is before the cursor, positive if it's after.
+   */
+  private int compareToCursor(T node, List<Object> values, String cursor) {
+    try {
+      for (int i = 0; i < this.order.size(); i++) {
+        int comparison = compareValues(comparable(this.keyReaders.get(i).apply(node)), values.get(i));
+        if (comparison != 0) {
+          return this.order.get(i).getDirection() == SortDirection.ASC ? comparison : -comparison;
+        }
+      }
+      return 0;
+    } catch (ClassCastException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+  }
+
+  /**
+   * Compare two attribute values, with nulls lowest.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private static int compareValues(Object a, Object b) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : -1) : 1;
+    }
+    return ((Comparable) a).compareTo(b);
+  }
+
+  /**
+   * An attribute value as it's stored in a cursor, so node values and cursor values
+   * compare alike: dates as epoch milliseconds, and whole numbers as longs.
+   */
+  private static Object comparable(Object value) {
+    if (value instanceof Date) {
+      return ((Date) value).getTime();
+    }
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    return value;
+  }
+
+  /**
+   * A node's cursor in this connection's order.
+   *
+   * @param node
+   * @return
+   */
+  protected JpaCursor cursorOf(T node) {
+    return new JpaCursor(JpaCursor.encode(
+        this.order,
+        this.keyReaders.stream().map(reader -> reader.apply(node)).collect(Collectors.toList())));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<E> getEdges() {
+    if (this.edges == null) {
+      this.edges = (List<E>) this.getResults()
+          .stream()
+          .map(node -> new DefaultEdge<>(
+              this.connectionOptions.getEdgeNode().apply(node), this.cursorOf(node)))
+          .collect(Collectors.toList());
+    }
+    return this.edges;
+  }
+
+  @Override
+  public PageInfo getPageInfo() {
+    InMemoryConnection<T, E> outer = InMemoryConnection.this;
+
+    return new PageInfo() {
+
+      @Override
+      public ConnectionCursor getStartCursor() {
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(0).getCursor() : null;
+      }
+
+      @Override
+      public ConnectionCursor getEndCursor() {
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(edges.size() - 1).getCursor() : null;
+      }
+
+      @Override
+      public boolean isHasPreviousPage() {
+        if (outer.connectionArgs.getAfter() != null) {
+          return true;
+        }
+        return outer.backwards && outer.hasMore();
+      }
+
+      @Override
+      public boolean isHasNextPage() {
+        if (outer.connectionArgs.getBefore() != null) {
+          return true;
+        }
+        return !outer.backwards && outer.hasMore();
+      }
+
+    };
+  }
+
+  @Override
+  public Long getTotalCount() {
+    if (this.connectionOptions.getTotalCount() != null) {
+      Long totalCount = this.connectionOptions.getTotalCount().get();
+      if (totalCount != null) {
+        return totalCount;
+      }
+    }
+    return this.nodes.values().stream().filter(this.connectionOptions.getFilter()).count();
+  }
+
+}
@@ -0,0 +1,67 @@
+package ca.poffm.graphql.todo.paging;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * Additional optional arguments to be passed when creating an InMemoryConnection.
+ *
+ * @author PoffM
+ *
+ * @param <T> The node type.
+ */
+@Builder
+@Data
+public class InMemoryConnectionOptions<T> {
+
+  /**
+   * The nodes in the connection. Tested against every node in the range being paged.
+   */
+  @NonNull
+  @Builder.Default
+  private Predicate<T> filter = node -> true;
+
+  /**
+   * The connection's sort order. The id is added as the last key to break ties.
+   */
+  @NonNull
+  @Builder.Default
+  private List<SortKey> sort = Collections.emptyList();
+
+  /**
+   * Reads each sortable attribute of a node, by attribute name. The id is read with
+   * {@link JpaNode#getId()}.
+   */
+  @NonNull
+  @Builder.Default
+  private Map<String, Function<T, Object>> attributes = Collections.emptyMap();
+
+  /**
+   * Makes the node put in each edge from the stored node, e.g. a copy, so the caller
+   * can't change the stored one. The cursor is read from the stored node.
+   */
+  @NonNull
+  @Builder.Default
+  private Function<T, T> edgeNode = node -> node;
+
+  /**
+   * Supplies a precomputed total count. The filtered nodes are counted when this is unset
+   * or supplies null.
+   */
+  private Supplier<Long> totalCount;
+
+  /**
+   * The largest "first" or "last" accepted.
+   */
+  @Builder.Default
+  private int maxPageSize = JpaConnectionOptions.DEFAULT_MAX_PAGE_SIZE;
+
+}
@@ -1,18 +1,29 @@
 package ca.poffm.graphql.todo.paging;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Order;
 import javax.persistence.criteria.Path;
 import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.metamodel.Attribute;
 
 import org.apache.commons.lang3.ObjectUtils;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.BeanWrapper;
+import org.springframework.beans.PropertyAccessorFactory;
 
 import ca.poffm.graphql.todo.model.JpaNode;
 import graphql.relay.ConnectionCursor;
@@ -40,7 +51,19 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
   protected final ConnectionArgs connectionArgs;
   protected final JpaConnectionOptions connectionOptions;
   
-  protected final List<T> results;
+  /**
+   * Whether the page is fetched from the back, for the "last" arg.
+   */
+  protected final boolean backwards;
+  
+  /**
+   * The sort order: the configured keys followed by the id.
+   */
+  protected final List<SortKey> order;
+  
+  private List<T> results;
+  private boolean hasMore;
+  private List<E> edges;
 
   /**
    * Create new connection.
@@ -64,6 +87,7 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
    * @param entityManager JPA Entity Manager
    * @param connectionArgs Connection arguments
    * @param connectionOptions Optional configuration
+   * @throws IllegalArgumentException If the page size is over the options' maximum.
    */
   public JpaConnection(
       @NonNull Class<T> resultClass,
@@ -76,32 +100,103 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
     this.entityManager = entityManager;
     this.connectionArgs = connectionArgs;
     this.connectionOptions = connectionOptions;
+    connectionArgs.checkPageSize(connectionOptions.getMaxPageSize());
     
     // Init JPA Criteria objects.
     this.cb = entityManager.getCriteriaBuilder();
-    CriteriaQuery<T> nodeQuery = this.cb.createQuery(resultClass);
-    Root<T> root = nodeQuery.from(resultClass);
-    Path<Number> id = root.get("id");
     
-    // Set default order
-    nodeQuery.orderBy(this.cb.asc(id));
+    // If "last" arg is set, the page is fetched from the back.
+    this.backwards = connectionArgs.getFirst() == null && connectionArgs.getLast() != null;
+    
+    // Break ties by id, in the same direction as the last key so one index can serve
+    // the whole order.
+    List<SortKey> order = new ArrayList<>(connectionOptions.getSort());
+    if (order.stream().noneMatch(key -> key.getAttribute().equals("id"))) {
+      SortDirection direction = order.isEmpty()
+          ? SortDirection.ASC
+          : order.get(order.size() - 1).getDirection();
+      order.add(new SortKey("id", direction));
+    }
+    this.order = Collections.unmodifiableList(order);
+  }
+  
+  /**
+   * Get the page's nodes, querying the database on first use. Connection fields are only
+   * resolved when selected, so a client asking only for totalCount never runs this query.
+   * 
+   * @return The page's nodes in order
+   */
+  protected List<T> getResults() {
+    if (this.results == null) {
+      this.fetchResults();
+    }
+    return this.results;
+  }
+  
+  /**
+   * Whether there are more results past the end of the page in the fetch direction.
+   * 
+   * @return
+   */
+  protected boolean hasMore() {
+    if (this.results == null) {
+      this.fetchResults();
+    }
+    return this.hasMore;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private void fetchResults() {
+    List<String> attributes = this.getProjectedAttributes();
+    
+    CriteriaQuery<?> nodeQuery;
+    Root<T> root;
+    if (attributes == null) {
+      CriteriaQuery<T> entityQuery = this.cb.createQuery(this.resultClass);
+      root = entityQuery.from(this.resultClass);
+      nodeQuery = entityQuery;
+    } else {
+      // Only select the requested columns.
+      CriteriaQuery<Tuple> tupleQuery = this.cb.createTupleQuery();
+      Root<T> tupleRoot = tupleQuery.from(this.resultClass);
+      tupleQuery.multiselect(
+          attributes.stream()
+          .map(attribute -> tupleRoot.get(attribute).alias(attribute))
+          .collect(Collectors.toList())
+      );
+      root = tupleRoot;
+      nodeQuery = tupleQuery;
+    }
+    
+    // Set the connection's order
+    nodeQuery.orderBy(
+        this.order
+        .stream()
+        .map(key -> key.getDirection() == SortDirection.ASC
+            ? this.cb.asc(root.get(key.getAttribute()))
+            : this.cb.desc(root.get(key.getAttribute())))
+        .collect(Collectors.toList())
+    );
     
     // Apply custom query config
-    connectionOptions.getQueryConfig().accept(nodeQuery, this.cb, root);
+    this.connectionOptions.getQueryConfig().accept(nodeQuery, this.cb, root);
     
     // Add the restriction for "after" and "before" args.
-    Predicate restriction = nodeQuery.getRestriction();
-    if (connectionArgs.getAfter() != null) {
-      restriction = this.cb.and(restriction, this.cb.gt(id, JpaCursor.decodeId(connectionArgs.getAfter())));
+    List<Predicate> restrictions = new ArrayList<>();
+    if (nodeQuery.getRestriction() != null) {
+      restrictions.add(nodeQuery.getRestriction());
     }
-    if (connectionArgs.getBefore() != null) {
-      restriction = this.cb.and(restriction, this.cb.lt(id, JpaCursor.decodeId(connectionArgs.getBefore())));
+    if (this.connectionArgs.getAfter() != null) {
+      restrictions.add(this.seek(root, this.connectionArgs.getAfter(), true));
     }
-    nodeQuery.where(restriction);
+    if (this.connectionArgs.getBefore() != null) {
+      restrictions.add(this.seek(root, this.connectionArgs.getBefore(), false));
+    }
+    nodeQuery.where(restrictions.toArray(new Predicate[0]));
     
     // If "last" arg is set, reverse the sort order so the query starts by getting the
     // results at the back.
-    if (connectionArgs.getFirst() == null && connectionArgs.getLast() != null) {
+    if (this.backwards) {
       nodeQuery.orderBy(
           nodeQuery.getOrderList()
           .stream()
@@ -110,27 +205,202 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
       );
     }
     
-    // Get the result list from the database.
-    this.results = this.entityManager
-        .createQuery(nodeQuery)
-        .setMaxResults(ObjectUtils.firstNonNull(
-            connectionArgs.getFirst(), connectionArgs.getLast(), 10)
-            )
+    // Get the result list from the database. Fetch one extra row to find out whether
+    // there are more results past this page without running another query. The page is
+    // only read, so entities are loaded read-only and Hibernate keeps no snapshot of them.
+    int limit = ObjectUtils.firstNonNull(
+        this.connectionArgs.getFirst(), this.connectionArgs.getLast(), ConnectionArgs.DEFAULT_PAGE_SIZE);
+    List<?> rows = this.hinted(this.entityManager.createQuery(nodeQuery))
+        .setHint(QueryHints.READ_ONLY, true)
+        .setMaxResults(limit + 1)
         .getResultList();
     
+    List<T> page = attributes == null
+        ? (List<T>) rows
+        : rows.stream().map(row -> this.toNode((Tuple) row, attributes)).collect(Collectors.toList());
+    
+    List<T> results = new ArrayList<>(page.size() > limit ? page.subList(0, limit) : page);
+    
     //Reverse the order back to normal if last was set.
-    if (connectionArgs.getFirst() == null && connectionArgs.getLast() != null) {
-      Collections.reverse(this.results);
+    if (this.backwards) {
+      Collections.reverse(results);
     }
+    
+    this.hasMore = page.size() > limit;
+    this.results = results;
+  }
+  
+  /**
+   * Add the connection's index hint, if any, to a query.
+   * 
+   * @param query
+   * @return The query.
+   */
+  protected <R> TypedQuery<R> hinted(TypedQuery<R> query) {
+    if (this.connectionOptions.getIndexHint() != null) {
+      query.unwrap(org.hibernate.query.Query.class).addQueryHint(this.connectionOptions.getIndexHint());
+    }
+    return query;
+  }
+  
+  /**
+   * Keyset restriction to the rows after or before a cursor in the connection's order.
+   * For the order (a, b, id) and cursor values (x, y, z), the rows after the cursor are
+   * {@code a > x OR (a = x AND b > y) OR (a = x AND b = y AND id > z)}, which an index
+   * on the order's columns can seek to directly, however deep the page. Nulls sort as
+   * the lowest value, as they do in H2.
+   * 
+   * @param root
+   * @param cursor
+   * @param after Whether to get the rows after the cursor instead of before it
+   * @return
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private Predicate seek(Root<T> root, String cursor, boolean after) {
+    List<Object> values = JpaCursor.decode(cursor, this.order);
+    
+    List<Predicate> alternatives = new ArrayList<>();
+    List<Predicate> equalKeys = new ArrayList<>();
+    for (int i = 0; i < this.order.size(); i++) {
+      SortKey key = this.order.get(i);
+      Path<Comparable> path = root.get(key.getAttribute());
+      Comparable value = toAttributeValue(path.getJavaType(), values.get(i), cursor);
+      boolean greater = after == (key.getDirection() == SortDirection.ASC);
+      
+      Predicate past;
+      if (greater) {
+        past = value == null ? this.cb.isNotNull(path) : this.cb.greaterThan(path, value);
+      } else if (value == null) {
+        past = null;
+      } else if (key.getAttribute().equals("id")) {
+        past = this.cb.lessThan(path, value);
+      } else {
+        past = this.cb.or(this.cb.lessThan(path, value), this.cb.isNull(path));
+      }
+      if (past != null) {
+        List<Predicate> terms = new ArrayList<>(equalKeys);
+        terms.add(past);
+        alternatives.add(this.cb.and(terms.toArray(new Predicate[0])));
+      }
+      
+      equalKeys.add(value == null ? this.cb.isNull(path) : this.cb.equal(path, value));
+    }
+    
+    Predicate restriction = this.cb.or(alternatives.toArray(new Predicate[0]));
+    
+    // Bound the leading key too, so the database can start the index scan at the cursor
+    // instead of filtering every row before it.
+    SortKey first = this.order.get(0);
+    Comparable firstValue = toAttributeValue(
+        root.get(first.getAttribute()).getJavaType(), values.get(0), cursor);
+    if (firstValue != null && after == (first.getDirection() == SortDirection.ASC)) {
+      restriction = this.cb.and(
+          this.cb.greaterThanOrEqualTo(root.<Comparable>get(first.getAttribute()), firstValue),
+          restriction);
+    }
+    return restriction;
+  }
+  
+  /**
+   * Convert a value parsed from a cursor to its attribute's type.
+   * 
+   * @param type The attribute's Java type
+   * @param value
+   * @param cursor The cursor, for error messages
+   * @return
+   */
+  @SuppressWarnings("rawtypes")
+  private static Comparable toAttributeValue(Class<?> type, Object value, String cursor) {
+    if (value == null) {
+      return null;
+    }
+    if (Date.class.isAssignableFrom(type) && value instanceof Number) {
+      return new Date(((Number) value).longValue());
+    }
+    if (type == Long.class && value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (type == Integer.class && value instanceof Number) {
+      return ((Number) value).intValue();
+    }
+    if (type.isInstance(value) && value instanceof Comparable) {
+      return (Comparable) value;
+    }
+    throw new IllegalArgumentException("Invalid cursor: " + cursor);
+  }
+  
+  /**
+   * A node's cursor in this connection's order.
+   * 
+   * @param node
+   * @return
+   */
+  protected JpaCursor cursorOf(T node) {
+    BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(node);
+    return new JpaCursor(JpaCursor.encode(
+        this.order,
+        this.order
+          .stream()
+          .map(key -> wrapper.getPropertyValue(key.getAttribute()))
+          .collect(Collectors.toList())
+    ));
+  }
+  
+  /**
+   * The attributes to query when projecting, always starting with the id.
+   * 
+   * @return The attribute names, or null to load whole entities.
+   */
+  private List<String> getProjectedAttributes() {
+    Set<String> selected = this.connectionOptions.getSelectedAttributes();
+    if (selected == null) {
+      return null;
+    }
+    
+    Set<String> persistent = this.entityManager.getMetamodel()
+        .entity(this.resultClass)
+        .getSingularAttributes()
+        .stream()
+        .map(Attribute::getName)
+        .collect(Collectors.toSet());
+    if (!persistent.containsAll(selected)) {
+      return null;
+    }
+    
+    // The sort keys are always loaded, to build the cursors.
+    Set<String> attributes = new LinkedHashSet<>();
+    attributes.add("id");
+    this.order.forEach(key -> attributes.add(key.getAttribute()));
+    attributes.addAll(selected);
+    return new ArrayList<>(attributes);
+  }
+  
+  /**
+   * Build a detached node from a projected row.
+   * 
+   * @param row
+   * @param attributes The row's attribute names
+   * @return The node, with only the given attributes set.
+   */
+  private T toNode(Tuple row, List<String> attributes) {
+    T node = BeanUtils.instantiateClass(this.resultClass);
+    BeanWrapper wrapper = PropertyAccessorFactory.forBeanPropertyAccess(node);
+    for (String attribute : attributes) {
+      wrapper.setPropertyValue(attribute, row.get(attribute));
+    }
+    return node;
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public List<E> getEdges() {
-    return (List<E>) this.results
-        .stream()
-        .map(o -> new DefaultEdge<>(o, new JpaCursor(o)))
-        .collect(Collectors.toList());
+    if (this.edges == null) {
+      this.edges = (List<E>) this.getResults()
+          .stream()
+          .map(o -> new DefaultEdge<>(o, this.cursorOf(o)))
+          .collect(Collectors.toList());
+    }
+    return this.edges;
   }
 
   @Override
@@ -141,16 +411,14 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
 
       @Override
       public ConnectionCursor getStartCursor() {
-        return !outer.results.isEmpty()
-            ? new JpaCursor(outer.results.get(0))
-            : null;
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(0).getCursor() : null;
       }
 
       @Override
       public ConnectionCursor getEndCursor() {
-        return !outer.results.isEmpty()
-            ? new JpaCursor(outer.results.get(outer.results.size() - 1))
-            : null;
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(edges.size() - 1).getCursor() : null;
       }
 
       @Override
@@ -158,24 +426,7 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
         if (outer.connectionArgs.getAfter() != null) {
           return true;
         }
-        if (outer.results.isEmpty()) {
-          return false;
-        }
-        
-        CriteriaQuery<T> hasPreviousPageQuery = outer.cb.createQuery(outer.resultClass);
-        
-        Root<T> prevRoot = hasPreviousPageQuery.from(outer.resultClass);
-        
-        hasPreviousPageQuery.where(
-            outer.cb.lt(
-                prevRoot.get("id"),
-                outer.results.get(0).getId())
-            );
-        
-        return !outer.entityManager.createQuery(hasPreviousPageQuery)
-            .setMaxResults(1)
-            .getResultList()
-            .isEmpty();
+        return outer.backwards && outer.hasMore();
       }
 
       @Override
@@ -183,25 +434,7 @@ public class JpaConnection<T extends JpaNode, E extends Edge<T>> implements Conn
         if (outer.connectionArgs.getBefore() != null) {
           return true;
         }
-        if (outer.results.isEmpty()) {
-          return false;
-        }
-        
-        CriteriaQuery<T> hasNextPageQuery = outer.cb.createQuery(outer.resultClass);
-        
-        Root<T> nextRoot = hasNextPageQuery.from(outer.resultClass);
-        
-        hasNextPageQuery.where(
-            outer.cb.gt(
-                nextRoot.get("id"),
-                outer.results.get(outer.results.size() - 1).getId()
-                )
-            );
-        
-        return !outer.entityManager.createQuery(hasNextPageQuery)
-            .setMaxResults(1)
-            .getResultList()
-            .isEmpty();
+        return !outer.backwards && outer.hasMore();
       }
       
     };
@@ -1,5 +1,10 @@
 package ca.poffm.graphql.todo.paging;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
@@ -17,6 +22,8 @@ import lombok.NonNull;
 @Data
 public class JpaConnectionOptions {
   
+  public static final int DEFAULT_MAX_PAGE_SIZE = 100;
+  
   /**
    * TriConsumer interface for enhancing the connection's JPA query.
    * 
@@ -25,6 +32,19 @@ public class JpaConnectionOptions {
   @FunctionalInterface
   public static interface QueryConfig {
     void accept(CriteriaQuery<?> query, CriteriaBuilder criteriaBuilder, Root<?> root);
+    
+    /**
+     * Compose this config with another that runs after it.
+     * 
+     * @param after
+     * @return
+     */
+    default QueryConfig andThen(@NonNull QueryConfig after) {
+      return (query, criteriaBuilder, root) -> {
+        this.accept(query, criteriaBuilder, root);
+        after.accept(query, criteriaBuilder, root);
+      };
+    }
   }
   
   /**
@@ -34,4 +54,38 @@ public class JpaConnectionOptions {
   @Builder.Default
   private QueryConfig queryConfig = (query, cb, root) -> {};
   
+  /**
+   * The connection's sort order. The id is added as the last key to break ties.
+   */
+  @NonNull
+  @Builder.Default
+  private List<SortKey> sort = Collections.emptyList();
+  
+  /**
+   * Supplies a precomputed total count, e.g. from a JpaCountStore. The count query runs
+   * when this is unset or supplies null.
+   */
+  private Supplier<Long> totalCount;
+  
+  /**
+   * The node attributes the client selected. When set, only these columns and the id are
+   * queried, into detached nodes instead of managed entities. Whole entities are loaded
+   * when this is unset or names a property that isn't a persistent attribute.
+   */
+  private Set<String> selectedAttributes;
+  
+  /**
+   * Name of the index the database should read the nodes with, or null to leave it to
+   * the planner. H2's planner prefers an index matching only an equality over one that
+   * also matches a range after it, so filters on a range name their index here.
+   */
+  private String indexHint;
+  
+  /**
+   * The largest "first" or "last" accepted. Larger pages are rejected instead of being
+   * loaded into memory.
+   */
+  @Builder.Default
+  private int maxPageSize = DEFAULT_MAX_PAGE_SIZE;
+  
 }
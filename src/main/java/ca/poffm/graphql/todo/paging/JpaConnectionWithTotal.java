@@ -37,11 +37,18 @@ public class JpaConnectionWithTotal<T extends JpaNode, E extends Edge<T>>
   
   @Override
   public Long getTotalCount() {
+    if (this.connectionOptions.getTotalCount() != null) {
+      Long totalCount = this.connectionOptions.getTotalCount().get();
+      if (totalCount != null) {
+        return totalCount;
+      }
+    }
+    
     CriteriaQuery<Long> query = this.cb.createQuery(Long.class);
     Root<T> root = query.from(this.resultClass);
     this.connectionOptions.getQueryConfig().accept(query, this.cb, root);
     query.select(cb.count(root));
-    return this.entityManager.createQuery(query).getSingleResult();
+    return this.hinted(this.entityManager.createQuery(query)).getSingleResult();
   }
   
 }
@@ -0,0 +1,228 @@
+package ca.poffm.graphql.todo.paging;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.poffm.graphql.todo.model.JpaNode;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions.QueryConfig;
+import lombok.NonNull;
+
+/**
+ * Keeps the row count of each registered connection filter in memory, so a connection's
+ * totalCount doesn't need a COUNT query. Counts are rebuilt from the database with
+ * {@link #rebuild()}, then kept current by reporting every created, updated and deleted
+ * node. Changes made inside a transaction are applied when it commits.
+ *
+ * A transaction holds the commit lock's read side from just before it commits until its
+ * changes are applied, and a rebuild holds the write side. So every commit is counted
+ * once: either its rows are in the rebuilt counts, or it is applied to them after.
+ *
+ * @author PoffM
+ *
+ * @param <T> The node type.
+ */
+public class JpaCountStore<T extends JpaNode> {
+
+  /**
+   * A connection filter, as a JPA query restriction and the equivalent in-memory test.
+   */
+  private static class Filter<T> {
+    private final QueryConfig queryConfig;
+    private final Predicate<T> matches;
+
+    Filter(QueryConfig queryConfig, Predicate<T> matches) {
+      this.queryConfig = queryConfig;
+      this.matches = matches;
+    }
+  }
+
+  private final Class<T> nodeClass;
+  private final EntityManager entityManager;
+
+  private final Map<String, Filter<T>> filters = new LinkedHashMap<>();
+  private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+  private final ReadWriteLock commitLock = new ReentrantReadWriteLock();
+
+  private volatile boolean ready = false;
+
+  public JpaCountStore(@NonNull Class<T> nodeClass, @NonNull EntityManager entityManager) {
+    this.nodeClass = nodeClass;
+    this.entityManager = entityManager;
+  }
+
+  /**
+   * Register a connection filter to count. Register all filters before the first rebuild.
+   *
+   * @param key The filter's name, e.g. "autoGeneratedExample=true"
+   * @param queryConfig Restricts a JPA query to the filter's rows
+   * @param matches Whether a node is in the filter's rows
+   */
+  protected void register(String key, QueryConfig queryConfig, Predicate<T> matches) {
+    this.filters.put(key, new Filter<>(queryConfig, matches));
+  }
+
+  /**
+   * Get the stored count for a filter.
+   *
+   * @param key The filter's name
+   * @return The count, or null if the store hasn't been built or the filter isn't registered.
+   */
+  public Long getCount(String key) {
+    AtomicLong count = this.ready ? this.counts.get(key) : null;
+    return count != null ? count.get() : null;
+  }
+
+  /**
+   * Count a filter's rows in the database.
+   *
+   * @param key The filter's name
+   * @return The count
+   */
+  public long countInDatabase(String key) {
+    Filter<T> filter = this.filters.get(key);
+    if (filter == null) {
+      throw new IllegalArgumentException("No count filter registered for " + key);
+    }
+
+    CriteriaBuilder cb = this.entityManager.getCriteriaBuilder();
+    CriteriaQuery<Long> query = cb.createQuery(Long.class);
+    Root<T> root = query.from(this.nodeClass);
+    filter.queryConfig.accept(query, cb, root);
+    query.select(cb.count(root));
+    return this.entityManager.createQuery(query).getSingleResult();
+  }
+
+  /**
+   * Reload every filter's count from the database.
+   */
+  public void rebuild() {
+    this.commitLock.writeLock().lock();
+    try {
+      for (String key : this.filters.keySet()) {
+        this.counts.put(key, new AtomicLong(this.countInDatabase(key)));
+      }
+      this.ready = true;
+    } finally {
+      this.commitLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * The filters a node is counted in.
+   *
+   * @param node
+   * @return The filter names
+   */
+  public Set<String> keysOf(T node) {
+    return this.filters.entrySet()
+        .stream()
+        .filter(entry -> entry.getValue().matches.test(node))
+        .map(Map.Entry::getKey)
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * Count a new node.
+   *
+   * @param node
+   */
+  public void created(T node) {
+    this.adjust(this.keysOf(node), 1);
+  }
+
+  /**
+   * Move an updated node between filters.
+   *
+   * @param keysBefore The node's filters before the update, from {@link #keysOf(JpaNode)}
+   * @param node The updated node
+   */
+  public void updated(Set<String> keysBefore, T node) {
+    Set<String> keysAfter = this.keysOf(node);
+    this.adjust(
+        keysBefore.stream().filter(key -> !keysAfter.contains(key)).collect(Collectors.toSet()), -1);
+    this.adjust(
+        keysAfter.stream().filter(key -> !keysBefore.contains(key)).collect(Collectors.toSet()), 1);
+  }
+
+  /**
+   * Stop counting a deleted node.
+   *
+   * @param node
+   */
+  public void deleted(T node) {
+    this.adjust(this.keysOf(node), -1);
+  }
+
+  private void adjust(Set<String> keys, long delta) {
+    if (keys.isEmpty()) {
+      return;
+    }
+
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        private boolean locked = false;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+          JpaCountStore.this.commitLock.readLock().lock();
+          this.locked = true;
+        }
+
+        @Override
+        public void afterCommit() {
+          JpaCountStore.this.apply(keys, delta);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+          if (this.locked) {
+            JpaCountStore.this.commitLock.readLock().unlock();
+          }
+        }
+      });
+    } else {
+      this.commitLock.readLock().lock();
+      try {
+        this.apply(keys, delta);
+      } finally {
+        this.commitLock.readLock().unlock();
+      }
+    }
+  }
+
+  private void apply(Set<String> keys, long delta) {
+    for (String key : keys) {
+      AtomicLong count = this.counts.get(key);
+      if (count != null) {
+        count.addAndGet(delta);
+      }
+    }
+  }
+
+  /**
+   * The registered filter names.
+   *
+   * @return
+   */
+  public Set<String> getKeys() {
+    return Collections.unmodifiableSet(this.filters.keySet());
+  }
+
+}
@@ -1,24 +1,128 @@
 package ca.poffm.graphql.todo.paging;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import ca.poffm.graphql.todo.model.JpaNode;
 import graphql.relay.ConnectionCursor;
 import lombok.Getter;
 
+/**
+ * Opaque connection cursor. Holds a node's value for each key of the connection's sort
+ * order, ending with the id, along with the order itself so a cursor can't be used to
+ * page through a differently sorted connection.
+ *
+ * @author PoffM
+ */
 public class JpaCursor implements ConnectionCursor {
 
+  /**
+   * Bump when the encoding changes, so old cursors are rejected instead of misread.
+   */
+  private static final String VERSION = "1";
+
+  private static final List<SortKey> ID_ORDER =
+      Collections.singletonList(new SortKey("id", SortDirection.ASC));
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
   @Getter
   private String value;
 
+  public JpaCursor(String value) {
+    this.value = value;
+  }
+
   public JpaCursor(JpaNode node) {
-    this.value = JpaCursor.encodeId(node.getId());
+    this(JpaCursor.encodeId(node.getId()));
   }
-  
+
+  /**
+   * Encode a cursor.
+   *
+   * @param order The connection's sort order
+   * @param values The node's value for each key of the order. Dates are stored as epoch
+   *     milliseconds.
+   * @return
+   */
+  public static String encode(List<SortKey> order, List<Object> values) {
+    List<Object> payload = new ArrayList<>();
+    payload.add(VERSION);
+    payload.add(orderName(order));
+    for (Object value : values) {
+      payload.add(value instanceof Date ? ((Date) value).getTime() : value);
+    }
+
+    try {
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(payload));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Can't encode cursor values " + values, e);
+    }
+  }
+
+  /**
+   * Decode a cursor's key values.
+   *
+   * @param value The cursor
+   * @param order The sort order of the connection it's used with
+   * @return The values as parsed from JSON, one per key of the order.
+   * @throws IllegalArgumentException If the cursor is malformed or from another order.
+   */
+  public static List<Object> decode(String value, List<SortKey> order) {
+    List<Object> payload;
+    try {
+      payload = MAPPER.readValue(Base64.getUrlDecoder().decode(value), new TypeReference<List<Object>>() {});
+    } catch (IOException | IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid cursor: " + value);
+    }
+
+    if (payload.size() < 2 || !VERSION.equals(payload.get(0))) {
+      throw new IllegalArgumentException("Invalid cursor: " + value);
+    }
+    if (!orderName(order).equals(payload.get(1))) {
+      throw new IllegalArgumentException("Cursor " + value + " is for a different sort order.");
+    }
+    if (payload.size() != order.size() + 2) {
+      throw new IllegalArgumentException("Invalid cursor: " + value);
+    }
+    return payload.subList(2, payload.size());
+  }
+
+  /**
+   * Encode a cursor for a connection ordered by id only.
+   *
+   * @param value The node's id
+   * @return
+   */
   public static String encodeId(Long value) {
-    return value.toString();
+    return encode(ID_ORDER, Collections.singletonList(value));
   }
-  
+
+  /**
+   * Decode the id from a cursor of a connection ordered by id only.
+   *
+   * @param value The cursor
+   * @return
+   */
   public static Long decodeId(String value) {
-    return Long.valueOf(value);
+    Object id = decode(value, ID_ORDER).get(0);
+    if (!(id instanceof Number)) {
+      throw new IllegalArgumentException("Invalid cursor: " + value);
+    }
+    return ((Number) id).longValue();
+  }
+
+  private static String orderName(List<SortKey> order) {
+    return order.stream().map(SortKey::toString).collect(Collectors.joining(","));
   }
 
   @Override
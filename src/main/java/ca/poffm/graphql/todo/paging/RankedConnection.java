@@ -0,0 +1,139 @@
+package ca.poffm.graphql.todo.paging;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.ObjectUtils;
+
+import ca.poffm.graphql.todo.model.JpaNode;
+import graphql.relay.ConnectionCursor;
+import graphql.relay.DefaultEdge;
+import graphql.relay.Edge;
+import graphql.relay.PageInfo;
+import lombok.NonNull;
+
+/**
+ * Relay connection over a ranked list of node ids, e.g. search results. Pages forward by
+ * position in the list, loading only the page's nodes. Cursors hold the position, so
+ * they're only meaningful for the same ranking.
+ *
+ * @author PoffM
+ *
+ * @param <T> The node type.
+ * @param <E> The edge type.
+ */
+public class RankedConnection<T extends JpaNode, E extends Edge<T>> implements ConnectionWithTotal<E> {
+
+  private static final List<SortKey> RANK_ORDER =
+      Collections.singletonList(new SortKey("rank", SortDirection.ASC));
+
+  private final List<Long> rankedIds;
+  private final Function<List<Long>, List<T>> loader;
+
+  /**
+   * Position of the page's first id in the ranking.
+   */
+  private final int offset;
+  private final int limit;
+
+  private List<E> edges;
+
+  /**
+   * Create a new connection.
+   *
+   * @param rankedIds Every node id, best first
+   * @param connectionArgs Connection arguments. Only "first" and "after" are supported.
+   * @param maxPageSize The largest "first" accepted
+   * @param loader Loads the nodes with the given ids, in any order
+   * @throws IllegalArgumentException If the page size is over the maximum.
+   */
+  public RankedConnection(
+      @NonNull List<Long> rankedIds,
+      @NonNull ConnectionArgs connectionArgs,
+      int maxPageSize,
+      @NonNull Function<List<Long>, List<T>> loader
+  ) {
+    connectionArgs.checkPageSize(maxPageSize);
+    this.rankedIds = rankedIds;
+    this.loader = loader;
+
+    // A cursor past the end, e.g. from a longer ranking, gives an empty page.
+    this.offset = connectionArgs.getAfter() != null
+        ? Math.min(decodePosition(connectionArgs.getAfter()), rankedIds.size() - 1) + 1
+        : 0;
+    this.limit = ObjectUtils.firstNonNull(connectionArgs.getFirst(), ConnectionArgs.DEFAULT_PAGE_SIZE);
+  }
+
+  private static int decodePosition(String cursor) {
+    Object position = JpaCursor.decode(cursor, RANK_ORDER).get(0);
+    if (!(position instanceof Integer) || (Integer) position < 0) {
+      throw new IllegalArgumentException("Invalid cursor: " + cursor);
+    }
+    return (Integer) position;
+  }
+
+  private static JpaCursor cursorAt(int position) {
+    return new JpaCursor(JpaCursor.encode(RANK_ORDER, Collections.singletonList(position)));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public List<E> getEdges() {
+    if (this.edges == null) {
+      List<Long> pageIds = this.rankedIds.subList(
+          Math.min(this.offset, this.rankedIds.size()),
+          Math.min(this.offset + this.limit, this.rankedIds.size()));
+      Map<Long, T> nodes = this.loader.apply(pageIds)
+          .stream()
+          .collect(Collectors.toMap(JpaNode::getId, Function.identity()));
+
+      // Keep the ranking's order. Nodes deleted since the ranking was made are skipped.
+      this.edges = (List<E>) IntStream.range(0, pageIds.size())
+          .filter(i -> nodes.containsKey(pageIds.get(i)))
+          .mapToObj(i -> new DefaultEdge<>(nodes.get(pageIds.get(i)), cursorAt(this.offset + i)))
+          .collect(Collectors.toList());
+    }
+    return this.edges;
+  }
+
+  @Override
+  public PageInfo getPageInfo() {
+    RankedConnection<T, E> outer = RankedConnection.this;
+
+    return new PageInfo() {
+
+      @Override
+      public ConnectionCursor getStartCursor() {
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(0).getCursor() : null;
+      }
+
+      @Override
+      public ConnectionCursor getEndCursor() {
+        List<E> edges = outer.getEdges();
+        return !edges.isEmpty() ? edges.get(edges.size() - 1).getCursor() : null;
+      }
+
+      @Override
+      public boolean isHasPreviousPage() {
+        return outer.offset > 0;
+      }
+
+      @Override
+      public boolean isHasNextPage() {
+        return outer.offset + outer.limit < outer.rankedIds.size();
+      }
+
+    };
+  }
+
+  @Override
+  public Long getTotalCount() {
+    return (long) this.rankedIds.size();
+  }
+
+}
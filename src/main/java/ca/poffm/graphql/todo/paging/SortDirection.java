@@ -0,0 +1,11 @@
+package ca.poffm.graphql.todo.paging;
+
+/**
+ * Direction of a connection sort key.
+ * 
+ * @author PoffM
+ */
+public enum SortDirection {
+  ASC,
+  DESC
+}
@@ -0,0 +1,35 @@
+package ca.poffm.graphql.todo.paging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NonNull;
+
+/**
+ * One attribute of a connection's sort order.
+ * 
+ * @author PoffM
+ */
+@Data
+@AllArgsConstructor
+public class SortKey {
+  
+  /**
+   * The node's JPA attribute name.
+   */
+  @NonNull
+  private String attribute;
+  
+  @NonNull
+  private SortDirection direction;
+  
+  /**
+   * The key as it appears in a cursor, e.g. "dueDate:ASC".
+   * 
+   * @return
+   */
+  @Override
+  public String toString() {
+    return this.attribute + ":" + this.direction;
+  }
+  
+}
@@ -0,0 +1,205 @@
+package ca.poffm.graphql.todo.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import lombok.Data;
+
+/**
+ * In-memory inverted index from terms to the documents containing them, ranking search
+ * results with BM25. Documents are identified by id and added as weighted term counts,
+ * so a caller can make some fields count more than others. Safe for concurrent use.
+ *
+ * @author PoffM
+ */
+public class InvertedIndex {
+
+  /**
+   * A matching document and its relevance score.
+   */
+  @Data
+  public static class Hit {
+    private final long id;
+    private final double score;
+  }
+
+  /**
+   * BM25 term frequency saturation.
+   */
+  private static final double K1 = 1.2;
+
+  /**
+   * BM25 document length normalization.
+   */
+  private static final double B = 0.75;
+
+  private final Map<String, Map<Long, Integer>> postings = new HashMap<>();
+  private final Map<Long, Map<String, Integer>> documents = new HashMap<>();
+  private final Map<Long, Integer> lengths = new HashMap<>();
+  private long totalLength = 0;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Split text into lowercase terms, dropping accents and splitting on anything that
+   * isn't a letter or digit.
+   *
+   * @param text
+   * @return The terms in order, with repeats.
+   */
+  public static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) {
+      return terms;
+    }
+
+    String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+        .replaceAll("\\p{M}", "")
+        .toLowerCase(Locale.ROOT);
+    for (String term : normalized.split("[^\\p{L}\\p{N}]+")) {
+      if (!term.isEmpty()) {
+        terms.add(term);
+      }
+    }
+    return terms;
+  }
+
+  /**
+   * Add a document, replacing any previous version of it.
+   *
+   * @param id
+   * @param termCounts Each term's weighted count in the document
+   */
+  public void put(long id, Map<String, Integer> termCounts) {
+    Map<String, Integer> terms = new HashMap<>(termCounts);
+    terms.values().removeIf(count -> count <= 0);
+
+    this.lock.writeLock().lock();
+    try {
+      this.removeLocked(id);
+      int length = 0;
+      for (Map.Entry<String, Integer> term : terms.entrySet()) {
+        this.postings.computeIfAbsent(term.getKey(), key -> new HashMap<>()).put(id, term.getValue());
+        length += term.getValue();
+      }
+      this.documents.put(id, terms);
+      this.lengths.put(id, length);
+      this.totalLength += length;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove a document.
+   *
+   * @param id
+   */
+  public void remove(long id) {
+    this.lock.writeLock().lock();
+    try {
+      this.removeLocked(id);
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Remove every document.
+   */
+  public void clear() {
+    this.lock.writeLock().lock();
+    try {
+      this.postings.clear();
+      this.documents.clear();
+      this.lengths.clear();
+      this.totalLength = 0;
+    } finally {
+      this.lock.writeLock().unlock();
+    }
+  }
+
+  private void removeLocked(long id) {
+    Map<String, Integer> terms = this.documents.remove(id);
+    if (terms == null) {
+      return;
+    }
+    for (Map.Entry<String, Integer> term : terms.entrySet()) {
+      Map<Long, Integer> documents = this.postings.get(term.getKey());
+      documents.remove(id);
+      if (documents.isEmpty()) {
+        this.postings.remove(term.getKey());
+      }
+    }
+    this.totalLength -= this.lengths.remove(id);
+  }
+
+  /**
+   * Find the documents containing any of the query's terms, best match first. Ties are
+   * ordered by id.
+   *
+   * @param query Free text, tokenized like the documents
+   * @return
+   */
+  public List<Hit> search(String query) {
+    Set<String> terms = new LinkedHashSet<>(tokenize(query));
+
+    this.lock.readLock().lock();
+    try {
+      int documentCount = this.documents.size();
+      if (terms.isEmpty() || documentCount == 0) {
+        return Collections.emptyList();
+      }
+      double averageLength = (double) this.totalLength / documentCount;
+
+      Map<Long, Double> scores = new HashMap<>();
+      for (String term : terms) {
+        Map<Long, Integer> documents = this.postings.get(term);
+        if (documents == null) {
+          continue;
+        }
+
+        double idf = Math.log(1 + (documentCount - documents.size() + 0.5) / (documents.size() + 0.5));
+        for (Map.Entry<Long, Integer> document : documents.entrySet()) {
+          int frequency = document.getValue();
+          int length = this.lengths.get(document.getKey());
+          double score = idf * frequency * (K1 + 1)
+              / (frequency + K1 * (1 - B + B * length / averageLength));
+          scores.merge(document.getKey(), score, Double::sum);
+        }
+      }
+
+      List<Hit> hits = new ArrayList<>(scores.size());
+      scores.forEach((id, score) -> hits.add(new Hit(id, score)));
+      hits.sort(Comparator.comparingDouble(Hit::getScore).reversed().thenComparingLong(Hit::getId));
+      return hits;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * The number of indexed documents.
+   *
+   * @return
+   */
+  public int size() {
+    this.lock.readLock().lock();
+    try {
+      return this.documents.size();
+    } finally {
+      this.lock.readLock().unlock();
+    }
+  }
+
+}
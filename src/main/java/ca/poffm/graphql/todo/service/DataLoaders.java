@@ -0,0 +1,79 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderOptions;
+import org.dataloader.DataLoaderRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.model.Task;
+
+/**
+ * Creates the data loaders for each GraphQL operation. A loader collects the keys
+ * requested while a level of the query executes, then loads them all with one query.
+ * Tasks in the {@link TaskCache} aren't queried.
+ * 
+ * @author PoffM
+ */
+@Component
+public class DataLoaders {
+  
+  /**
+   * Loads tasks by id.
+   */
+  public static final String TASK = "task";
+  
+  @Autowired private TaskStore taskStore;
+  @Autowired private TaskCache taskCache;
+  
+  private final int maxBatchSize;
+  
+  public DataLoaders(@Value("${todo.graphql.data-loader.max-batch-size:500}") int maxBatchSize) {
+    this.maxBatchSize = maxBatchSize;
+  }
+  
+  /**
+   * Create a new operation's loaders.
+   * 
+   * @return
+   */
+  public DataLoaderRegistry newRegistry() {
+    DataLoaderOptions options = DataLoaderOptions.newOptions().setMaxBatchSize(this.maxBatchSize);
+    return new DataLoaderRegistry()
+        .register(TASK, new DataLoader<Long, Task>(this::loadTasks, options));
+  }
+  
+  private CompletionStage<List<Task>> loadTasks(List<Long> ids) {
+    Map<Long, Task> tasks = new HashMap<>();
+    List<Long> missing = new ArrayList<>();
+    for (Long id : ids) {
+      Task cached = this.taskCache.getTask(id);
+      if (cached != null) {
+        tasks.put(id, cached);
+      } else {
+        missing.add(id);
+      }
+    }
+    
+    if (!missing.isEmpty()) {
+      long generation = this.taskCache.generation();
+      List<Task> loaded = this.taskStore.findAll(missing);
+      this.taskCache.putTasks(loaded, generation);
+      loaded.forEach(task -> tasks.put(task.getId(), task));
+    }
+    
+    // Values must be in the same order as the keys, with null for missing tasks.
+    return CompletableFuture.completedFuture(
+        ids.stream().map(tasks::get).collect(Collectors.toList()));
+  }
+  
+}
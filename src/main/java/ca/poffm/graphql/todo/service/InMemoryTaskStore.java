@@ -0,0 +1,394 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.validation.ConstraintViolation;
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validator;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.journal.JournaledTasks;
+import ca.poffm.graphql.todo.journal.TaskJournal;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.InMemoryConnection;
+import ca.poffm.graphql.todo.paging.InMemoryConnectionOptions;
+import ca.poffm.graphql.todo.paging.SortKey;
+import graphql.relay.Edge;
+
+/**
+ * Keeps the tasks in memory, for when a trip to the database costs too much. Nothing is
+ * kept across restarts, unless the {@link TaskJournal} is enabled: then every change is
+ * recorded in it, and the tasks are recovered from it at startup. A transaction's changes
+ * are on disk before it commits; changes made outside one are on disk when they return.
+ *
+ * Tasks are kept in a concurrent map sorted by id, with secondary indexes by
+ * autoGeneratedExample and by autoGeneratedExample and done, like the table's indexes.
+ * Each stored task is a copy that's never changed, so reads never lock: a change stores
+ * a new copy, then moves it between the indexes. Tasks are copied, dates included, on
+ * the way in and on the way out, so a caller changing one doesn't change the store's;
+ * only {@link #forEach(Consumer)} hands out the stored tasks, to read. Changes are made
+ * one at a time, and immediately, so unlike the JPA store they aren't rolled back with
+ * the transaction.
+ *
+ * @author PoffM
+ */
+@Component
+@ConditionalOnProperty(name = "todo.store.type", havingValue = "memory")
+public class InMemoryTaskStore implements TaskStore, JournaledTasks {
+
+  /**
+   * The attributes task connections can be sorted by.
+   */
+  private static final Map<String, Function<Task, Object>> SORT_ATTRIBUTES = new HashMap<>();
+  static {
+    SORT_ATTRIBUTES.put("name", Task::getName);
+    SORT_ATTRIBUTES.put("dueDate", Task::getDueDate);
+    SORT_ATTRIBUTES.put("created", Task::getCreated);
+  }
+
+  private final Validator validator;
+  private final TaskJournal journal;
+
+  private final ConcurrentNavigableMap<Long, Task> tasks = new ConcurrentSkipListMap<>();
+
+  /**
+   * Tasks by autoGeneratedExample.
+   */
+  private final Map<Boolean, ConcurrentNavigableMap<Long, Task>> byExample = new HashMap<>();
+
+  /**
+   * Tasks by autoGeneratedExample, then done.
+   */
+  private final Map<Boolean, Map<Boolean, ConcurrentNavigableMap<Long, Task>>> byExampleAndDone =
+      new HashMap<>();
+
+  /**
+   * Task counts by autoGeneratedExample, since a concurrent map's size is counted.
+   */
+  private final Map<Boolean, AtomicLong> counts = new HashMap<>();
+
+  private final AtomicLong lastId = new AtomicLong();
+
+  private final Object writeLock = new Object();
+
+  public InMemoryTaskStore(Validator validator) {
+    this(validator, Optional.empty());
+  }
+
+  @Autowired
+  public InMemoryTaskStore(Validator validator, Optional<TaskJournal> journal) {
+    this.validator = validator;
+    this.journal = journal.orElse(null);
+    for (Boolean example : new Boolean[] { false, true }) {
+      this.byExample.put(example, new ConcurrentSkipListMap<>());
+      this.counts.put(example, new AtomicLong());
+      Map<Boolean, ConcurrentNavigableMap<Long, Task>> byDone = new HashMap<>();
+      byDone.put(false, new ConcurrentSkipListMap<>());
+      byDone.put(true, new ConcurrentSkipListMap<>());
+      this.byExampleAndDone.put(example, byDone);
+    }
+  }
+
+  /**
+   * Recover the tasks from the journal, if it's enabled.
+   */
+  @PostConstruct
+  public void recover() {
+    if (this.journal != null) {
+      this.journal.open(this);
+    }
+  }
+
+  @Override
+  public Task find(Long id) {
+    Task task = this.tasks.get(id);
+    return task != null ? copy(task) : null;
+  }
+
+  @Override
+  public List<Task> findAll(List<Long> ids) {
+    List<Task> found = new ArrayList<>();
+    for (Long id : ids) {
+      Task task = this.tasks.get(id);
+      if (task != null) {
+        found.add(copy(task));
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public Map<Long, Task> findForUpdate(List<Long> ids) {
+    Map<Long, Task> found = new LinkedHashMap<>();
+    for (Long id : ids) {
+      Task task = this.tasks.get(id);
+      if (task != null) {
+        found.put(id, copy(task));
+      }
+    }
+    return found;
+  }
+
+  @Override
+  public ConnectionWithTotal<Edge<Task>> connection(
+      String scope,
+      ConnectionArgs connectionArgs,
+      TaskFilter filter,
+      List<SortKey> sort,
+      Set<String> selectedFields,
+      int maxPageSize
+      ) {
+    Boolean example = TaskCountStore.isExample(scope);
+    // Page through the smallest index that has all the filter's tasks. The filter is
+    // still tested on each task, so a task being moved between indexes isn't misread.
+    NavigableMap<Long, Task> tasks = filter != null && filter.getDone() != null
+        ? this.byExampleAndDone.get(example).get(filter.getDone())
+        : this.byExample.get(example);
+    return new InMemoryConnection<>(
+        tasks,
+        connectionArgs,
+        InMemoryConnectionOptions.<Task>builder()
+          .filter(filter != null ? filter.toPredicate() : task -> true)
+          .totalCount(filter != null ? null : () -> this.counts.get(example).get())
+          .sort(sort)
+          .attributes(SORT_ATTRIBUTES)
+          .maxPageSize(maxPageSize)
+          .edgeNode(InMemoryTaskStore::copy)
+          .build()
+        );
+  }
+
+  @Override
+  public void create(Task task) {
+    this.validate(task);
+    Date now = new Date();
+    long lsn;
+    synchronized (this.writeLock) {
+      task.setId(this.lastId.incrementAndGet());
+      task.setCreated(now);
+      task.setUpdated(now);
+      lsn = this.put(copy(task));
+    }
+    this.sync(lsn);
+  }
+
+  @Override
+  public void update(Task task) {
+    this.validate(task);
+    long lsn;
+    synchronized (this.writeLock) {
+      if (!this.tasks.containsKey(task.getId())) {
+        throw new IllegalArgumentException("No task with id " + task.getId());
+      }
+      task.setUpdated(new Date());
+      lsn = this.put(copy(task));
+    }
+    this.sync(lsn);
+  }
+
+  @Override
+  public void discard(Task task) {
+    // Tasks for update are copies, so there's nothing to drop.
+  }
+
+  @Override
+  public void delete(Task task) {
+    long lsn = 0;
+    synchronized (this.writeLock) {
+      Task removed = this.tasks.remove(task.getId());
+      if (removed != null) {
+        this.unindex(removed);
+        if (this.journal != null) {
+          lsn = this.journal.delete(removed.getId());
+        }
+      }
+    }
+    this.sync(lsn);
+  }
+
+  @Override
+  public void flush() {
+    // Changes are stored as they're made.
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return this.tasks.isEmpty();
+  }
+
+  /**
+   * Read every stored task, without copying it. The consumer mustn't change them.
+   */
+  @Override
+  public void forEach(Consumer<Task> consumer) {
+    this.tasks.values().forEach(consumer);
+  }
+
+  /**
+   * Store a task as it is, keeping its id and timestamps, e.g. to load saved tasks.
+   * Later tasks are given higher ids than it. Restored tasks aren't journaled.
+   *
+   * @param task
+   */
+  @Override
+  public void restore(Task task) {
+    synchronized (this.writeLock) {
+      this.lastId.accumulateAndGet(task.getId(), Math::max);
+      this.index(copy(task));
+    }
+  }
+
+  @Override
+  public void restoreDeleted(Long id) {
+    synchronized (this.writeLock) {
+      this.lastId.accumulateAndGet(id, Math::max);
+      Task removed = this.tasks.remove(id);
+      if (removed != null) {
+        this.unindex(removed);
+      }
+    }
+  }
+
+  @Override
+  public void restoreLastId(long id) {
+    this.lastId.accumulateAndGet(id, Math::max);
+  }
+
+  @Override
+  public long lastId() {
+    return this.lastId.get();
+  }
+
+  /**
+   * The number of tasks stored.
+   *
+   * @return
+   */
+  public long size() {
+    return this.counts.get(false).get() + this.counts.get(true).get();
+  }
+
+  /**
+   * Store a new copy of a task and journal it. Call with the write lock held.
+   *
+   * @return The journal LSN to sync, or 0 without a journal.
+   */
+  private long put(Task task) {
+    this.index(task);
+    return this.journal != null ? this.journal.put(task) : 0;
+  }
+
+  /**
+   * Wait for a change to be on disk, or with a transaction, for all its changes to be on
+   * disk before it commits.
+   */
+  private void sync(long lsn) {
+    if (this.journal == null || lsn == 0) {
+      return;
+    }
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      this.journal.sync(lsn);
+      return;
+    }
+
+    AtomicLong transactionLsn = (AtomicLong) TransactionSynchronizationManager.getResource(this.journal);
+    if (transactionLsn == null) {
+      AtomicLong lastLsn = new AtomicLong();
+      TransactionSynchronizationManager.bindResource(this.journal, lastLsn);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void beforeCommit(boolean readOnly) {
+          InMemoryTaskStore.this.journal.sync(lastLsn.get());
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+          TransactionSynchronizationManager.unbindResource(InMemoryTaskStore.this.journal);
+        }
+      });
+      transactionLsn = lastLsn;
+    }
+    transactionLsn.accumulateAndGet(lsn, Math::max);
+  }
+
+  /**
+   * Store a new copy of a task and move it to its indexes. Call with the write lock held.
+   */
+  private void index(Task task) {
+    Task previous = this.tasks.put(task.getId(), task);
+    this.doneIndex(task).put(task.getId(), task);
+    this.byExample.get(task.getAutoGeneratedExample()).put(task.getId(), task);
+    if (previous == null) {
+      this.counts.get(task.getAutoGeneratedExample()).incrementAndGet();
+      return;
+    }
+    if (this.doneIndex(previous) != this.doneIndex(task)) {
+      this.doneIndex(previous).remove(previous.getId());
+    }
+    if (!previous.getAutoGeneratedExample().equals(task.getAutoGeneratedExample())) {
+      this.byExample.get(previous.getAutoGeneratedExample()).remove(previous.getId());
+      this.counts.get(previous.getAutoGeneratedExample()).decrementAndGet();
+      this.counts.get(task.getAutoGeneratedExample()).incrementAndGet();
+    }
+  }
+
+  private void unindex(Task task) {
+    this.doneIndex(task).remove(task.getId());
+    this.byExample.get(task.getAutoGeneratedExample()).remove(task.getId());
+    this.counts.get(task.getAutoGeneratedExample()).decrementAndGet();
+  }
+
+  private NavigableMap<Long, Task> doneIndex(Task task) {
+    return this.byExampleAndDone.get(task.getAutoGeneratedExample()).get(task.getDone());
+  }
+
+  /**
+   * Check a task's bean validation constraints, as Hibernate does before writing it.
+   */
+  private void validate(Task task) {
+    Set<ConstraintViolation<Task>> violations = this.validator.validate(task);
+    if (!violations.isEmpty()) {
+      throw new ConstraintViolationException(violations);
+    }
+  }
+
+  private static Task copy(Task task) {
+    Task copy = new Task();
+    copy.setId(task.getId());
+    copy.setName(task.getName());
+    copy.setDescription(task.getDescription());
+    copy.setDueDate(copy(task.getDueDate()));
+    copy.setDone(task.getDone());
+    copy.setCreated(copy(task.getCreated()));
+    copy.setUpdated(copy(task.getUpdated()));
+    copy.setAutoGeneratedExample(task.getAutoGeneratedExample());
+    return copy;
+  }
+
+  private static Date copy(Date date) {
+    return date != null ? new Date(date.getTime()) : null;
+  }
+
+}
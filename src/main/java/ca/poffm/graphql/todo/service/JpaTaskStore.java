@@ -0,0 +1,168 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.annotations.QueryHints;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions.QueryConfig;
+import ca.poffm.graphql.todo.paging.JpaConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.SortKey;
+import graphql.relay.Edge;
+
+/**
+ * Keeps the tasks in the database with JPA. The default store.
+ *
+ * Tasks for update are managed entities, so their changes are written when the
+ * transaction commits, or at {@link #flush()}.
+ *
+ * @author PoffM
+ */
+@Component
+@ConditionalOnProperty(name = "todo.store.type", havingValue = "jpa", matchIfMissing = true)
+public class JpaTaskStore implements TaskStore {
+
+  static final QueryConfig MY_TASKS_FILTER =
+      (query, cb, root) -> query.where(cb.equal(root.get("autoGeneratedExample"), false));
+  static final QueryConfig EXAMPLE_TASKS_FILTER =
+      (query, cb, root) -> query.where(cb.equal(root.get("autoGeneratedExample"), true));
+
+  @PersistenceContext private EntityManager em;
+  @Autowired private TaskCountStore taskCounts;
+
+  @Override
+  public Task find(Long id) {
+    return this.em.find(Task.class, id);
+  }
+
+  @Override
+  public List<Task> findAll(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+    return this.em.createQuery(this.byIds(ids))
+        .setHint(QueryHints.READ_ONLY, true)
+        .getResultList();
+  }
+
+  @Override
+  public Map<Long, Task> findForUpdate(List<Long> ids) {
+    if (ids.isEmpty()) {
+      return new HashMap<>();
+    }
+    return this.em.createQuery(this.byIds(ids))
+        .getResultList()
+        .stream()
+        .collect(Collectors.toMap(Task::getId, Function.identity()));
+  }
+
+  private CriteriaQuery<Task> byIds(List<Long> ids) {
+    CriteriaBuilder cb = this.em.getCriteriaBuilder();
+    CriteriaQuery<Task> query = cb.createQuery(Task.class);
+    Root<Task> root = query.from(Task.class);
+    query.where(root.get("id").in(ids));
+    return query;
+  }
+
+  @Override
+  public ConnectionWithTotal<Edge<Task>> connection(
+      String scope,
+      ConnectionArgs connectionArgs,
+      TaskFilter filter,
+      List<SortKey> sort,
+      Set<String> selectedFields,
+      int maxPageSize
+      ) {
+    QueryConfig scopeFilter = scopeFilter(scope);
+    return new JpaConnectionWithTotal<>(
+        Task.class, this.em,
+        connectionArgs,
+        JpaConnectionOptions.builder()
+          .queryConfig(filter != null ? scopeFilter.andThen(filter.toQueryConfig()) : scopeFilter)
+          .totalCount(filter != null ? null : () -> this.taskCounts.getCount(scope))
+          .sort(sort)
+          .selectedAttributes(selectedFields)
+          .maxPageSize(maxPageSize)
+          .indexHint(filter != null ? filter.indexHint() : null)
+          .build()
+        );
+  }
+
+  private static QueryConfig scopeFilter(String scope) {
+    switch (scope) {
+      case TaskCountStore.MY_TASKS:
+        return MY_TASKS_FILTER;
+      case TaskCountStore.EXAMPLE_TASKS:
+        return EXAMPLE_TASKS_FILTER;
+      default:
+        throw new IllegalArgumentException("Unknown task connection " + scope);
+    }
+  }
+
+  @Override
+  public void create(Task task) {
+    this.em.persist(task);
+  }
+
+  @Override
+  public void update(Task task) {
+    // Managed tasks are written at flush.
+  }
+
+  @Override
+  public void discard(Task task) {
+    this.em.detach(task);
+  }
+
+  @Override
+  public void delete(Task task) {
+    this.em.remove(task);
+  }
+
+  /**
+   * Flush the changes as JDBC batches, and clear them from the persistence context.
+   */
+  @Override
+  public void flush() {
+    this.em.flush();
+    this.em.clear();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    CriteriaQuery<Long> query = this.em.getCriteriaBuilder().createQuery(Long.class);
+    query.select(query.from(Task.class).get("id"));
+    return this.em.createQuery(query).setMaxResults(1).getResultList().isEmpty();
+  }
+
+  @Override
+  public void forEach(Consumer<Task> consumer) {
+    CriteriaQuery<Task> query = this.em.getCriteriaBuilder().createQuery(Task.class);
+    query.from(Task.class);
+    this.em.createQuery(query)
+        .setHint(QueryHints.READ_ONLY, true)
+        .getResultList()
+        .forEach(consumer);
+  }
+
+}
@@ -1,15 +1,28 @@
 package ca.poffm.graphql.todo.service;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import ca.poffm.graphql.todo.input.InputConverter;
 import ca.poffm.graphql.todo.input.TaskInput;
+import ca.poffm.graphql.todo.input.TaskUpdate;
 import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.model.TaskResult;
 import io.leangen.graphql.annotations.GraphQLArgument;
 import io.leangen.graphql.annotations.GraphQLMutation;
 import io.leangen.graphql.annotations.GraphQLNonNull;
@@ -23,15 +36,37 @@ import io.leangen.graphql.annotations.GraphQLNonNull;
 @Transactional
 public class MutationRoot {
   
+  private static final String DUPLICATE_ID = "Duplicate id: a task is only changed once per mutation.";
+  
   @Autowired private InputConverter converter;
-  @PersistenceContext private EntityManager em;
+  @Autowired private TaskCountStore taskCounts;
+  @Autowired private TaskSearchIndex taskSearch;
+  @Autowired private TaskCache taskCache;
+  @Autowired private TaskChangePublisher taskChanges;
+  @Autowired private Validator validator;
+  @Autowired private TaskStore taskStore;
+  
+  @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+  private int batchSize;
+  
+  /**
+   * Check the input mappings at startup.
+   */
+  @PostConstruct
+  public void compileConverters() {
+    converter.compile(TaskInput.class, Task.class);
+  }
   
   @GraphQLMutation
   public Task createTask(
       @GraphQLNonNull @GraphQLArgument(name="task") TaskInput task
       ) {
     Task entity = converter.convert(task, Task.class);
-    this.em.persist(entity);
+    this.taskStore.create(entity);
+    this.taskCounts.created(entity);
+    this.taskSearch.saved(entity);
+    this.taskCache.saved(Collections.emptySet(), entity, this.taskCounts.keysOf(entity));
+    this.taskChanges.created(entity);
     return entity;
   }
   
@@ -40,8 +75,14 @@ public class MutationRoot {
       @GraphQLNonNull @GraphQLArgument(name="id") Long id,
       @GraphQLNonNull @GraphQLArgument(name="patch") TaskInput patch
       ) {
-    Task task = this.em.find(Task.class, id);
+    Task task = this.findTask(id);
+    Set<String> countKeys = this.taskCounts.keysOf(task);
     converter.patch(patch, task);
+    this.taskStore.update(task);
+    this.taskCounts.updated(countKeys, task);
+    this.taskSearch.saved(task);
+    this.taskCache.saved(countKeys, task, this.taskCounts.keysOf(task));
+    this.taskChanges.updated(task);
     return task;
   }
   
@@ -49,9 +90,176 @@ public class MutationRoot {
   public Long deleteTask(
     @GraphQLNonNull @GraphQLArgument(name="id") Long id
   ) {
-    this.em.remove(this.em.getReference(Task.class, id));
+    Task task = this.findTask(id);
+    this.taskCounts.deleted(task);
+    this.taskSearch.deleted(id);
+    this.taskCache.deleted(id, this.taskCounts.keysOf(task));
+    this.taskChanges.deleted(id);
+    this.taskStore.delete(task);
     return id;
   }
   
+  /**
+   * Create many tasks in one transaction. Invalid inputs are reported in their result
+   * and skipped; the rest are inserted in JDBC batches.
+   * 
+   * @param tasks
+   * @return One result per input, in order.
+   */
+  @GraphQLMutation
+  public List<TaskResult> createTasks(
+      @GraphQLNonNull @GraphQLArgument(name="tasks") List<@GraphQLNonNull TaskInput> tasks
+      ) {
+    List<TaskResult> results = new ArrayList<>();
+    int created = 0;
+    for (TaskInput input : tasks) {
+      Task entity = converter.convert(input, Task.class);
+      String error = this.validate(entity);
+      if (error != null) {
+        results.add(TaskResult.failure(null, error));
+        continue;
+      }
+      
+      this.taskStore.create(entity);
+      this.taskCounts.created(entity);
+      this.taskSearch.saved(entity);
+      this.taskCache.saved(Collections.emptySet(), entity, this.taskCounts.keysOf(entity));
+      this.taskChanges.created(entity);
+      results.add(TaskResult.success(entity.getId(), entity));
+      this.flushBatch(++created);
+    }
+    return results;
+  }
+  
+  /**
+   * Update many tasks in one transaction. Missing tasks, ids repeated after their first
+   * update and patches that would make a task invalid are reported in their result and
+   * skipped.
+   * 
+   * @param updates
+   * @return One result per update, in order.
+   */
+  @GraphQLMutation
+  public List<TaskResult> updateTasks(
+      @GraphQLNonNull @GraphQLArgument(name="updates") List<@GraphQLNonNull TaskUpdate> updates
+      ) {
+    Map<Long, Task> tasks = this.taskStore.findForUpdate(
+        updates.stream().map(TaskUpdate::getId).filter(Objects::nonNull).collect(Collectors.toList()));
+    
+    List<TaskResult> results = new ArrayList<>();
+    Set<Long> seen = new HashSet<>();
+    for (TaskUpdate update : updates) {
+      if (!seen.add(update.getId())) {
+        results.add(TaskResult.failure(update.getId(), DUPLICATE_ID));
+        continue;
+      }
+      Task task = tasks.get(update.getId());
+      if (task == null) {
+        results.add(TaskResult.failure(update.getId(), "Task not found."));
+        continue;
+      }
+      
+      Set<String> countKeys = this.taskCounts.keysOf(task);
+      if (update.getPatch() != null) {
+        converter.patch(update.getPatch(), task);
+      }
+      String error = this.validate(task);
+      if (error != null) {
+        // Drop the invalid changes so they're never saved.
+        this.taskStore.discard(task);
+        tasks.remove(task.getId());
+        results.add(TaskResult.failure(update.getId(), error));
+        continue;
+      }
+      
+      this.taskStore.update(task);
+      this.taskCounts.updated(countKeys, task);
+      this.taskSearch.saved(task);
+      this.taskCache.saved(countKeys, task, this.taskCounts.keysOf(task));
+      this.taskChanges.updated(task);
+      results.add(TaskResult.success(task.getId(), task));
+    }
+    return results;
+  }
+  
+  /**
+   * Delete many tasks in one transaction. Missing tasks and ids repeated after their
+   * first delete are reported in their result.
+   * 
+   * @param ids
+   * @return One result per id, in order.
+   */
+  @GraphQLMutation
+  public List<TaskResult> deleteTasks(
+      @GraphQLNonNull @GraphQLArgument(name="ids") List<@GraphQLNonNull Long> ids
+      ) {
+    Map<Long, Task> tasks = this.taskStore.findForUpdate(ids);
+    
+    List<TaskResult> results = new ArrayList<>();
+    Set<Long> seen = new HashSet<>();
+    for (Long id : ids) {
+      if (!seen.add(id)) {
+        results.add(TaskResult.failure(id, DUPLICATE_ID));
+        continue;
+      }
+      Task task = tasks.remove(id);
+      if (task == null) {
+        results.add(TaskResult.failure(id, "Task not found."));
+        continue;
+      }
+      
+      this.taskCounts.deleted(task);
+      this.taskSearch.deleted(id);
+      this.taskCache.deleted(id, this.taskCounts.keysOf(task));
+      this.taskChanges.deleted(id);
+      this.taskStore.delete(task);
+      results.add(TaskResult.success(id, null));
+    }
+    return results;
+  }
+  
+  /**
+   * Get a task to change.
+   * 
+   * @param id
+   * @return
+   * @throws IllegalArgumentException If there's no task with the id.
+   */
+  private Task findTask(Long id) {
+    Task task = this.taskStore.findForUpdate(Collections.singletonList(id)).get(id);
+    if (task == null) {
+      throw new IllegalArgumentException("No task with id " + id);
+    }
+    return task;
+  }
+  
+  /**
+   * Check a task's bean validation constraints.
+   * 
+   * @param task
+   * @return The violation messages, or null if the task is valid.
+   */
+  private String validate(Task task) {
+    Set<ConstraintViolation<Task>> violations = this.validator.validate(task);
+    if (violations.isEmpty()) {
+      return null;
+    }
+    return violations.stream()
+        .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+        .sorted()
+        .collect(Collectors.joining(" "));
+  }
+  
+  /**
+   * Flush the store every batch size, so the JPA store sends inserts as JDBC batches and
+   * its persistence context doesn't grow with the number of tasks.
+   * 
+   * @param count Tasks created so far, not counting failed inputs
+   */
+  private void flushBatch(int count) {
+    if (count % this.batchSize == 0) {
+      this.taskStore.flush();
+    }
+  }
   
 }
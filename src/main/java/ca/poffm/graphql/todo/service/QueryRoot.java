@@ -1,18 +1,31 @@
 package ca.poffm.graphql.todo.service;
 
-import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import org.dataloader.DataLoader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import ca.poffm.graphql.todo.execution.RequestContext;
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.input.TaskOrder;
 import ca.poffm.graphql.todo.model.Task;
 import ca.poffm.graphql.todo.paging.ConnectionArgs;
 import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
-import ca.poffm.graphql.todo.paging.JpaConnectionWithTotal;
-import ca.poffm.graphql.todo.paging.JpaConnectionOptions;
+import ca.poffm.graphql.todo.paging.RankedConnection;
+import ca.poffm.graphql.todo.paging.SortKey;
 import graphql.relay.Edge;
 import io.leangen.graphql.annotations.GraphQLArgument;
+import io.leangen.graphql.annotations.GraphQLEnvironment;
+import io.leangen.graphql.annotations.GraphQLNonNull;
 import io.leangen.graphql.annotations.GraphQLQuery;
+import io.leangen.graphql.annotations.GraphQLRootContext;
+import io.leangen.graphql.execution.ResolutionEnvironment;
 
 /**
  * This GraphQL API's query root.
@@ -22,43 +35,143 @@ import io.leangen.graphql.annotations.GraphQLQuery;
 @Component
 public class QueryRoot {
   
-  @PersistenceContext EntityManager entityManager;
+  private static final String NODE_PATH = "edges/node/";
+  
+  @Autowired TaskStore taskStore;
+  @Autowired TaskSearchIndex taskSearch;
+  @Autowired TaskCache taskCache;
+  
+  @Value("${todo.graphql.max-page-size:100}")
+  int maxPageSize;
   
-  @GraphQLQuery
   public Task task(Long id) {
-    return entityManager.find(Task.class, id);
+    return taskStore.find(id);
   }
   
-  @GraphQLQuery
+  /**
+   * Get a task by id. Lookups are batched with the operation's other task lookups.
+   * 
+   * @param id
+   * @param context
+   * @return
+   */
+  @GraphQLQuery(name = "task")
+  public CompletableFuture<Task> task(
+      @GraphQLArgument(name = "id") Long id,
+      @GraphQLRootContext RequestContext context
+  ) {
+    DataLoader<Long, Task> tasks = context.getDataLoaders().getDataLoader(DataLoaders.TASK);
+    return tasks.load(id);
+  }
+  
+  public ConnectionWithTotal<Edge<Task>> myTasks(Integer first, String after, Integer last, String before) {
+    return this.myTasks(first, after, last, before, null, null, null);
+  }
+  
+  @GraphQLQuery(name = "myTasks")
   public ConnectionWithTotal<Edge<Task>> myTasks(
       @GraphQLArgument(name = "first") Integer first,
       @GraphQLArgument(name = "after") String after,
       @GraphQLArgument(name = "last") Integer last,
-      @GraphQLArgument(name = "before") String before
+      @GraphQLArgument(name = "before") String before,
+      @GraphQLArgument(name = "orderBy") TaskOrder orderBy,
+      @GraphQLArgument(name = "filter") TaskFilter filter,
+      @GraphQLEnvironment ResolutionEnvironment env
   ) {
-    return new JpaConnectionWithTotal<>(
-        Task.class, entityManager,
+    return this.tasks(
+        TaskCountStore.MY_TASKS,
         ConnectionArgs.builder().first(first).after(after).last(last).before(before).build(),
-        JpaConnectionOptions.builder()
-          .queryConfig((query, cb, root) -> query.where(cb.equal(root.get("autoGeneratedExample"), false)))
-          .build()
-        );
+        orderBy, filter, env);
   }
   
-  @GraphQLQuery
+  public ConnectionWithTotal<Edge<Task>> exampleTasks(Integer first, String after, Integer last, String before) {
+    return this.exampleTasks(first, after, last, before, null, null, null);
+  }
+  
+  @GraphQLQuery(name = "exampleTasks")
   public ConnectionWithTotal<Edge<Task>> exampleTasks(
       @GraphQLArgument(name = "first") Integer first,
       @GraphQLArgument(name = "after") String after,
       @GraphQLArgument(name = "last") Integer last,
-      @GraphQLArgument(name = "before") String before
+      @GraphQLArgument(name = "before") String before,
+      @GraphQLArgument(name = "orderBy") TaskOrder orderBy,
+      @GraphQLArgument(name = "filter") TaskFilter filter,
+      @GraphQLEnvironment ResolutionEnvironment env
   ) {
-    return new JpaConnectionWithTotal<>(
-        Task.class, entityManager,
+    return this.tasks(
+        TaskCountStore.EXAMPLE_TASKS,
         ConnectionArgs.builder().first(first).after(after).last(last).before(before).build(),
-        JpaConnectionOptions.builder()
-          .queryConfig((query, cb, root) -> query.where(cb.equal(root.get("autoGeneratedExample"), true)))
-          .build()
+        orderBy, filter, env);
+  }
+  
+  /**
+   * Search the user's tasks, like myTasks, by words in their name or description.
+   * 
+   * @param query
+   * @param first
+   * @param after
+   * @return The matching tasks, best match first.
+   */
+  @GraphQLQuery
+  public ConnectionWithTotal<Edge<Task>> searchTasks(
+      @GraphQLNonNull @GraphQLArgument(name = "query") String query,
+      @GraphQLArgument(name = "first") Integer first,
+      @GraphQLArgument(name = "after") String after
+  ) {
+    return new RankedConnection<>(
+        taskSearch.search(TaskCountStore.MY_TASKS, query),
+        ConnectionArgs.builder().first(first).after(after).build(),
+        maxPageSize,
+        taskStore::findAll
         );
   }
   
+  /**
+   * A page of one of the task connections, from the cache when it's enabled.
+   * 
+   * @param scope The connection's {@link TaskCountStore} key
+   * @param connectionArgs
+   * @param orderBy
+   * @param filter
+   * @param env
+   * @return
+   */
+  private ConnectionWithTotal<Edge<Task>> tasks(
+      String scope,
+      ConnectionArgs connectionArgs,
+      TaskOrder orderBy,
+      TaskFilter filter,
+      ResolutionEnvironment env
+  ) {
+    List<SortKey> sort = sortOf(orderBy);
+    Set<String> selectedFields = selectedNodeFields(env);
+    return taskCache.getPage(
+        new TaskCache.PageKey(scope, filter, sort, connectionArgs, selectedFields),
+        () -> taskStore.connection(scope, connectionArgs, filter, sort, selectedFields, maxPageSize)
+        );
+  }
+  
+  private static List<SortKey> sortOf(TaskOrder orderBy) {
+    return orderBy != null ? Collections.singletonList(orderBy.toSortKey()) : Collections.emptyList();
+  }
+  
+  /**
+   * The fields selected directly under a connection's edges.node.
+   * 
+   * @param env The connection field's environment, or null when called from Java.
+   * @return The field names, or null if unknown.
+   */
+  static Set<String> selectedNodeFields(ResolutionEnvironment env) {
+    if (env == null) {
+      return null;
+    }
+    Set<String> fields = new HashSet<>();
+    for (String path : env.dataFetchingEnvironment.getSelectionSet().get().keySet()) {
+      if (path.startsWith(NODE_PATH) && path.indexOf('/', NODE_PATH.length()) < 0) {
+        fields.add(path.substring(NODE_PATH.length()));
+      }
+    }
+    return fields;
+  }
+  
 }
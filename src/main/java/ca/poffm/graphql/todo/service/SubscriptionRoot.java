@@ -0,0 +1,30 @@
+package ca.poffm.graphql.todo.service;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.model.TaskChange;
+import io.leangen.graphql.annotations.GraphQLSubscription;
+
+/**
+ * This GraphQL API's subscription root.
+ * 
+ * @author PoffM
+ */
+@Component
+public class SubscriptionRoot {
+  
+  @Autowired private TaskChangePublisher taskChanges;
+  
+  /**
+   * Committed task creates, updates and deletes, as they happen.
+   * 
+   * @return
+   */
+  @GraphQLSubscription
+  public Publisher<TaskChange> taskChanged() {
+    return taskChanges.getChanges();
+  }
+  
+}
@@ -0,0 +1,220 @@
+package ca.poffm.graphql.todo.service;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.poffm.graphql.todo.ExampleDataLoader;
+import ca.poffm.graphql.todo.cache.BoundedCache;
+import ca.poffm.graphql.todo.cache.BoundedCacheMetrics;
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.ConnectionSnapshot;
+import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.SortKey;
+import graphql.relay.Edge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.Data;
+
+/**
+ * Opt-in in-process cache of tasks by id and of myTasks/exampleTasks connection pages.
+ * Entries expire after a TTL and are evicted by size. Task mutations invalidate the
+ * changed task's entry, and the pages of the connections the task was or is in, when
+ * their transaction commits. Pages of the other connection stay cached.
+ *
+ * A page or task read while a change is committing could be cached after the change
+ * invalidated it, so reads started before the last invalidation aren't cached. The check
+ * is repeated after caching, since an invalidation can also land during the put.
+ *
+ * @author PoffM
+ */
+@Component
+public class TaskCache implements MeterBinder {
+  
+  /**
+   * Identifies a connection page: the connection, its arguments and the node fields
+   * selected, since projected pages only hold those fields.
+   */
+  @Data
+  public static class PageKey {
+    /**
+     * The connection's {@link TaskCountStore} key.
+     */
+    private final String scope;
+    private final TaskFilter filter;
+    private final List<SortKey> sort;
+    private final ConnectionArgs args;
+    private final Set<String> selectedFields;
+  }
+  
+  private final boolean enabled;
+  private final BoundedCache<Long, Task> tasks;
+  private final BoundedCache<PageKey, ConnectionSnapshot<Edge<Task>>> pages;
+  
+  /**
+   * Counts invalidations, so reads that overlapped one can be left uncached.
+   */
+  private final AtomicLong generation = new AtomicLong();
+  
+  public TaskCache(
+      @Value("${todo.cache.enabled:false}") boolean enabled,
+      @Value("${todo.cache.ttl:60000}") long ttlMillis,
+      @Value("${todo.cache.tasks.max-size:10000}") long maxTasks,
+      @Value("${todo.cache.pages.max-size:1000}") long maxPages
+      ) {
+    this.enabled = enabled;
+    Duration ttl = Duration.ofMillis(ttlMillis);
+    this.tasks = new BoundedCache<>(maxTasks, (id, task) -> 1, ttl, System::nanoTime);
+    this.pages = new BoundedCache<>(maxPages, (key, page) -> 1, ttl, System::nanoTime);
+  }
+  
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+  
+  /**
+   * Get a cached task.
+   * 
+   * @param id
+   * @return The task, or null if it isn't cached or caching is disabled.
+   */
+  public Task getTask(Long id) {
+    return this.enabled ? this.tasks.get(id) : null;
+  }
+  
+  /**
+   * Cache tasks read from the database.
+   * 
+   * @param loaded The tasks
+   * @param generation {@link #generation()} from before they were read
+   */
+  public void putTasks(List<Task> loaded, long generation) {
+    if (!this.enabled) {
+      return;
+    }
+    for (Task task : loaded) {
+      this.put(this.tasks, task.getId(), task, generation);
+    }
+  }
+  
+  /**
+   * Get a cached connection page, reading and caching it on a miss.
+   * 
+   * @param key
+   * @param read Reads the page from the database
+   * @return The page.
+   */
+  public ConnectionWithTotal<Edge<Task>> getPage(PageKey key, Supplier<ConnectionWithTotal<Edge<Task>>> read) {
+    // An overdue filter compares with the current time, so its pages can't be reused.
+    if (!this.enabled || (key.getFilter() != null && key.getFilter().getOverdue() != null)) {
+      return read.get();
+    }
+    
+    ConnectionSnapshot<Edge<Task>> page = this.pages.get(key);
+    if (page == null) {
+      long generation = this.generation.get();
+      page = new ConnectionSnapshot<>(read.get());
+      this.put(this.pages, key, page, generation);
+    }
+    return page;
+  }
+  
+  /**
+   * Cache a value read at a generation, unless it has been invalidated since. An
+   * invalidation bumps the generation before removing entries, so one that lands during
+   * the put either removes the value itself or is seen by the second check.
+   */
+  private <K, V> void put(BoundedCache<K, V> cache, K key, V value, long generation) {
+    if (this.generation.get() != generation) {
+      return;
+    }
+    cache.put(key, value);
+    if (this.generation.get() != generation) {
+      cache.invalidate(key);
+    }
+  }
+  
+  /**
+   * The current invalidation count, to pass to {@link #putTasks(List, long)}.
+   * 
+   * @return
+   */
+  public long generation() {
+    return this.generation.get();
+  }
+  
+  /**
+   * Invalidate a created or updated task and the pages it was or is in.
+   * 
+   * @param scopesBefore The task's {@link TaskCountStore} keys before the change, or an
+   *     empty set for a new task
+   * @param task The saved task
+   * @param scopes The task's current {@link TaskCountStore} keys
+   */
+  public void saved(Set<String> scopesBefore, Task task, Set<String> scopes) {
+    Set<String> affected = new HashSet<>(scopesBefore);
+    affected.addAll(scopes);
+    this.invalidate(task.getId(), affected);
+  }
+  
+  /**
+   * Invalidate a deleted task and the pages it was in.
+   * 
+   * @param id
+   * @param scopes The task's {@link TaskCountStore} keys
+   */
+  public void deleted(Long id, Set<String> scopes) {
+    this.invalidate(id, scopes);
+  }
+  
+  @EventListener(ExampleDataLoader.LoadedEvent.class)
+  public void invalidateAll() {
+    this.generation.incrementAndGet();
+    this.tasks.invalidateAll();
+    this.pages.invalidateAll();
+  }
+  
+  private void invalidate(Long id, Set<String> scopes) {
+    if (!this.enabled) {
+      return;
+    }
+    
+    Runnable change = () -> {
+      this.generation.incrementAndGet();
+      if (id != null) {
+        this.tasks.invalidate(id);
+      }
+      this.pages.invalidateIf(key -> scopes.contains(key.getScope()));
+    };
+    
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          change.run();
+        }
+      });
+    } else {
+      change.run();
+    }
+  }
+  
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    new BoundedCacheMetrics(this.tasks, "tasks", Collections.emptyList()).bindTo(registry);
+    new BoundedCacheMetrics(this.pages, "task.pages", Collections.emptyList()).bindTo(registry);
+  }
+  
+}
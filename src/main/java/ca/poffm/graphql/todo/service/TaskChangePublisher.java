@@ -0,0 +1,99 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.model.TaskChange;
+import ca.poffm.graphql.todo.model.TaskChangeType;
+import ca.poffm.graphql.todo.subscription.Broadcaster;
+import ca.poffm.graphql.todo.subscription.Broadcaster.OverflowPolicy;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Publishes task changes to taskChanged subscribers. Changes made inside a transaction
+ * are published when it commits, so subscribers never see a change that is rolled back.
+ * Subscribers that fall behind get the latest change of each task by default.
+ * 
+ * @author PoffM
+ */
+@Component
+public class TaskChangePublisher implements MeterBinder {
+  
+  private final ExecutorService executor;
+  private final Broadcaster<TaskChange> broadcaster;
+  
+  public TaskChangePublisher(
+      @Value("${todo.subscriptions.buffer-size:256}") int bufferSize,
+      @Value("${todo.subscriptions.overflow-policy:COALESCE}") OverflowPolicy overflowPolicy,
+      @Value("${todo.subscriptions.threads:4}") int threads
+      ) {
+    this.executor = Executors.newFixedThreadPool(threads, new CustomizableThreadFactory("subscriptions-"));
+    this.broadcaster = new Broadcaster<>(bufferSize, overflowPolicy, TaskChange::getId, this.executor);
+  }
+  
+  /**
+   * The stream of task changes, for one subscriber.
+   * 
+   * @return
+   */
+  public Publisher<TaskChange> getChanges() {
+    return this.broadcaster;
+  }
+  
+  public void created(Task task) {
+    this.afterCommit(() -> this.broadcaster.publish(new TaskChange(TaskChangeType.CREATED, task.getId(), task)));
+  }
+  
+  public void updated(Task task) {
+    this.afterCommit(() -> this.broadcaster.publish(new TaskChange(TaskChangeType.UPDATED, task.getId(), task)));
+  }
+  
+  public void deleted(Long id) {
+    this.afterCommit(() -> this.broadcaster.publish(new TaskChange(TaskChangeType.DELETED, id, null)));
+  }
+  
+  private void afterCommit(Runnable change) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          change.run();
+        }
+      });
+    } else {
+      change.run();
+    }
+  }
+  
+  @PreDestroy
+  public void shutdown() {
+    this.broadcaster.complete();
+    this.executor.shutdown();
+  }
+  
+  @Override
+  public void bindTo(MeterRegistry registry) {
+    Gauge.builder("graphql.subscriptions", this.broadcaster, Broadcaster::subscriberCount)
+        .tag("subscription", "taskChanged")
+        .description("Active subscribers")
+        .register(registry);
+    FunctionCounter.builder("graphql.subscriptions.dropped", this.broadcaster, Broadcaster::droppedCount)
+        .tag("subscription", "taskChanged")
+        .description("Changes dropped or coalesced because a subscriber fell behind")
+        .register(registry);
+  }
+  
+}
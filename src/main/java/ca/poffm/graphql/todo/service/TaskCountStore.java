@@ -0,0 +1,71 @@
+package ca.poffm.graphql.todo.service;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import ca.poffm.graphql.todo.ExampleDataLoader;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.JpaCountStore;
+import lombok.extern.java.Log;
+
+/**
+ * Task counts for the myTasks and exampleTasks connections' totalCount.
+ * Rebuilt from the database once the app is ready, after the example data is loaded,
+ * and again when example data loaded in the background is done.
+ * 
+ * @author PoffM
+ */
+@Log
+@Component
+public class TaskCountStore extends JpaCountStore<Task> {
+  
+  public static final String MY_TASKS = "autoGeneratedExample=false";
+  public static final String EXAMPLE_TASKS = "autoGeneratedExample=true";
+  
+  private final boolean enabled;
+  
+  /**
+   * Whether a connection's tasks are the auto-generated examples.
+   * 
+   * @param scope {@link #MY_TASKS} or {@link #EXAMPLE_TASKS}
+   * @return
+   * @throws IllegalArgumentException If the scope is neither.
+   */
+  public static boolean isExample(String scope) {
+    switch (scope) {
+      case MY_TASKS:
+        return false;
+      case EXAMPLE_TASKS:
+        return true;
+      default:
+        throw new IllegalArgumentException("Unknown task connection " + scope);
+    }
+  }
+  
+  public TaskCountStore(
+      EntityManager entityManager,
+      @Value("${todo.count-store.enabled:true}") boolean enabled,
+      @Value("${todo.store.type:jpa}") String storeType
+      ) {
+    super(Task.class, entityManager);
+    // Other stores count their own tasks.
+    this.enabled = enabled && storeType.equals("jpa");
+    
+    this.register(MY_TASKS, JpaTaskStore.MY_TASKS_FILTER, task -> !task.getAutoGeneratedExample());
+    this.register(EXAMPLE_TASKS, JpaTaskStore.EXAMPLE_TASKS_FILTER, Task::getAutoGeneratedExample);
+  }
+  
+  @EventListener({ ApplicationReadyEvent.class, ExampleDataLoader.LoadedEvent.class })
+  public void onApplicationReady() {
+    if (this.enabled) {
+      long start = System.currentTimeMillis();
+      this.rebuild();
+      log.info("Task counts loaded in " + (System.currentTimeMillis() - start) + "ms.");
+    }
+  }
+  
+}
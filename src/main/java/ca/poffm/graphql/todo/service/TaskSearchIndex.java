@@ -0,0 +1,167 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import ca.poffm.graphql.todo.ExampleDataLoader;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.search.InvertedIndex;
+import lombok.extern.java.Log;
+
+/**
+ * Full-text index of task names and descriptions for searchTasks. Built from the
+ * task store once the app is ready, and again when example data loaded in the background
+ * is done, then kept current by the task mutations. Changes made inside a transaction
+ * are applied when it commits. Changes committed during a rebuild are applied again once
+ * it's done, since the rebuild may have read the tasks before they committed.
+ *
+ * Searches are scoped like the task connections: the user's tasks or the examples.
+ *
+ * @author PoffM
+ */
+@Log
+@Component
+public class TaskSearchIndex {
+
+  /**
+   * How much more a term in the name counts than one in the description.
+   */
+  private static final int NAME_WEIGHT = 2;
+
+  private final TaskStore taskStore;
+  private final InvertedIndex index = new InvertedIndex();
+
+  /**
+   * The ids of the indexed example tasks, to scope searches by.
+   */
+  private final Set<Long> examples = ConcurrentHashMap.newKeySet();
+
+  private final Object rebuildLock = new Object();
+
+  /**
+   * Changes applied since the running rebuild started, or null. Guarded by this.
+   */
+  private List<Runnable> changesDuringRebuild = null;
+
+  public TaskSearchIndex(TaskStore taskStore) {
+    this.taskStore = taskStore;
+  }
+
+  @EventListener({ ApplicationReadyEvent.class, ExampleDataLoader.LoadedEvent.class })
+  public void onApplicationReady() {
+    long start = System.currentTimeMillis();
+    this.rebuild();
+    log.info("Task search index built with " + this.index.size() + " tasks in "
+        + (System.currentTimeMillis() - start) + "ms.");
+  }
+
+  /**
+   * Reload every task's text from the task store.
+   */
+  public void rebuild() {
+    synchronized (this.rebuildLock) {
+      synchronized (this) {
+        this.changesDuringRebuild = new ArrayList<>();
+      }
+      this.index.clear();
+      this.examples.clear();
+      this.taskStore.forEach(task -> this.put(
+          task.getId(),
+          task.getAutoGeneratedExample(),
+          termCounts(task.getName(), task.getDescription())));
+      synchronized (this) {
+        this.changesDuringRebuild.forEach(Runnable::run);
+        this.changesDuringRebuild = null;
+      }
+    }
+  }
+
+  /**
+   * Find tasks by words in their name or description.
+   *
+   * @param scope The {@link TaskCountStore} key of the connection to search
+   * @param query
+   * @return The matching task ids, best match first.
+   * @throws IllegalArgumentException If the scope is unknown.
+   */
+  public List<Long> search(String scope, String query) {
+    boolean example = TaskCountStore.isExample(scope);
+    return this.index.search(query)
+        .stream()
+        .map(InvertedIndex.Hit::getId)
+        .filter(id -> this.examples.contains(id) == example)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Index a created or updated task.
+   *
+   * @param task
+   */
+  public void saved(Task task) {
+    Long id = task.getId();
+    boolean example = task.getAutoGeneratedExample();
+    Map<String, Integer> terms = termCounts(task.getName(), task.getDescription());
+    this.afterCommit(() -> this.put(id, example, terms));
+  }
+
+  /**
+   * Stop finding a deleted task.
+   *
+   * @param id
+   */
+  public void deleted(Long id) {
+    this.afterCommit(() -> {
+      this.index.remove(id);
+      this.examples.remove(id);
+    });
+  }
+
+  private void put(Long id, boolean example, Map<String, Integer> terms) {
+    this.index.put(id, terms);
+    if (example) {
+      this.examples.add(id);
+    } else {
+      this.examples.remove(id);
+    }
+  }
+
+  private void afterCommit(Runnable change) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          TaskSearchIndex.this.apply(change);
+        }
+      });
+    } else {
+      this.apply(change);
+    }
+  }
+
+  private synchronized void apply(Runnable change) {
+    change.run();
+    if (this.changesDuringRebuild != null) {
+      this.changesDuringRebuild.add(change);
+    }
+  }
+
+  private static Map<String, Integer> termCounts(String name, String description) {
+    Map<String, Integer> counts = new HashMap<>();
+    InvertedIndex.tokenize(name).forEach(term -> counts.merge(term, NAME_WEIGHT, Integer::sum));
+    InvertedIndex.tokenize(description).forEach(term -> counts.merge(term, 1, Integer::sum));
+    return counts;
+  }
+
+}
@@ -0,0 +1,126 @@
+package ca.poffm.graphql.todo.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.SortKey;
+import graphql.relay.Edge;
+
+/**
+ * Where the tasks are kept. The query and mutation roots read and write tasks only
+ * through this, so the backend is chosen with todo.store.type: "jpa" for the database
+ * ({@link JpaTaskStore}), or "memory" for {@link InMemoryTaskStore}. Both page the task
+ * connections with the same order, cursors and page info.
+ *
+ * Tasks returned by the find methods are only read. To change tasks, get them with
+ * {@link #findForUpdate(List)}, change them, then {@link #update(Task)} them.
+ *
+ * @author PoffM
+ */
+public interface TaskStore {
+
+  /**
+   * Get a task by id.
+   *
+   * @param id
+   * @return The task, or null if there isn't one.
+   */
+  Task find(Long id);
+
+  /**
+   * Get tasks by id, all at once.
+   *
+   * @param ids
+   * @return The tasks found, in any order.
+   */
+  List<Task> findAll(List<Long> ids);
+
+  /**
+   * Get tasks by id, to change them.
+   *
+   * @param ids
+   * @return The tasks found, by id.
+   */
+  Map<Long, Task> findForUpdate(List<Long> ids);
+
+  /**
+   * Get a page of the myTasks or exampleTasks connection.
+   *
+   * @param scope The connection's {@link TaskCountStore} key
+   * @param connectionArgs
+   * @param filter The filter argument, or null
+   * @param sort The connection's sort order, without the id
+   * @param selectedFields The node fields the client selected, or null if unknown
+   * @param maxPageSize The largest "first" or "last" accepted
+   * @return
+   * @throws IllegalArgumentException If the scope is unknown or the page is too large.
+   */
+  ConnectionWithTotal<Edge<Task>> connection(
+      String scope,
+      ConnectionArgs connectionArgs,
+      TaskFilter filter,
+      List<SortKey> sort,
+      Set<String> selectedFields,
+      int maxPageSize
+      );
+
+  /**
+   * Add a new task, giving it its id and timestamps.
+   *
+   * @param task
+   * @throws javax.validation.ConstraintViolationException If the task is invalid. The
+   *     JPA store only checks when the task is flushed.
+   */
+  void create(Task task);
+
+  /**
+   * Save the changes to a task from {@link #findForUpdate(List)}.
+   *
+   * @param task
+   * @throws javax.validation.ConstraintViolationException If the task is invalid. The
+   *     JPA store only checks when the task is flushed.
+   */
+  void update(Task task);
+
+  /**
+   * Drop the unsaved changes to a task from {@link #findForUpdate(List)}, so they're
+   * never saved.
+   *
+   * @param task
+   */
+  void discard(Task task);
+
+  /**
+   * Remove a task from {@link #findForUpdate(List)}.
+   *
+   * @param task
+   */
+  void delete(Task task);
+
+  /**
+   * Write out the changes made so far in the current transaction and forget the tasks
+   * they were made to, so bulk changes don't pile up in memory.
+   */
+  void flush();
+
+  /**
+   * Whether there are no tasks, e.g. because none were recovered at startup.
+   *
+   * @return
+   */
+  boolean isEmpty();
+
+  /**
+   * Read every task, e.g. to build an in-memory view of them.
+   *
+   * @param consumer
+   */
+  void forEach(Consumer<Task> consumer);
+
+}
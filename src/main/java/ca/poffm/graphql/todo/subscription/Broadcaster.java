@@ -0,0 +1,295 @@
+package ca.poffm.graphql.todo.subscription;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import lombok.NonNull;
+
+/**
+ * Publishes items to any number of reactive streams subscribers without blocking the
+ * publisher. Each subscriber has its own bounded buffer, drained on an executor as the
+ * subscriber requests items, so a slow subscriber only ever falls behind itself. When a
+ * subscriber's buffer is full, items are dropped by the overflow policy.
+ *
+ * @author PoffM
+ *
+ * @param <T> The item type.
+ */
+public class Broadcaster<T> implements Publisher<T> {
+
+  /**
+   * What to do with an item for a subscriber that has fallen behind.
+   */
+  public enum OverflowPolicy {
+    /**
+     * Drop the subscriber's oldest buffered item to make room.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the new item.
+     */
+    DROP_LATEST,
+
+    /**
+     * Replace the newest buffered item with the same key, so a subscriber that falls
+     * behind gets the latest item for each key. Drops the oldest item if none has the same
+     * key. Items are only coalesced once the buffer is full, so a subscriber that keeps up
+     * gets every item.
+     */
+    COALESCE
+  }
+
+  private final int bufferSize;
+  private final OverflowPolicy policy;
+  private final Function<? super T, ?> coalesceKey;
+  private final Executor executor;
+
+  private final Set<BufferedSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * Create a broadcaster.
+   *
+   * @param bufferSize Most items buffered for one subscriber
+   * @param policy What to do when a subscriber's buffer is full
+   * @param coalesceKey The key of an item, for {@link OverflowPolicy#COALESCE}
+   * @param executor Delivers items to subscribers
+   */
+  public Broadcaster(
+      int bufferSize,
+      @NonNull OverflowPolicy policy,
+      @NonNull Function<? super T, ?> coalesceKey,
+      @NonNull Executor executor
+      ) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+    }
+    this.bufferSize = bufferSize;
+    this.policy = policy;
+    this.coalesceKey = coalesceKey;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(@NonNull Subscriber<? super T> subscriber) {
+    BufferedSubscription subscription = new BufferedSubscription(subscriber);
+    this.subscriptions.add(subscription);
+    subscriber.onSubscribe(subscription);
+  }
+
+  /**
+   * Buffer an item for every current subscriber and schedule its delivery.
+   *
+   * @param item
+   */
+  public void publish(@NonNull T item) {
+    for (BufferedSubscription subscription : this.subscriptions) {
+      subscription.offer(item);
+    }
+  }
+
+  /**
+   * Complete every current subscriber once it has received its buffered items.
+   */
+  public void complete() {
+    for (BufferedSubscription subscription : this.subscriptions) {
+      subscription.complete();
+    }
+  }
+
+  public int subscriberCount() {
+    return this.subscriptions.size();
+  }
+
+  /**
+   * The number of items dropped or coalesced away because a subscriber fell behind.
+   *
+   * @return
+   */
+  public long droppedCount() {
+    return this.dropped.sum();
+  }
+
+  /**
+   * One subscriber's buffer and demand. Items are delivered by a drain loop that runs on
+   * the executor while there is demand and buffered items, and only ever on one thread
+   * at a time, so the subscriber's signals are serialized.
+   */
+  private class BufferedSubscription implements Subscription {
+
+    private final Subscriber<? super T> subscriber;
+
+    /**
+     * Buffered items in delivery order, by sequence number.
+     */
+    private final LinkedHashMap<Long, T> buffer = new LinkedHashMap<>();
+    private long sequence = 0;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger work = new AtomicInteger();
+    private volatile boolean cancelled = false;
+    private volatile boolean completed = false;
+    /**
+     * An error to signal from the drain loop, for an invalid request.
+     */
+    private volatile Throwable error;
+
+    BufferedSubscription(Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    void offer(T item) {
+      OverflowPolicy policy = Broadcaster.this.policy;
+      synchronized (this) {
+        if (this.buffer.size() < Broadcaster.this.bufferSize) {
+          this.buffer.put(this.sequence++, item);
+        } else if (policy == OverflowPolicy.DROP_LATEST) {
+          Broadcaster.this.dropped.increment();
+          return;
+        } else if (policy == OverflowPolicy.COALESCE && this.replaceSameKey(item)) {
+          Broadcaster.this.dropped.increment();
+        } else {
+          Iterator<T> oldest = this.buffer.values().iterator();
+          oldest.next();
+          oldest.remove();
+          this.buffer.put(this.sequence++, item);
+          Broadcaster.this.dropped.increment();
+        }
+      }
+      this.drain();
+    }
+
+    /**
+     * Replace the newest buffered item with the same coalescing key as an item. The
+     * replacement keeps the old item's place in the delivery order.
+     *
+     * @return Whether an item was replaced.
+     */
+    private boolean replaceSameKey(T item) {
+      Object key = Broadcaster.this.coalesceKey.apply(item);
+      Map.Entry<Long, T> newest = null;
+      for (Map.Entry<Long, T> buffered : this.buffer.entrySet()) {
+        if (Objects.equals(key, Broadcaster.this.coalesceKey.apply(buffered.getValue()))) {
+          newest = buffered;
+        }
+      }
+      if (newest == null) {
+        return false;
+      }
+      newest.setValue(item);
+      return true;
+    }
+
+    void complete() {
+      this.completed = true;
+      this.drain();
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        if (!this.cancelled && this.error == null) {
+          this.error = new IllegalArgumentException("Requested items must be positive: " + n);
+          this.drain();
+        }
+        return;
+      }
+      this.requested.accumulateAndGet(n, (current, added) -> {
+        long sum = current + added;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+      });
+      this.drain();
+    }
+
+    @Override
+    public void cancel() {
+      this.cancelled = true;
+      Broadcaster.this.subscriptions.remove(this);
+      synchronized (this) {
+        this.buffer.clear();
+      }
+    }
+
+    private void drain() {
+      if (this.work.getAndIncrement() == 0) {
+        try {
+          Broadcaster.this.executor.execute(this::drainLoop);
+        } catch (RejectedExecutionException e) {
+          // The executor is shutting down, so nothing more can be delivered.
+          this.cancel();
+        }
+      }
+    }
+
+    private void drainLoop() {
+      int missed = 1;
+      do {
+        if (this.error != null && !this.cancelled) {
+          this.cancel();
+          this.subscriber.onError(this.error);
+          return;
+        }
+        long demand = this.requested.get();
+        long emitted = 0;
+
+        while (emitted != demand && !this.cancelled) {
+          T item = this.poll();
+          if (item == null) {
+            break;
+          }
+          try {
+            this.subscriber.onNext(item);
+          } catch (Throwable e) {
+            this.cancel();
+          }
+          emitted++;
+        }
+
+        if (this.cancelled) {
+          return;
+        }
+        if (this.completed && this.isEmpty()) {
+          this.cancel();
+          this.subscriber.onComplete();
+          return;
+        }
+        if (emitted != 0 && demand != Long.MAX_VALUE) {
+          this.requested.addAndGet(-emitted);
+        }
+
+        missed = this.work.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private synchronized T poll() {
+      Iterator<T> oldest = this.buffer.values().iterator();
+      if (!oldest.hasNext()) {
+        return null;
+      }
+      T item = oldest.next();
+      oldest.remove();
+      return item;
+    }
+
+    private synchronized boolean isEmpty() {
+      return this.buffer.isEmpty();
+    }
+
+  }
+
+}
@@ -1,33 +1,118 @@
 package ca.poffm.graphl_todo;
 
+import java.sql.Connection;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.sql.DataSource;
+import javax.validation.Validator;
+
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.Ordered;
+import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import ca.poffm.graphql.todo.App;
+import ca.poffm.graphql.todo.execution.MetricsInstrumentation;
+import ca.poffm.graphql.todo.execution.QueryCostInstrumentation;
+import ca.poffm.graphql.todo.execution.RequestContext;
+import ca.poffm.graphql.todo.execution.SqlStatsInstrumentation;
+import ca.poffm.graphql.todo.input.TaskFilter;
 import ca.poffm.graphql.todo.input.TaskInput;
+import ca.poffm.graphql.todo.input.TaskOrder;
+import ca.poffm.graphql.todo.input.TaskOrderField;
+import ca.poffm.graphql.todo.input.TaskUpdate;
+import ca.poffm.graphql.todo.jdbc.SqlStats;
 import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.model.TaskResult;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
 import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.JpaConnectionOptions;
+import ca.poffm.graphql.todo.paging.JpaConnectionWithTotal;
+import ca.poffm.graphql.todo.paging.JpaCursor;
+import ca.poffm.graphql.todo.paging.SortDirection;
+import ca.poffm.graphql.todo.paging.SortKey;
+import ca.poffm.graphql.todo.service.DataLoaders;
+import ca.poffm.graphql.todo.service.InMemoryTaskStore;
 import ca.poffm.graphql.todo.service.MutationRoot;
 import ca.poffm.graphql.todo.service.QueryRoot;
+import ca.poffm.graphql.todo.service.TaskCountStore;
+import ca.poffm.graphql.todo.service.TaskStore;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.relay.ConnectionCursor;
 import graphql.relay.Edge;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.validation.ValidationError;
+import io.leangen.graphql.GraphQLSchemaGenerator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import junit.framework.TestCase;
 
 /**
  * To-do list test.
  */
 @RunWith(SpringJUnit4ClassRunner.class)
-@SpringBootTest(classes = App.class)
+@SpringBootTest(
+    classes = App.class,
+    properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=ca.poffm.graphl_todo.SqlCapture",
+        // Some tests page through the example data in big pages.
+        "todo.graphql.max-page-size=1000",
+        // Fail operations that run too many SQL statements.
+        "todo.graphql.sql-stats.enabled=true",
+        "todo.graphql.sql-stats.fail-on-warning=true" })
 public class AppTest extends TestCase {
   
+  @Autowired private App app;
   @Autowired private QueryRoot query;
   @Autowired private MutationRoot mutation;
+  @Autowired private TaskCountStore taskCounts;
+  @PersistenceContext private EntityManager entityManager;
+  @Autowired private DataSource dataSource;
+  @Autowired private DataLoaders dataLoaders;
+  @Autowired private TaskStore taskStore;
+  @Autowired private Validator validator;
+  @Autowired private PlatformTransactionManager transactionManager;
   
   private Task createTestTask() {
     TaskInput input = new TaskInput();
@@ -183,4 +268,621 @@ public class AppTest extends TestCase {
     
   }
   
+  @Test
+  public void myTasksPageInfoIgnoresExampleTasks() {
+    this.createTestTask();
+    
+    // The example tasks are outside of myTasks, so they can't make another page.
+    ConnectionWithTotal<Edge<Task>> allConn = query.myTasks(1000, null, null, null);
+    assertFalse(allConn.getPageInfo().isHasNextPage());
+    assertFalse(allConn.getPageInfo().isHasPreviousPage());
+    assertEquals(allConn.getTotalCount().intValue(), allConn.getEdges().size());
+  }
+  
+  @Test
+  public void exampleTasksLastPageHasNoNextPage() {
+    ConnectionWithTotal<Edge<Task>> last15Conn = query.exampleTasks(null, null, 15, null);
+    assertFalse(last15Conn.getPageInfo().isHasNextPage());
+  }
+  
+  @Test
+  public void taskCountsMatchDatabase() {
+    Task created = this.createTestTask();
+    Task deleted = this.createTestTask();
+    
+    TaskInput patch = new TaskInput();
+    patch.setDone(Optional.of(true));
+    mutation.updateTask(created.getId(), patch);
+    mutation.deleteTask(deleted.getId());
+    
+    for (String key : taskCounts.getKeys()) {
+      assertEquals(key, Long.valueOf(taskCounts.countInDatabase(key)), taskCounts.getCount(key));
+    }
+  }
+  
+  @Test
+  public void taskCountRebuiltDuringACommitCountsItOnce() throws Exception {
+    long before = taskCounts.getCount(TaskCountStore.MY_TASKS);
+    ExecutorService rebuilder = Executors.newSingleThreadExecutor();
+    List<Future<?>> rebuilds = new ArrayList<>();
+    Task task = new TransactionTemplate(transactionManager).execute(status -> {
+      Task created = this.createTestTask();
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public int getOrder() {
+          // Before the count store applies the created task.
+          return Ordered.HIGHEST_PRECEDENCE;
+        }
+        
+        @Override
+        public void afterCommit() {
+          rebuilds.add(rebuilder.submit(taskCounts::rebuild));
+          try {
+            rebuilds.get(0).get(200, TimeUnit.MILLISECONDS);
+          } catch (TimeoutException e) {
+            // Waiting for the commit to be applied.
+          } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+      });
+      return created;
+    });
+    rebuilds.get(0).get(10, TimeUnit.SECONDS);
+    rebuilder.shutdown();
+    
+    assertEquals(Long.valueOf(before + 1), taskCounts.getCount(TaskCountStore.MY_TASKS));
+    mutation.deleteTask(task.getId());
+  }
+  
+  @Test
+  public void projectedConnectionOnlyLoadsSelectedAttributes() {
+    ConnectionWithTotal<Edge<Task>> conn = new JpaConnectionWithTotal<>(
+        Task.class, entityManager,
+        ConnectionArgs.builder().first(3).after(JpaCursor.encodeId(5L)).build(),
+        JpaConnectionOptions.builder()
+          .selectedAttributes(Collections.singleton("name"))
+          .build()
+        );
+    
+    Task task = conn.getEdges().get(0).getNode();
+    assertEquals(Long.valueOf(6), task.getId());
+    assertEquals("name6", task.getName());
+    assertNull(task.getDescription());
+    assertFalse(entityManager.contains(task));
+  }
+  
+  @Test
+  public void exampleTasksPagedByNameDescending() {
+    TaskOrder byName = new TaskOrder(TaskOrderField.NAME, SortDirection.DESC);
+    List<String> expected = IntStream.rangeClosed(1, 10000)
+        .mapToObj(i -> "name" + i)
+        .sorted(Comparator.reverseOrder())
+        .limit(1500)
+        .collect(Collectors.toList());
+    
+    // Page forward
+    List<String> names = new ArrayList<>();
+    List<String> startCursors = new ArrayList<>();
+    String after = null;
+    for (int page = 0; page < 3; page++) {
+      ConnectionWithTotal<Edge<Task>> conn = query.exampleTasks(500, after, null, null, byName, null, null);
+      conn.getEdges().forEach(edge -> names.add(edge.getNode().getName()));
+      startCursors.add(conn.getPageInfo().getStartCursor().getValue());
+      after = conn.getPageInfo().getEndCursor().getValue();
+    }
+    assertEquals(expected, names);
+    
+    // Page back from the third page's start
+    ConnectionWithTotal<Edge<Task>> previous = query.exampleTasks(null, null, 500, startCursors.get(2), byName, null, null);
+    assertEquals(
+        expected.subList(500, 1000),
+        previous.getEdges().stream().map(edge -> edge.getNode().getName()).collect(Collectors.toList()));
+    assertEquals(startCursors.get(1), previous.getPageInfo().getStartCursor().getValue());
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void cursorFromAnotherOrderIsRejected() {
+    String idCursor = query.exampleTasks(1, null, null, null).getPageInfo().getEndCursor().getValue();
+    query.exampleTasks(1, idCursor, null, null, new TaskOrder(TaskOrderField.DUE_DATE, SortDirection.ASC), null, null)
+      .getEdges();
+  }
+  
+  @Test
+  public void filteredConnectionsUseIndexes() throws SQLException {
+    TaskFilter done = new TaskFilter();
+    done.setDone(true);
+    TaskFilter dueRange = new TaskFilter();
+    dueRange.setDueAfter(new Date(0));
+    dueRange.setDueBefore(new Date());
+    TaskFilter overdue = new TaskFilter();
+    overdue.setOverdue(true);
+    TaskFilter namePrefix = new TaskFilter();
+    namePrefix.setNamePrefix("name12");
+    
+    // Each filter's index, and the conditions it seeks with after the example flag.
+    Map<TaskFilter, List<String>> indexes = new LinkedHashMap<>();
+    indexes.put(done, Arrays.asList("IDX_TASK_DONE_DUE_DATE", "DONE = ?"));
+    indexes.put(dueRange, Arrays.asList("IDX_TASK_DUE_DATE", "DUE_DATE > ?", "DUE_DATE < ?"));
+    indexes.put(overdue, Arrays.asList("IDX_TASK_DONE_DUE_DATE", "DONE = ?", "DUE_DATE < ?"));
+    indexes.put(namePrefix, Arrays.asList("IDX_TASK_NAME", "NAME >= ?"));
+    
+    Pattern indexComment = Pattern.compile("/\\* PUBLIC\\.(\\w+): (.*?) \\*/", Pattern.DOTALL);
+    for (Map.Entry<TaskFilter, List<String>> index : indexes.entrySet()) {
+      for (TaskOrderField field : TaskOrderField.values()) {
+        SqlCapture.clear();
+        query.exampleTasks(10, null, null, null, new TaskOrder(field, SortDirection.ASC), index.getKey(), null)
+          .getEdges();
+        
+        List<String> statements = SqlCapture.statements();
+        assertEquals(1, statements.size());
+        String plan = this.explain(statements.get(0));
+        String message = index.getKey() + " " + field + ": " + plan;
+        Matcher comment = indexComment.matcher(plan);
+        assertTrue(message, comment.find());
+        assertEquals(message, index.getValue().get(0), comment.group(1));
+        String conditions = comment.group(2).replaceAll("\\s+", " ").replaceAll("\\?\\d+", "?");
+        assertTrue(message, conditions.contains("AUTO_GENERATED_EXAMPLE = ?"));
+        for (String condition : index.getValue().subList(1, index.getValue().size())) {
+          assertTrue(message, conditions.contains(condition));
+        }
+      }
+    }
+    
+    // name12, name120 to name129 and name1200 to name1299
+    assertEquals(Long.valueOf(111), query.exampleTasks(10, null, null, null, null, namePrefix, null).getTotalCount());
+  }
+  
+  /**
+   * Get H2's query plan for a statement, binding a value of each parameter's type. H2
+   * chooses the plan when the statement is prepared, so the values don't change it.
+   */
+  private String explain(String sql) throws SQLException {
+    try (
+        Connection connection = dataSource.getConnection();
+        PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)
+    ) {
+      ParameterMetaData parameters = statement.getParameterMetaData();
+      for (int i = 1; i <= parameters.getParameterCount(); i++) {
+        switch (parameters.getParameterType(i)) {
+          case Types.BOOLEAN:
+            statement.setBoolean(i, true);
+            break;
+          case Types.TIMESTAMP:
+            statement.setTimestamp(i, new Timestamp(System.currentTimeMillis()));
+            break;
+          default:
+            // Valid as a name, a LIKE pattern and escape character, and a LIMIT.
+            statement.setString(i, "1");
+        }
+      }
+      try (ResultSet plan = statement.executeQuery()) {
+        plan.next();
+        return plan.getString(1);
+      }
+    }
+  }
+  
+  @Test
+  public void searchTasksFollowsMutations() {
+    TaskInput input = new TaskInput();
+    input.setName(Optional.of("Buy oat milk"));
+    input.setDescription(Optional.of("From the corner store"));
+    Task task = mutation.createTask(input);
+    
+    ConnectionWithTotal<Edge<Task>> results = query.searchTasks("OAT milk", 5, null);
+    assertEquals(task.getId(), results.getEdges().get(0).getNode().getId());
+    
+    TaskInput patch = new TaskInput();
+    patch.setName(Optional.of("Buy soy milk"));
+    mutation.updateTask(task.getId(), patch);
+    assertEquals(Long.valueOf(0), query.searchTasks("oat", 5, null).getTotalCount());
+    assertEquals(task.getId(), query.searchTasks("soy", 5, null).getEdges().get(0).getNode().getId());
+    
+    mutation.deleteTask(task.getId());
+    assertEquals(Long.valueOf(0), query.searchTasks("soy", 5, null).getTotalCount());
+  }
+  
+  @Test
+  public void searchTasksPagesThroughRankedResults() {
+    for (int i = 0; i < 25; i++) {
+      TaskInput input = new TaskInput();
+      input.setName(Optional.of("laundry " + i));
+      mutation.createTask(input);
+    }
+    
+    ConnectionWithTotal<Edge<Task>> first = query.searchTasks("laundry", 20, null);
+    assertEquals(Long.valueOf(25), first.getTotalCount());
+    assertFalse(first.getPageInfo().isHasPreviousPage());
+    assertTrue(first.getPageInfo().isHasNextPage());
+    
+    ConnectionWithTotal<Edge<Task>> second =
+        query.searchTasks("laundry", 20, first.getPageInfo().getEndCursor().getValue());
+    assertEquals(5, second.getEdges().size());
+    assertFalse(second.getPageInfo().isHasNextPage());
+    assertTrue(second.getPageInfo().isHasPreviousPage());
+    assertTrue(Collections.disjoint(
+        first.getEdges().stream().map(edge -> edge.getNode().getId()).collect(Collectors.toSet()),
+        second.getEdges().stream().map(edge -> edge.getNode().getId()).collect(Collectors.toSet())));
+  }
+  
+  @Test
+  public void searchTasksOnlyFindsTheUsersTasks() {
+    // The examples are named name1 to name10000.
+    TaskInput input = new TaskInput();
+    input.setName(Optional.of("name42"));
+    Task task = mutation.createTask(input);
+    
+    ConnectionWithTotal<Edge<Task>> results = query.searchTasks("name42", 5, null);
+    assertEquals(Long.valueOf(1), results.getTotalCount());
+    assertEquals(task.getId(), results.getEdges().get(0).getNode().getId());
+    mutation.deleteTask(task.getId());
+  }
+  
+  @Test
+  public void searchTasksCursorsPastTheEndGiveAnEmptyPage() {
+    String cursor = JpaCursor.encode(
+        Collections.singletonList(new SortKey("rank", SortDirection.ASC)),
+        Collections.singletonList(Integer.MAX_VALUE));
+    ConnectionWithTotal<Edge<Task>> results = query.searchTasks("name42", 5, cursor);
+    assertTrue(results.getEdges().isEmpty());
+    assertFalse(results.getPageInfo().isHasNextPage());
+  }
+  
+  @Test
+  public void taskLoadsAreBatched() {
+    DataLoader<Long, Task> loader = dataLoaders.newRegistry().getDataLoader(DataLoaders.TASK);
+    
+    SqlCapture.clear();
+    List<CompletableFuture<Task>> tasks = LongStream.rangeClosed(1, 20)
+        .mapToObj(loader::load)
+        .collect(Collectors.toList());
+    CompletableFuture<Task> repeated = loader.load(7L);
+    CompletableFuture<Task> missing = loader.load(Long.MAX_VALUE);
+    loader.dispatchAndJoin();
+    
+    assertEquals(1, SqlCapture.statements().size());
+    assertEquals(Long.valueOf(7), tasks.get(6).join().getId());
+    assertSame(tasks.get(6).join(), repeated.join());
+    assertNull(missing.join());
+  }
+  
+  @Test
+  @SuppressWarnings("unchecked")
+  public void aliasedTaskLookupsRunOneSelect() {
+    DataLoaderRegistry registry = dataLoaders.newRegistry();
+    SqlCapture.clear();
+    ExecutionResult result = app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query("{ a: task(id: 1) { id name } b: task(id: 2) { id name } }")
+        .context(new RequestContext(new MockHttpServletRequest(), registry))
+        .build());
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    
+    Map<String, Map<String, Object>> data = result.getData();
+    assertEquals("1", String.valueOf(data.get("a").get("id")));
+    assertEquals("2", String.valueOf(data.get("b").get("id")));
+    List<String> selects = SqlCapture.statements().stream()
+        .filter(sql -> sql.startsWith("select"))
+        .collect(Collectors.toList());
+    assertEquals(selects.toString(), 1, selects.size());
+  }
+  
+  /**
+   * Run a query and return the SQL it prepared.
+   */
+  private List<String> statementsOf(String query) {
+    DataLoaderRegistry registry = dataLoaders.newRegistry();
+    SqlCapture.clear();
+    ExecutionResult result = app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query(query)
+        .context(new RequestContext(new MockHttpServletRequest(), registry))
+        .build());
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    return SqlCapture.statements();
+  }
+  
+  @Test
+  public void connectionsOnlyQueryWhatIsSelected() {
+    // The unfiltered total count comes from the count store, and there's no page to read.
+    List<String> total = this.statementsOf("{ exampleTasks(first: 5) { totalCount } }");
+    assertTrue(total.toString(), total.isEmpty());
+    
+    // A filtered total count is counted, still without the page.
+    List<String> count = this.statementsOf("{ exampleTasks(first: 5, filter: {done: false}) { totalCount } }");
+    assertEquals(count.toString(), 1, count.size());
+    assertTrue(count.toString(), count.get(0).contains("count("));
+    
+    // The page without the total count isn't counted.
+    List<String> page = this.statementsOf(
+        "{ exampleTasks(first: 5, filter: {done: false}) { edges { node { id } } } }");
+    assertEquals(page.toString(), 1, page.size());
+    assertFalse(page.toString(), page.get(0).contains("count("));
+  }
+  
+  @Test
+  public void bulkMutationsReportPerItemErrors() {
+    List<TaskInput> inputs = new ArrayList<>();
+    for (String name : Arrays.asList("bulk 1", "", "bulk 3")) {
+      TaskInput input = new TaskInput();
+      input.setName(Optional.of(name));
+      inputs.add(input);
+    }
+    List<TaskResult> created = mutation.createTasks(inputs);
+    assertEquals(3, created.size());
+    assertNull(created.get(0).getError());
+    assertNotNull(created.get(1).getError());
+    assertEquals("bulk 3", created.get(2).getTask().getName());
+    
+    TaskInput rename = new TaskInput();
+    rename.setName(Optional.of("bulk renamed"));
+    TaskInput blank = new TaskInput();
+    blank.setName(Optional.of(""));
+    List<TaskResult> updated = mutation.updateTasks(Arrays.asList(
+        update(created.get(0).getId(), rename),
+        update(created.get(2).getId(), blank),
+        update(Long.MAX_VALUE, rename)));
+    assertNull(updated.get(0).getError());
+    assertNotNull(updated.get(1).getError());
+    assertNotNull(updated.get(2).getError());
+    assertEquals("bulk renamed", query.task(created.get(0).getId()).getName());
+    assertEquals("bulk 3", query.task(created.get(2).getId()).getName());
+    
+    List<TaskResult> deleted = mutation.deleteTasks(
+        Arrays.asList(created.get(0).getId(), created.get(2).getId(), Long.MAX_VALUE));
+    assertNull(deleted.get(0).getError());
+    assertNull(deleted.get(1).getError());
+    assertNotNull(deleted.get(2).getError());
+    assertNull(query.task(created.get(0).getId()));
+  }
+  
+  @Test
+  public void bulkUpdatesRequireIds() {
+    DataLoaderRegistry registry = dataLoaders.newRegistry();
+    ExecutionResult result = app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query("mutation { updateTasks(input: {clientMutationId: \"u\", updates: [{patch: {name: \"x\"}}]})"
+            + " { result { id error } } }")
+        .context(new RequestContext(new MockHttpServletRequest(), registry))
+        .build());
+    assertEquals(result.getErrors().toString(), 1, result.getErrors().size());
+    assertTrue(result.getErrors().get(0) instanceof ValidationError);
+  }
+  
+  @Test
+  public void bulkMutationsRejectRepeatedIds() {
+    TaskInput input = new TaskInput();
+    input.setName(Optional.of("repeated"));
+    Long id = mutation.createTasks(Collections.singletonList(input)).get(0).getId();
+    
+    TaskInput first = new TaskInput();
+    first.setName(Optional.of("first"));
+    TaskInput second = new TaskInput();
+    second.setName(Optional.of("second"));
+    List<TaskResult> updated = mutation.updateTasks(Arrays.asList(update(id, first), update(id, second)));
+    assertNull(updated.get(0).getError());
+    assertTrue(updated.get(1).getError(), updated.get(1).getError().startsWith("Duplicate id"));
+    assertEquals("first", query.task(id).getName());
+    
+    List<TaskResult> deleted = mutation.deleteTasks(Arrays.asList(id, id));
+    assertNull(deleted.get(0).getError());
+    assertTrue(deleted.get(1).getError(), deleted.get(1).getError().startsWith("Duplicate id"));
+    assertNull(query.task(id));
+  }
+  
+  @Test
+  public void oversizedPagesAreRejected() {
+    try {
+      query.exampleTasks(1001, null, null, null);
+      fail("Page size over the maximum was accepted.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("1001"));
+    }
+  }
+  
+  @Test
+  public void expensiveQueriesAreRejectedBeforeExecution() {
+    GraphQL graphQL = GraphQL
+        .newGraphQL(new GraphQLSchemaGenerator().withOperationsFromSingleton(query).generate())
+        .instrumentation(new QueryCostInstrumentation(300, 5, 2, 10, 100))
+        .build();
+    
+    SqlCapture.clear();
+    assertRejected(graphQL, "{ exampleTasks(first: 101) { totalCount } }", "page size");
+    assertRejected(graphQL, "{ exampleTasks(first: 100) { edges { node { id name description } } } }", "cost");
+    assertRejected(graphQL, "{ a: task(id: 1) { id } b: task(id: 2) { id } c: task(id: 3) { id } }", "aliased");
+    assertRejected(graphQL, "{ __schema { types { fields { type { ofType { name } } } } } }", "depth");
+    assertTrue(SqlCapture.statements().isEmpty());
+    
+    ExecutionResult allowed = graphQL.execute("{ exampleTasks(first: 50) { edges { node { name } } } }");
+    assertTrue(allowed.getErrors().toString(), allowed.getErrors().isEmpty());
+  }
+  
+  @Test
+  public void operationsAndResolversAreTimed() {
+    MetricsInstrumentation metrics = new MetricsInstrumentation(true, false, 1);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    metrics.bindTo(registry);
+    GraphQL graphQL = GraphQL
+        .newGraphQL(new GraphQLSchemaGenerator().withOperationsFromSingleton(query).generate())
+        .instrumentation(metrics)
+        .build();
+    
+    graphQL.execute("query Page { exampleTasks(first: 5) { totalCount edges { node { name } } } }");
+    graphQL.execute("query Count { exampleTasks(first: 1) { totalCount } }");
+    graphQL.execute("{ exampleTasks(first: \"x\") { totalCount } }");
+    
+    assertEquals(1, registry.get("graphql.operations")
+        .tags("operation", "Page", "type", "query", "outcome", "success").timer().count());
+    // Only one operation name is tagged, so the second one is "other".
+    assertEquals(1, registry.get("graphql.operations").tags("operation", "other").timer().count());
+    assertEquals(1, registry.get("graphql.documents")
+        .tags("phase", "validate", "outcome", "error").timer().count());
+    
+    assertEquals(2, registry.get("graphql.fields")
+        .tags("parent", "Query", "field", "exampleTasks", "outcome", "success").timer().count());
+    assertEquals(2, registry.get("graphql.fields").tags("field", "totalCount").timer().count());
+    assertEquals(1, registry.get("graphql.fields").tags("field", "edges").timer().count());
+    // The edges' and nodes' fields are resolved per list item, so they aren't timed.
+    assertNull(registry.find("graphql.fields").tags("field", "node").timer());
+    assertNull(registry.find("graphql.fields").tags("field", "name").timer());
+  }
+  
+  @Test
+  @SuppressWarnings("unchecked")
+  public void sqlStatementsAreCountedPerOperation() {
+    MockHttpServletRequest request = new MockHttpServletRequest();
+    request.addHeader(SqlStatsInstrumentation.DEBUG_HEADER, "true");
+    DataLoaderRegistry registry = dataLoaders.newRegistry();
+    ExecutionResult result = app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query("query Page { exampleTasks(first: 5) {"
+            + " totalCount edges { node { id name } } pageInfo { hasNextPage hasPreviousPage } } }")
+        .context(new RequestContext(request, registry))
+        .build());
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    
+    Map<String, Object> sql = (Map<String, Object>) result.getExtensions().get("sql");
+    // The page; the total count comes from the count store.
+    assertEquals(sql.toString(), 1L, sql.get("statements"));
+    assertTrue(sql.toString(), (Long) sql.get("rows") >= 5);
+    
+    // Without the header the result has no extensions.
+    ExecutionResult plain = app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query("{ exampleTasks(first: 5) { totalCount } }")
+        .context(new RequestContext(new MockHttpServletRequest(), registry))
+        .build());
+    assertNull(plain.getExtensions());
+  }
+  
+  @Test
+  public void repeatedStatementsFailTheOperation() {
+    GraphQL graphQL = GraphQL
+        .newGraphQL(new GraphQLSchemaGenerator().withOperationsFromSingleton(query).generate())
+        .instrumentation(new SqlStatsInstrumentation(true, 20, 3, true))
+        .build();
+    
+    ExecutionResult allowed = graphQL.execute("{ a: exampleTasks(first: 1) { edges { node { id } } }"
+        + " b: exampleTasks(first: 1) { edges { node { id } } } }");
+    assertTrue(allowed.getErrors().toString(), allowed.getErrors().isEmpty());
+    
+    ExecutionResult repeated = graphQL.execute("query Repeated { a: exampleTasks(first: 1) { edges { node { id } } }"
+        + " b: exampleTasks(first: 1) { edges { node { id } } }"
+        + " c: exampleTasks(first: 1) { edges { node { id } } } }");
+    assertEquals(1, repeated.getErrors().size());
+    assertTrue(repeated.getErrors().get(0).getMessage(),
+        repeated.getErrors().get(0).getMessage().contains("Repeated ran the same SQL statement 3 times"));
+  }
+  
+  @Test
+  public void sqlStatsAreExitedOnTheThreadThatEnteredThem() {
+    CompletableFuture<Object> later = new CompletableFuture<>();
+    GraphQLSchema schema = new SchemaGenerator().makeExecutableSchema(
+        new SchemaParser().parse("type Query { later: String }"),
+        RuntimeWiring.newRuntimeWiring().type("Query", type -> type.dataFetcher("later", env -> later)).build());
+    GraphQL graphQL = GraphQL.newGraphQL(schema)
+        .instrumentation(new SqlStatsInstrumentation(true, 20, 10, false))
+        .build();
+    
+    CompletableFuture<ExecutionResult> result = graphQL.executeAsync(ExecutionInput.newExecutionInput()
+        .query("{ later }")
+        .build());
+    assertNull(SqlStats.current());
+    
+    // Completed on another thread.
+    CompletableFuture.runAsync(() -> later.complete("done")).join();
+    assertEquals("done", ((Map<?, ?>) result.join().getData()).get("later"));
+    assertNull(SqlStats.current());
+  }
+  
+  @Test
+  public void inMemoryStorePagesLikeJpa() {
+    // Tasks with shared names, missing and equal due dates, some overdue and some done.
+    long now = System.currentTimeMillis();
+    List<TaskInput> inputs = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      TaskInput input = new TaskInput();
+      input.setName(Optional.of("parity " + (i % 7)));
+      input.setDueDate(Optional.ofNullable(i % 3 == 0 ? null : new Date(now + (i % 5 - 2) * 86400000L)));
+      input.setDone(Optional.of(i % 2 == 0));
+      inputs.add(input);
+    }
+    List<Long> ids = mutation.createTasks(inputs).stream().map(TaskResult::getId).collect(Collectors.toList());
+    
+    InMemoryTaskStore memory = new InMemoryTaskStore(validator);
+    taskStore.forEach(memory::restore);
+    
+    TaskFilter done = new TaskFilter();
+    done.setDone(true);
+    TaskFilter notOverdue = new TaskFilter();
+    notOverdue.setOverdue(false);
+    TaskFilter namePrefix = new TaskFilter();
+    namePrefix.setNamePrefix("parity 1");
+    List<List<SortKey>> sorts = new ArrayList<>();
+    sorts.add(Collections.emptyList());
+    for (TaskOrderField field : TaskOrderField.values()) {
+      for (SortDirection direction : SortDirection.values()) {
+        sorts.add(Collections.singletonList(new TaskOrder(field, direction).toSortKey()));
+      }
+    }
+    
+    try {
+      for (String scope : Arrays.asList(TaskCountStore.MY_TASKS, TaskCountStore.EXAMPLE_TASKS)) {
+        for (TaskFilter filter : Arrays.asList(null, done, notOverdue, namePrefix)) {
+          for (List<SortKey> sort : sorts) {
+            String name = scope + " " + filter + " " + sort;
+            ConnectionArgs first = ConnectionArgs.builder().first(5).build();
+            ConnectionArgs last = ConnectionArgs.builder().last(5).build();
+            ConnectionCursor endCursor = this.assertSamePage(name, memory, scope, filter, sort, first)
+                .getPageInfo().getEndCursor();
+            ConnectionCursor startCursor = this.assertSamePage(name, memory, scope, filter, sort, last)
+                .getPageInfo().getStartCursor();
+            if (endCursor != null) {
+              this.assertSamePage(name, memory, scope, filter, sort,
+                  ConnectionArgs.builder().first(5).after(endCursor.getValue()).build());
+              this.assertSamePage(name, memory, scope, filter, sort,
+                  ConnectionArgs.builder().last(5).before(startCursor.getValue()).build());
+            }
+          }
+        }
+      }
+    } finally {
+      mutation.deleteTasks(ids);
+    }
+  }
+  
+  private static void assertRejected(GraphQL graphQL, String query, String reason) {
+    ExecutionResult result = graphQL.execute(query);
+    assertNull(result.getData());
+    assertEquals(1, result.getErrors().size());
+    assertTrue(result.getErrors().get(0).getMessage(), result.getErrors().get(0).getMessage().contains(reason));
+  }
+  
+  private static TaskUpdate update(Long id, TaskInput patch) {
+    TaskUpdate update = new TaskUpdate();
+    update.setId(id);
+    update.setPatch(patch);
+    return update;
+  }
+  
+  /**
+   * Check that a page of the in-memory store matches the same page of the JPA store.
+   * 
+   * @return The JPA store's page
+   */
+  private ConnectionWithTotal<Edge<Task>> assertSamePage(
+      String name, InMemoryTaskStore memory, String scope, TaskFilter filter, List<SortKey> sort, ConnectionArgs args
+      ) {
+    ConnectionWithTotal<Edge<Task>> expected = taskStore.connection(scope, args, filter, sort, null, 1000);
+    ConnectionWithTotal<Edge<Task>> actual = memory.connection(scope, args, filter, sort, null, 1000);
+    assertEquals(name + " " + args, describe(expected), describe(actual));
+    return expected;
+  }
+  
+  private static String describe(ConnectionWithTotal<Edge<Task>> connection) {
+    return connection.getEdges().stream()
+        .map(edge -> edge.getNode().getId() + "@" + edge.getCursor().getValue())
+        .collect(Collectors.joining(", "))
+        + " previous=" + connection.getPageInfo().isHasPreviousPage()
+        + " next=" + connection.getPageInfo().isHasNextPage()
+        + " total=" + connection.getTotalCount();
+  }
+  
 }
@@ -0,0 +1,84 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import ca.poffm.graphql.todo.cache.BoundedCache;
+
+/**
+ * Bounded LRU cache test.
+ */
+public class BoundedCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsedByWeight() {
+    BoundedCache<String, String> cache = new BoundedCache<>(10, (key, value) -> value.length());
+    cache.put("a", "aaaa");
+    cache.put("b", "bbbb");
+
+    // Touch "a" so "b" becomes the eldest entry.
+    assertEquals("aaaa", cache.get("a"));
+    cache.put("c", "cccc");
+
+    assertNull(cache.get("b"));
+    assertEquals("aaaa", cache.get("a"));
+    assertEquals("cccc", cache.get("c"));
+    assertEquals(8, cache.weight());
+    assertEquals(1, cache.evictionCount());
+  }
+
+  @Test
+  public void countsHitsAndMisses() {
+    BoundedCache<String, String> cache = new BoundedCache<>(10);
+    assertEquals("value", cache.get("key", key -> "value"));
+    assertEquals("value", cache.get("key", key -> "other"));
+
+    assertEquals(1, cache.missCount());
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.putCount());
+  }
+
+  @Test
+  public void skipsEntriesHeavierThanTheBound() {
+    BoundedCache<String, String> cache = new BoundedCache<>(3, (key, value) -> value.length());
+    cache.put("a", "aaaa");
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get("a"));
+  }
+
+  @Test
+  public void expiresEntriesAfterTtl() {
+    AtomicLong now = new AtomicLong();
+    BoundedCache<String, String> cache =
+        new BoundedCache<>(10, (key, value) -> 1, Duration.ofNanos(100), now::get);
+    cache.put("a", "aaaa");
+
+    now.set(99);
+    assertEquals("aaaa", cache.get("a"));
+    now.set(100);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.evictionCount());
+  }
+
+  @Test
+  public void invalidatesMatchingKeys() {
+    BoundedCache<String, String> cache = new BoundedCache<>(10, (key, value) -> value.length());
+    cache.put("a:1", "aa");
+    cache.put("a:2", "aa");
+    cache.put("b:1", "bbb");
+
+    cache.invalidateIf(key -> key.startsWith("a:"));
+
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.weight());
+    assertEquals("bbb", cache.get("b:1"));
+  }
+
+}
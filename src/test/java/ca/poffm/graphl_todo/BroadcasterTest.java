@@ -0,0 +1,155 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import ca.poffm.graphql.todo.subscription.Broadcaster;
+import ca.poffm.graphql.todo.subscription.Broadcaster.OverflowPolicy;
+
+/**
+ * Broadcaster fan-out and overflow test. Items are delivered on the calling thread, so
+ * each subscriber's received items can be checked right after publishing.
+ */
+public class BroadcasterTest {
+
+  private static final Executor CALLER = Runnable::run;
+
+  /**
+   * Records items, requesting them only when asked to.
+   */
+  private static class Recorder implements Subscriber<String> {
+    private final List<String> items = new ArrayList<>();
+    private Subscription subscription;
+    private boolean completed = false;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(String item) {
+      this.items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable error) {
+      throw new AssertionError(error);
+    }
+
+    @Override
+    public void onComplete() {
+      this.completed = true;
+    }
+  }
+
+  @Test
+  public void slowSubscriberDoesNotHoldBackOthers() {
+    Broadcaster<String> broadcaster = new Broadcaster<>(2, OverflowPolicy.DROP_OLDEST, item -> item, CALLER);
+    Recorder fast = new Recorder();
+    Recorder slow = new Recorder();
+    broadcaster.subscribe(fast);
+    broadcaster.subscribe(slow);
+    fast.subscription.request(Long.MAX_VALUE);
+
+    Arrays.asList("a", "b", "c", "d").forEach(broadcaster::publish);
+    assertEquals(Arrays.asList("a", "b", "c", "d"), fast.items);
+    assertTrue(slow.items.isEmpty());
+
+    // The slow subscriber's buffer only kept the newest items.
+    slow.subscription.request(10);
+    assertEquals(Arrays.asList("c", "d"), slow.items);
+    assertEquals(2, broadcaster.droppedCount());
+  }
+
+  @Test
+  public void dropLatestKeepsBufferedItems() {
+    Broadcaster<String> broadcaster = new Broadcaster<>(2, OverflowPolicy.DROP_LATEST, item -> item, CALLER);
+    Recorder subscriber = new Recorder();
+    broadcaster.subscribe(subscriber);
+
+    Arrays.asList("a", "b", "c").forEach(broadcaster::publish);
+    subscriber.subscription.request(10);
+    assertEquals(Arrays.asList("a", "b"), subscriber.items);
+  }
+
+  @Test
+  public void coalescesItemsWithTheSameKeyWhenFull() {
+    Broadcaster<String> broadcaster =
+        new Broadcaster<>(2, OverflowPolicy.COALESCE, item -> item.charAt(0), CALLER);
+    Recorder subscriber = new Recorder();
+    broadcaster.subscribe(subscriber);
+
+    // a2 and a3 replace a1 in place, and c1 has no key to replace so a3 is dropped.
+    Arrays.asList("a1", "b1", "a2", "a3", "c1").forEach(broadcaster::publish);
+    subscriber.subscription.request(10);
+    assertEquals(Arrays.asList("b1", "c1"), subscriber.items);
+    assertEquals(3, broadcaster.droppedCount());
+  }
+
+  @Test
+  public void doesNotCoalesceBeforeTheBufferIsFull() {
+    Broadcaster<String> broadcaster =
+        new Broadcaster<>(10, OverflowPolicy.COALESCE, item -> item.charAt(0), CALLER);
+    Recorder subscriber = new Recorder();
+    broadcaster.subscribe(subscriber);
+
+    Arrays.asList("a1", "b1", "a2").forEach(broadcaster::publish);
+    subscriber.subscription.request(10);
+    assertEquals(Arrays.asList("a1", "b1", "a2"), subscriber.items);
+    assertEquals(0, broadcaster.droppedCount());
+  }
+
+  @Test
+  public void nonPositiveRequestIsSignalledByTheDrainLoop() {
+    List<Runnable> drains = new ArrayList<>();
+    Broadcaster<String> broadcaster = new Broadcaster<>(10, OverflowPolicy.DROP_OLDEST, item -> item, drains::add);
+    List<Throwable> errors = new ArrayList<>();
+    Recorder subscriber = new Recorder() {
+      @Override
+      public void onError(Throwable error) {
+        errors.add(error);
+      }
+    };
+    broadcaster.subscribe(subscriber);
+
+    subscriber.subscription.request(0);
+    assertTrue(errors.isEmpty());
+    assertEquals(1, drains.size());
+    drains.get(0).run();
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0) instanceof IllegalArgumentException);
+    assertEquals(0, broadcaster.subscriberCount());
+  }
+
+  @Test
+  public void completesAfterBufferedItemsAndStopsOnCancel() {
+    Broadcaster<String> broadcaster = new Broadcaster<>(10, OverflowPolicy.DROP_OLDEST, item -> item, CALLER);
+    Recorder completing = new Recorder();
+    Recorder cancelling = new Recorder();
+    broadcaster.subscribe(completing);
+    broadcaster.subscribe(cancelling);
+
+    broadcaster.publish("a");
+    cancelling.subscription.cancel();
+    assertEquals(1, broadcaster.subscriberCount());
+
+    broadcaster.complete();
+    assertTrue(!completing.completed);
+    completing.subscription.request(1);
+    assertEquals(Arrays.asList("a"), completing.items);
+    assertTrue(completing.completed);
+    assertTrue(cancelling.items.isEmpty());
+    assertEquals(0, broadcaster.subscriberCount());
+  }
+
+}
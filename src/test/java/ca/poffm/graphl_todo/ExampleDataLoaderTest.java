@@ -0,0 +1,83 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.validation.Validation;
+
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import ca.poffm.graphql.todo.ExampleDataLoader;
+import ca.poffm.graphql.todo.service.InMemoryTaskStore;
+
+/**
+ * Loading the example tasks in batches, in the foreground or the background.
+ */
+public class ExampleDataLoaderTest {
+
+  /**
+   * Runs transactions without a database, failing once a number have committed.
+   */
+  private static class FailingTransactionManager implements PlatformTransactionManager {
+    private int commitsLeft;
+
+    FailingTransactionManager(int commits) {
+      this.commitsLeft = commits;
+    }
+
+    @Override
+    public TransactionStatus getTransaction(TransactionDefinition definition) {
+      if (this.commitsLeft-- <= 0) {
+        throw new IllegalStateException("No more transactions");
+      }
+      return new SimpleTransactionStatus();
+    }
+
+    @Override
+    public void commit(TransactionStatus status) {
+    }
+
+    @Override
+    public void rollback(TransactionStatus status) {
+    }
+  }
+
+  private static InMemoryTaskStore store() {
+    InMemoryTaskStore store = new InMemoryTaskStore(
+        Validation.buildDefaultValidatorFactory().getValidator(), Optional.empty());
+    store.recover();
+    return store;
+  }
+
+  @Test
+  public void nonPositiveBatchSizeIsRejected() {
+    try {
+      new ExampleDataLoader(store(), new FailingTransactionManager(0), event -> { }, 10, 0, false);
+      fail("A batch size of 0 was accepted.");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("batch-size"));
+    }
+  }
+
+  @Test
+  public void failedBackgroundLoadStillPublishesLoadedEvent() throws Exception {
+    InMemoryTaskStore store = store();
+    BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    // The second of three batches fails.
+    new ExampleDataLoader(store, new FailingTransactionManager(1), events::add, 15, 5, true).run(null);
+
+    assertTrue(events.poll(10, TimeUnit.SECONDS) instanceof ExampleDataLoader.LoadedEvent);
+    assertEquals(5, store.size());
+  }
+
+}
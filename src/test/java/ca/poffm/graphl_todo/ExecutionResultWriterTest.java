@@ -0,0 +1,67 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.poffm.graphql.todo.execution.ExecutionResultWriter;
+import ca.poffm.graphql.todo.execution.PersistedQueryException;
+import graphql.ExecutionResult;
+import graphql.ExecutionResultImpl;
+
+/**
+ * Streaming response writer test.
+ */
+public class ExecutionResultWriterTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  private void assertWritesSpecification(ExecutionResult result) throws IOException {
+    StringWriter out = new StringWriter();
+    try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(out)) {
+      ExecutionResultWriter.write(generator, result);
+    }
+    assertEquals(
+        this.objectMapper.readTree(this.objectMapper.writeValueAsString(result.toSpecification())),
+        this.objectMapper.readTree(out.toString())
+        );
+  }
+
+  @Test
+  public void matchesSpecificationMap() throws IOException {
+    Map<String, Object> node = new LinkedHashMap<>();
+    node.put("id", 1L);
+    node.put("name", "name \"1\"");
+    node.put("done", false);
+    node.put("dueDate", null);
+    Map<String, Object> data = Collections.singletonMap(
+        "exampleTasks", Collections.singletonMap("edges", Arrays.asList(
+            Collections.singletonMap("node", node), 2.5, Collections.emptyList()
+            )));
+
+    ExecutionResult result = new ExecutionResultImpl(
+        data,
+        Collections.singletonList(PersistedQueryException.notFound()),
+        Collections.singletonMap("cost", 3)
+        );
+
+    this.assertWritesSpecification(result);
+  }
+
+  @Test
+  public void omitsMissingData() throws IOException {
+    ExecutionResult result = new ExecutionResultImpl(PersistedQueryException.notFound());
+    this.assertWritesSpecification(result);
+  }
+
+}
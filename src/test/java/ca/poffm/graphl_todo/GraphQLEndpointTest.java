@@ -0,0 +1,176 @@
+package ca.poffm.graphl_todo;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockAsyncContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import ca.poffm.graphql.todo.App;
+
+/**
+ * POST /graphql: single and batched operations, run asynchronously on the GraphQL
+ * executor.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+    classes = App.class,
+    properties = {
+        "todo.graphql.max-batch-size=3",
+        // Small enough for the tests to fill.
+        "todo.graphql.executor.threads=1",
+        "todo.graphql.executor.queue-capacity=2" })
+@AutoConfigureMockMvc
+public class GraphQLEndpointTest {
+
+  private static final String PAGE = "query Page($first: Int) { exampleTasks(first: $first) { edges { node { id } } } }";
+
+  @Autowired private MockMvc mvc;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired @Qualifier("graphQLExecutor") private ExecutorService executor;
+
+  private ObjectNode operation(String query, int first) {
+    ObjectNode operation = this.objectMapper.createObjectNode().put("query", query);
+    operation.putObject("variables").put("first", first);
+    return operation;
+  }
+
+  /**
+   * Start a request, which must go async.
+   */
+  private MvcResult start(Object body) throws Exception {
+    return this.mvc.perform(post("/graphql")
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .content(this.objectMapper.writeValueAsString(body)))
+        .andExpect(request().asyncStarted())
+        .andReturn();
+  }
+
+  /**
+   * Occupy the executor's thread, and some of its queue, with tasks that wait for the
+   * latch.
+   *
+   * @return Counts down as the tasks finish.
+   */
+  private CountDownLatch block(CountDownLatch release, int queued) throws InterruptedException {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch finished = new CountDownLatch(1 + queued);
+    this.executor.execute(() -> {
+      running.countDown();
+      await(release);
+      finished.countDown();
+    });
+    running.await();
+    for (int i = 0; i < queued; i++) {
+      this.executor.execute(() -> {
+        await(release);
+        finished.countDown();
+      });
+    }
+    return finished;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private ResultActions finish(MvcResult started) throws Exception {
+    return this.mvc.perform(asyncDispatch(started));
+  }
+
+  @Test
+  public void variablesAreBound() throws Exception {
+    this.finish(this.start(this.operation(PAGE, 2)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.errors").doesNotExist())
+        .andExpect(jsonPath("$.data.exampleTasks.edges.length()").value(2));
+  }
+
+  @Test
+  public void batchedOperationsReturnAnArrayOfResults() throws Exception {
+    ArrayNode batch = this.objectMapper.createArrayNode()
+        .add(this.operation(PAGE, 1))
+        .add(this.operation(PAGE, 3));
+    this.finish(this.start(batch))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(2))
+        .andExpect(jsonPath("$[0].data.exampleTasks.edges.length()").value(1))
+        .andExpect(jsonPath("$[1].data.exampleTasks.edges.length()").value(3));
+  }
+
+  @Test
+  public void oversizedBatchesAreRejected() throws Exception {
+    ArrayNode batch = this.objectMapper.createArrayNode();
+    for (int i = 0; i < 4; i++) {
+      batch.add(this.operation(PAGE, 1));
+    }
+    this.mvc.perform(post("/graphql")
+        .contentType(MediaType.APPLICATION_JSON_UTF8)
+        .content(this.objectMapper.writeValueAsString(batch)))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void timedOutRequestsAreUnavailable() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      // The operation is queued behind a busy thread.
+      this.block(release, 0);
+      MvcResult started = this.start(this.operation(PAGE, 1));
+
+      // MockMvc has no timer, so time the request out as the container would.
+      MockAsyncContext context = (MockAsyncContext) started.getRequest().getAsyncContext();
+      for (AsyncListener listener : context.getListeners()) {
+        listener.onTimeout(new AsyncEvent(context));
+      }
+      this.finish(started).andExpect(status().isServiceUnavailable());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void requestsOverTheExecutorQueueAreUnavailable() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch finished;
+    try {
+      // One running and the queue full.
+      finished = this.block(release, 2);
+      this.finish(this.start(this.operation(PAGE, 1))).andExpect(status().isServiceUnavailable());
+    } finally {
+      release.countDown();
+    }
+
+    // Served again once the queue drains.
+    finished.await();
+    this.finish(this.start(this.operation(PAGE, 1))).andExpect(status().isOk());
+  }
+
+}
@@ -0,0 +1,311 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import ca.poffm.graphql.todo.App;
+import ca.poffm.graphql.todo.execution.GraphQLWebSocketHandler;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.service.TaskChangePublisher;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The graphql-ws protocol at /subscriptions, against the running server.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class, webEnvironment = WebEnvironment.RANDOM_PORT, properties = {
+    // One delivery thread, so a client holding it would hold back every other client.
+    "todo.subscriptions.threads=1",
+    "todo.subscriptions.send-time-limit=2000"
+})
+public class GraphQLWebSocketTest {
+
+  private static final String TASK_CHANGED =
+      "subscription { taskChanged { type id task { name } } }";
+
+  @LocalServerPort private int port;
+  @Autowired private TestRestTemplate http;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MeterRegistry registry;
+  @Autowired private TaskChangePublisher publisher;
+
+  private final BlockingQueue<JsonNode> received = new LinkedBlockingQueue<>();
+  private WebSocketSession session;
+
+  @Before
+  public void connect() throws Exception {
+    WebSocketHttpHeaders headers = new WebSocketHttpHeaders();
+    headers.setSecWebSocketProtocol(GraphQLWebSocketHandler.PROTOCOL);
+    this.session = new StandardWebSocketClient()
+        .doHandshake(new TextWebSocketHandler() {
+          @Override
+          protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            GraphQLWebSocketTest.this.received.add(GraphQLWebSocketTest.this.objectMapper.readTree(message.getPayload()));
+          }
+        }, headers, URI.create("ws://localhost:" + this.port + "/subscriptions"))
+        .get(10, TimeUnit.SECONDS);
+    this.send("connection_init", null, null);
+    assertEquals("connection_ack", this.receive().path("type").asText());
+  }
+
+  @After
+  public void disconnect() throws Exception {
+    this.session.close();
+  }
+
+  private void send(String type, String id, String query) throws Exception {
+    ObjectNode message = this.objectMapper.createObjectNode().put("type", type);
+    if (id != null) {
+      message.put("id", id);
+    }
+    if (query != null) {
+      message.putObject("payload").put("query", query);
+    }
+    this.session.sendMessage(new TextMessage(this.objectMapper.writeValueAsString(message)));
+  }
+
+  private JsonNode receive() throws InterruptedException {
+    JsonNode message = this.received.poll(10, TimeUnit.SECONDS);
+    assertNotNull("No message received", message);
+    return message;
+  }
+
+  private double subscribers() {
+    return this.registry.get("graphql.subscriptions").tag("subscription", "taskChanged").gauge().value();
+  }
+
+  private void awaitSubscribers(double count) throws InterruptedException {
+    for (int i = 0; i < 100 && this.subscribers() != count; i++) {
+      Thread.sleep(50);
+    }
+    assertEquals(count, this.subscribers(), 0);
+  }
+
+  private void createTask(String name) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+    String body = this.objectMapper.createObjectNode()
+        .put("query", "mutation { createTask(input: {clientMutationId: \"ws\", task: {name: \"" + name + "\"}})"
+            + " { result { id } } }")
+        .toString();
+    assertTrue(this.http.postForEntity("/graphql", new HttpEntity<>(body, headers), String.class)
+        .getStatusCode().is2xxSuccessful());
+  }
+
+  /**
+   * Open a raw WebSocket that starts a subscription and then never reads, so the
+   * server's writes to it stall once the socket buffers fill.
+   */
+  private Socket stalledClient(String query) throws IOException {
+    Socket socket = new Socket();
+    socket.setReceiveBufferSize(1024);
+    socket.connect(new InetSocketAddress("localhost", this.port));
+    OutputStream out = socket.getOutputStream();
+    out.write(("GET /subscriptions HTTP/1.1\r\n"
+        + "Host: localhost:" + this.port + "\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+        + "Sec-WebSocket-Version: 13\r\n"
+        + "Sec-WebSocket-Protocol: " + GraphQLWebSocketHandler.PROTOCOL + "\r\n"
+        + "\r\n").getBytes(StandardCharsets.US_ASCII));
+
+    // Read the handshake response, and nothing after it.
+    InputStream in = socket.getInputStream();
+    StringBuilder response = new StringBuilder();
+    while (response.indexOf("\r\n\r\n") < 0) {
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException(response.toString());
+      }
+      response.append((char) b);
+    }
+    assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 101"));
+
+    writeFrame(out, "{\"type\":\"connection_init\"}");
+    ObjectNode start = this.objectMapper.createObjectNode().put("type", "start").put("id", "1");
+    start.putObject("payload").put("query", query);
+    writeFrame(out, this.objectMapper.writeValueAsString(start));
+    return socket;
+  }
+
+  /** Write a masked text frame, with an all-zero mask so the payload is unchanged. */
+  private static void writeFrame(OutputStream out, String text) throws IOException {
+    byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+    out.write(0x81);
+    if (payload.length < 126) {
+      out.write(0x80 | payload.length);
+    } else {
+      out.write(0x80 | 126);
+      out.write(payload.length >> 8);
+      out.write(payload.length & 0xff);
+    }
+    out.write(new byte[4]);
+    out.write(payload);
+    out.flush();
+  }
+
+  @Test
+  public void subscriptionSendsCommittedChangesUntilStopped() throws Exception {
+    this.send("start", "1", TASK_CHANGED);
+    this.awaitSubscribers(1);
+
+    this.createTask("over the socket");
+    JsonNode data = this.receive();
+    assertEquals("data", data.path("type").asText());
+    assertEquals("1", data.path("id").asText());
+    JsonNode change = data.path("payload").path("data").path("taskChanged");
+    assertEquals("CREATED", change.path("type").asText());
+    assertEquals("over the socket", change.path("task").path("name").asText());
+
+    this.send("stop", "1", null);
+    JsonNode complete = this.receive();
+    assertEquals("complete", complete.path("type").asText());
+    assertEquals("1", complete.path("id").asText());
+    this.awaitSubscribers(0);
+
+    // Nothing more is sent for the stopped subscription.
+    this.createTask("after stop");
+    assertNull(this.received.poll(500, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void stopBeforeTheSubscriptionStartsCancelsIt() throws Exception {
+    this.send("start", "1", TASK_CHANGED);
+    this.send("stop", "1", null);
+    JsonNode complete = this.receive();
+    assertEquals("complete", complete.path("type").asText());
+
+    // The id is free again, and the stopped subscription never took a subscriber.
+    Thread.sleep(200);
+    this.awaitSubscribers(0);
+    this.send("start", "1", TASK_CHANGED);
+    this.awaitSubscribers(1);
+  }
+
+  @Test
+  public void duplicateIdIsRejected() throws Exception {
+    this.send("start", "1", TASK_CHANGED);
+    this.send("start", "1", TASK_CHANGED);
+    JsonNode error = this.receive();
+    assertEquals("error", error.path("type").asText());
+    assertEquals("1", error.path("id").asText());
+    this.awaitSubscribers(1);
+  }
+
+  @Test
+  public void subscriptionOverHttpIsRejected() {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+    String body = this.objectMapper.createObjectNode().put("query", TASK_CHANGED).toString();
+    assertEquals(HttpStatus.BAD_REQUEST,
+        this.http.postForEntity("/graphql", new HttpEntity<>(body, headers), String.class).getStatusCode());
+
+    // Also within a batch.
+    String batch = "[" + this.objectMapper.createObjectNode().put("query", "{ myTasks(first: 1) { totalCount } }")
+        + "," + body + "]";
+    assertEquals(HttpStatus.BAD_REQUEST,
+        this.http.postForEntity("/graphql", new HttpEntity<>(batch, headers), String.class).getStatusCode());
+  }
+
+  @Test
+  public void queryCompletesAfterItsResult() throws Exception {
+    this.send("start", "q", "{ myTasks(first: 1) { totalCount } }");
+    JsonNode data = this.receive();
+    assertEquals("data", data.path("type").asText());
+    assertTrue(data.path("payload").path("data").path("myTasks").has("totalCount"));
+    JsonNode complete = this.receive();
+    assertEquals("complete", complete.path("type").asText());
+    assertEquals("q", complete.path("id").asText());
+  }
+
+  @Test
+  public void stalledClientsDoNotHoldBackOthers() throws Exception {
+    this.send("start", "1", TASK_CHANGED);
+    List<Socket> stalled = new ArrayList<>();
+    try {
+      // More stalled clients than delivery threads.
+      for (int i = 0; i < 3; i++) {
+        stalled.add(this.stalledClient("subscription { taskChanged { task { description } } }"));
+      }
+      this.awaitSubscribers(4);
+
+      // Changes big enough to fill the stalled clients' socket buffers.
+      char[] description = new char[64 * 1024];
+      Arrays.fill(description, 'x');
+      for (int i = 0; i < 300; i++) {
+        Task task = new Task();
+        task.setId((long) -i);
+        task.setName(i == 299 ? "last" : "big " + i);
+        task.setDescription(new String(description));
+        this.publisher.updated(task);
+      }
+
+      // This client still gets every change, without waiting on the stalled ones.
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      String name = null;
+      while (!"last".equals(name)) {
+        JsonNode data = this.received.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        assertNotNull("The last change wasn't delivered while other clients were stalled", data);
+        name = data.path("payload").path("data").path("taskChanged").path("task").path("name").asText();
+      }
+    } finally {
+      for (Socket socket : stalled) {
+        socket.close();
+      }
+    }
+    // The stalled sessions close when a write to them fails or times out. One that isn't
+    // writing only finds out with a later message, and the first write after the reset
+    // can still succeed, so keep sending until they're gone.
+    for (int i = 0; i < 100 && this.subscribers() != 1; i++) {
+      Task task = new Task();
+      task.setId(-300L - i);
+      task.setName("after");
+      this.publisher.updated(task);
+      Thread.sleep(100);
+    }
+    assertEquals(1, this.subscribers(), 0);
+  }
+
+}
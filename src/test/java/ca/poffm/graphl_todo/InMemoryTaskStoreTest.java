@@ -0,0 +1,126 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.validation.ConstraintViolationException;
+import javax.validation.Validation;
+
+import org.junit.Test;
+
+import ca.poffm.graphql.todo.input.TaskFilter;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.paging.ConnectionArgs;
+import ca.poffm.graphql.todo.paging.ConnectionWithTotal;
+import ca.poffm.graphql.todo.service.InMemoryTaskStore;
+import ca.poffm.graphql.todo.service.TaskCountStore;
+import graphql.relay.Edge;
+
+/**
+ * In-memory task store test. Its pages are compared with the JPA store's in AppTest.
+ */
+public class InMemoryTaskStoreTest {
+
+  private final InMemoryTaskStore store =
+      new InMemoryTaskStore(Validation.buildDefaultValidatorFactory().getValidator());
+
+  private Task create(String name) {
+    Task task = new Task();
+    task.setName(name);
+    this.store.create(task);
+    return task;
+  }
+
+  private ConnectionWithTotal<Edge<Task>> myTasks(TaskFilter filter) {
+    return this.store.connection(
+        TaskCountStore.MY_TASKS, ConnectionArgs.builder().first(10).build(), filter,
+        Collections.emptyList(), null, 100);
+  }
+
+  private static List<String> names(ConnectionWithTotal<Edge<Task>> connection) {
+    return connection.getEdges().stream().map(edge -> edge.getNode().getName()).collect(Collectors.toList());
+  }
+
+  @Test
+  public void updatesMoveTasksBetweenIndexes() {
+    Task first = this.create("first");
+    this.create("second");
+    assertNotNull(first.getId());
+    assertNotNull(first.getCreated());
+
+    Task update = this.store.findForUpdate(Collections.singletonList(first.getId())).get(first.getId());
+    update.setDone(true);
+    // Changes aren't seen until they're saved.
+    assertFalse(this.store.find(first.getId()).getDone());
+    this.store.update(update);
+
+    TaskFilter done = new TaskFilter();
+    done.setDone(true);
+    TaskFilter notDone = new TaskFilter();
+    notDone.setDone(false);
+    assertEquals(Collections.singletonList("first"), names(this.myTasks(done)));
+    assertEquals(Collections.singletonList("second"), names(this.myTasks(notDone)));
+    assertEquals(Long.valueOf(2), this.myTasks(null).getTotalCount());
+    assertEquals(Long.valueOf(1), this.myTasks(done).getTotalCount());
+    assertNotSame(update, this.store.find(first.getId()));
+  }
+
+  @Test
+  public void deletedTasksAreNotFoundOrCounted() {
+    Task task = this.create("deleted");
+    this.store.delete(task);
+
+    assertNull(this.store.find(task.getId()));
+    assertTrue(this.myTasks(null).getEdges().isEmpty());
+    assertEquals(Long.valueOf(0), this.myTasks(null).getTotalCount());
+    assertEquals(0, this.store.size());
+  }
+
+  @Test
+  public void invalidTasksAreRejected() {
+    try {
+      this.create("");
+      fail("A task with a blank name was created.");
+    } catch (ConstraintViolationException e) {
+      assertEquals(0, this.store.size());
+    }
+  }
+
+  @Test
+  public void restoredTasksKeepTheirIds() {
+    Task task = new Task();
+    task.setId(41L);
+    task.setName("restored");
+    this.store.restore(task);
+
+    assertEquals("restored", this.store.find(41L).getName());
+    assertEquals(Long.valueOf(42), this.create("next").getId());
+  }
+
+  @Test
+  public void readTasksAreCopies() {
+    Task task = this.create("stored");
+    long created = task.getCreated().getTime();
+
+    Task found = this.store.find(task.getId());
+    found.setName("changed");
+    found.getCreated().setTime(0);
+    this.store.findAll(Collections.singletonList(task.getId())).get(0).setName("changed");
+    this.myTasks(null).getEdges().get(0).getNode().setName("changed");
+    task.getCreated().setTime(0);
+
+    Task stored = this.store.find(task.getId());
+    assertEquals("stored", stored.getName());
+    assertEquals(created, stored.getCreated().getTime());
+  }
+
+}
@@ -0,0 +1,91 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Optional;
+
+import org.junit.Test;
+
+import ca.poffm.graphql.todo.input.InputConverter;
+import ca.poffm.graphql.todo.input.TaskInput;
+import ca.poffm.graphql.todo.model.Task;
+import lombok.Data;
+
+/**
+ * Input converter test.
+ */
+public class InputConverterTest {
+
+  @Data
+  public static class MismatchedInput {
+    private Optional<Integer> name = Optional.empty();
+  }
+
+  @Data
+  public static class UnknownPropertyInput {
+    private Optional<String> color = Optional.empty();
+  }
+
+  @Data
+  public static class CountInput {
+    private Optional<Integer> count = Optional.empty();
+  }
+
+  @Data
+  public static class Counter {
+    private int count = 1;
+  }
+
+  private final InputConverter converter = new InputConverter();
+
+  @Test
+  public void patchAppliesPresentAndNullValuesOnly() {
+    Task task = new Task();
+    task.setName("name");
+    task.setDescription("description");
+
+    TaskInput patch = new TaskInput();
+    patch.setName(Optional.of("renamed"));
+    patch.setDescription(null);
+    converter.patch(patch, task);
+
+    assertEquals("renamed", task.getName());
+    assertNull(task.getDescription());
+    // Optional.empty() leaves the value alone.
+    assertEquals(Boolean.FALSE, task.getDone());
+  }
+
+  @Test
+  public void convertCreatesTarget() {
+    TaskInput input = new TaskInput();
+    input.setDone(Optional.of(true));
+
+    Task task = converter.convert(input, Task.class);
+    assertEquals(Boolean.TRUE, task.getDone());
+  }
+
+  @Test
+  public void nullIsNotAppliedToPrimitives() {
+    Counter counter = new Counter();
+    CountInput patch = new CountInput();
+    patch.setCount(null);
+    converter.patch(patch, counter);
+    assertEquals(1, counter.getCount());
+
+    patch.setCount(Optional.of(2));
+    converter.patch(patch, counter);
+    assertEquals(2, counter.getCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void compileRejectsMismatchedTypes() {
+    converter.compile(MismatchedInput.class, Task.class);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void compileRejectsUnknownProperties() {
+    converter.compile(UnknownPropertyInput.class, Task.class);
+  }
+
+}
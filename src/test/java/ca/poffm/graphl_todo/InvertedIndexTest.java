@@ -0,0 +1,63 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import ca.poffm.graphql.todo.search.InvertedIndex;
+
+/**
+ * Inverted index test.
+ */
+public class InvertedIndexTest {
+
+  private static Map<String, Integer> terms(String text) {
+    Map<String, Integer> counts = new HashMap<>();
+    InvertedIndex.tokenize(text).forEach(term -> counts.merge(term, 1, Integer::sum));
+    return counts;
+  }
+
+  private static List<Long> ids(List<InvertedIndex.Hit> hits) {
+    return hits.stream().map(InvertedIndex.Hit::getId).collect(Collectors.toList());
+  }
+
+  @Test
+  public void tokenizesCaseAndAccentInsensitively() {
+    assertEquals(Arrays.asList("creme", "brulee", "x2"), InvertedIndex.tokenize("Crème-BRÛLÉE, x2!"));
+  }
+
+  @Test
+  public void ranksRarerAndMoreFrequentTermsHigher() {
+    InvertedIndex index = new InvertedIndex();
+    index.put(1, terms("buy milk"));
+    index.put(2, terms("buy bread"));
+    index.put(3, terms("milk milk milk"));
+
+    // "bread" is rarer than "buy", so it outweighs it.
+    assertEquals(Arrays.asList(2L, 1L), ids(index.search("buy bread")));
+    // More occurrences of "milk" rank higher.
+    assertEquals(Arrays.asList(3L, 1L), ids(index.search("milk")));
+  }
+
+  @Test
+  public void replacesAndRemovesDocuments() {
+    InvertedIndex index = new InvertedIndex();
+    index.put(1, terms("walk the dog"));
+    index.put(1, terms("feed the cat"));
+
+    assertTrue(index.search("dog").isEmpty());
+    assertEquals(Arrays.asList(1L), ids(index.search("cat")));
+
+    index.remove(1);
+    assertTrue(index.search("cat").isEmpty());
+    assertEquals(0, index.size());
+  }
+
+}
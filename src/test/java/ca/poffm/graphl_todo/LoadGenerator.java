@@ -0,0 +1,396 @@
+package ca.poffm.graphl_todo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.poffm.graphql.todo.App;
+
+/**
+ * Load generator for /graphql. Starts the app on a random port with the example tasks,
+ * then sends a mix of myTasks pages, task lookups and task mutations at a fixed rate
+ * and reports throughput and latency percentiles per operation.
+ *
+ * Each worker sends its share of the requests on a fixed schedule, and latency is
+ * measured from when a request was scheduled to be sent rather than when it was sent.
+ * A stall that holds back the following requests then counts against them too, instead
+ * of hiding behind the requests that were never sent (coordinated omission). Service
+ * times, measured from the actual send, are reported alongside for comparison.
+ *
+ * Run with "mvn -Pload-test test-compile exec:exec". Options are passed as application
+ * arguments, e.g. -Dload.args="--load.rate=500 --load.duration=60"; app settings like
+ * --todo.cache.enabled=true can be passed the same way.
+ */
+public class LoadGenerator {
+
+  /**
+   * An operation in the mix.
+   */
+  private enum Operation {
+    PAGE, TASK, CREATE, UPDATE
+  }
+
+  private static final String PAGE_QUERY =
+      "query Page($first: Int, $after: String) {"
+      + " myTasks(first: $first, after: $after) {"
+      + " totalCount edges { cursor node { id name description done } }"
+      + " pageInfo { hasNextPage endCursor } } }";
+
+  private static final String TASK_QUERY =
+      "query Task($id: Long) { task(id: $id) { id name description done } }";
+
+  private static final String CREATE_MUTATION =
+      "mutation Create { createTask(input: {clientMutationId: \"load\","
+      + " task: {name: \"load test\", description: \"load test\"}}) { result { id } } }";
+
+  private static final String UPDATE_MUTATION =
+      "mutation Update($id: Long!, $done: Boolean) { updateTask(input: {clientMutationId: \"load\","
+      + " id: $id, patch: {done: $done}}) { result { id done } } }";
+
+  /**
+   * Latencies are recorded in microseconds, up to an hour.
+   */
+  private static final long MAX_LATENCY = TimeUnit.HOURS.toMicros(1);
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final URL url;
+  private final int exampleTasks;
+  private final int pageSize;
+  private final double rate;
+  private final int threads;
+  private final Map<Operation, Integer> mix;
+
+  private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+  private final Map<Operation, Histogram> serviceTimes = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+  /**
+   * Ids of the tasks created before the run, which the update operations change.
+   */
+  private long[] myTaskIds = new long[0];
+
+  public static void main(String[] args) throws Exception {
+    ConfigurableApplicationContext context = new SpringApplicationBuilder(App.class)
+        .properties(
+            "server.port=0",
+            "todo.example-data.size=${load.tasks:10000}",
+            "logging.level.root=WARN")
+        .run(args);
+    try {
+      Environment env = context.getEnvironment();
+      LoadGenerator generator = new LoadGenerator(
+          new URL("http://localhost:" + env.getProperty("local.server.port") + "/graphql"),
+          env.getProperty("todo.example-data.size", Integer.class),
+          env.getProperty("load.page-size", Integer.class, 20),
+          env.getProperty("load.rate", Double.class, 200.0),
+          env.getProperty("load.threads", Integer.class, 16),
+          parseMix(env.getProperty("load.mix", "page=60,task=25,create=5,update=10")));
+
+      generator.seed(env.getProperty("load.my-tasks", Integer.class, 1000));
+
+      int warmup = env.getProperty("load.warmup", Integer.class, 10);
+      int duration = env.getProperty("load.duration", Integer.class, 30);
+      System.out.println("Warming up for " + warmup + "s.");
+      generator.run(warmup);
+      generator.reset();
+      System.out.println("Running for " + duration + "s at " + generator.rate + " requests/s.");
+      long elapsed = generator.run(duration);
+
+      generator.report(System.out, elapsed);
+      String histogramFile = env.getProperty("load.histogram-file", "target/load-test.hgrm");
+      try (PrintStream out = new PrintStream(new FileOutputStream(histogramFile))) {
+        generator.total(generator.latencies).outputPercentileDistribution(out, 1000.0);
+      }
+      System.out.println("Latency distribution (ms) written to " + histogramFile + ".");
+    } finally {
+      context.close();
+    }
+  }
+
+  private LoadGenerator(URL url, int exampleTasks, int pageSize, double rate, int threads,
+      Map<Operation, Integer> mix) {
+    if (exampleTasks < 1 || rate <= 0 || threads < 1) {
+      throw new IllegalArgumentException("load.tasks, load.rate and load.threads must be positive.");
+    }
+    this.url = url;
+    this.exampleTasks = exampleTasks;
+    this.pageSize = pageSize;
+    this.rate = rate;
+    this.threads = threads;
+    this.mix = mix;
+    for (Operation operation : Operation.values()) {
+      this.latencies.put(operation, new ConcurrentHistogram(MAX_LATENCY, 3));
+      this.serviceTimes.put(operation, new ConcurrentHistogram(MAX_LATENCY, 3));
+      this.errors.put(operation, new LongAdder());
+    }
+  }
+
+  /**
+   * Parse an operation mix like "page=60,task=25,create=5,update=10" into relative
+   * weights.
+   */
+  private static Map<Operation, Integer> parseMix(String mix) {
+    Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+    for (String entry : mix.split(",")) {
+      String[] parts = entry.trim().split("=");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid mix entry: " + entry);
+      }
+      weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+    }
+    if (weights.values().stream().mapToInt(Integer::intValue).sum() <= 0) {
+      throw new IllegalArgumentException("The mix needs at least one positive weight: " + mix);
+    }
+    return weights;
+  }
+
+  /**
+   * Create the tasks that myTasks pages through and the update operations change.
+   *
+   * @param count
+   */
+  private void seed(int count) throws IOException {
+    List<Long> ids = new ArrayList<>();
+    for (int from = 0; from < count; from += 100) {
+      String tasks = IntStream.range(from, Math.min(from + 100, count))
+          .mapToObj(i -> "{name: \"my task " + i + "\", description: \"load test\"}")
+          .collect(Collectors.joining(", "));
+      JsonNode response = this.post(
+          "mutation Seed { createTasks(input: {clientMutationId: \"seed\", tasks: [" + tasks + "]})"
+          + " { result { id } } }",
+          Collections.emptyMap());
+      if (response == null || response.has("errors")) {
+        throw new IllegalStateException("Seeding my tasks failed: " + response);
+      }
+      response.path("data").path("createTasks").path("result")
+          .forEach(result -> ids.add(result.path("id").asLong()));
+    }
+    this.myTaskIds = ids.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * Send requests at the target rate for a number of seconds, each worker taking every
+   * threads-th request of the schedule.
+   *
+   * @param seconds
+   * @return The nanoseconds from the first scheduled request to the last response.
+   */
+  private long run(int seconds) throws Exception {
+    long requests = (long) (this.rate * seconds);
+    long interval = (long) (TimeUnit.SECONDS.toNanos(1) / this.rate);
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+
+    ExecutorService workers = Executors.newFixedThreadPool(this.threads);
+    try {
+      List<Future<?>> done = new ArrayList<>();
+      for (int worker = 0; worker < this.threads; worker++) {
+        int first = worker;
+        done.add(workers.submit(() -> {
+          Worker state = new Worker();
+          for (long i = first; i < requests; i += this.threads) {
+            long scheduled = start + i * interval;
+            for (long wait = scheduled - System.nanoTime(); wait > 0; wait = scheduled - System.nanoTime()) {
+              LockSupport.parkNanos(wait);
+            }
+            this.send(state, scheduled);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> worker : done) {
+        worker.get();
+      }
+    } finally {
+      workers.shutdown();
+    }
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * A worker's position in its walk through the myTasks pages.
+   */
+  private static class Worker {
+    private String after = null;
+  }
+
+  private void send(Worker worker, long scheduled) {
+    Operation operation = this.pick();
+    Map<String, Object> variables = new HashMap<>();
+    String query;
+    switch (operation) {
+      case PAGE:
+        query = PAGE_QUERY;
+        variables.put("first", this.pageSize);
+        variables.put("after", worker.after);
+        break;
+      case TASK:
+        query = TASK_QUERY;
+        variables.put("id", this.randomTaskId());
+        break;
+      case CREATE:
+        query = CREATE_MUTATION;
+        break;
+      default:
+        query = UPDATE_MUTATION;
+        variables.put("id", this.randomMyTaskId());
+        variables.put("done", ThreadLocalRandom.current().nextBoolean());
+    }
+
+    long sent = System.nanoTime();
+    JsonNode response;
+    try {
+      response = this.post(query, variables);
+    } catch (IOException e) {
+      response = null;
+    }
+    long received = System.nanoTime();
+
+    this.latencies.get(operation).recordValue(Math.min((received - scheduled) / 1000, MAX_LATENCY));
+    this.serviceTimes.get(operation).recordValue(Math.min((received - sent) / 1000, MAX_LATENCY));
+    if (response == null || response.has("errors")) {
+      this.errors.get(operation).increment();
+    } else if (operation == Operation.PAGE) {
+      JsonNode pageInfo = response.path("data").path("myTasks").path("pageInfo");
+      worker.after = pageInfo.path("hasNextPage").asBoolean() ? pageInfo.path("endCursor").asText() : null;
+    }
+  }
+
+  private Operation pick() {
+    int total = this.mix.values().stream().mapToInt(Integer::intValue).sum();
+    int choice = ThreadLocalRandom.current().nextInt(total);
+    for (Map.Entry<Operation, Integer> weight : this.mix.entrySet()) {
+      choice -= weight.getValue();
+      if (choice < 0) {
+        return weight.getKey();
+      }
+    }
+    throw new IllegalStateException("No operation picked.");
+  }
+
+  private long randomTaskId() {
+    // The example tasks are inserted first, so they have the lowest ids.
+    return ThreadLocalRandom.current().nextLong(1, this.exampleTasks + 1);
+  }
+
+  private long randomMyTaskId() {
+    if (this.myTaskIds.length == 0) {
+      return this.randomTaskId();
+    }
+    return this.myTaskIds[ThreadLocalRandom.current().nextInt(this.myTaskIds.length)];
+  }
+
+  /**
+   * Post one operation.
+   *
+   * @return The response, or null if the request failed.
+   */
+  private JsonNode post(String query, Map<String, Object> variables) throws IOException {
+    Map<String, Object> request = new HashMap<>();
+    request.put("query", query);
+    request.put("variables", variables);
+    byte[] body = this.objectMapper.writeValueAsBytes(request);
+
+    HttpURLConnection connection = (HttpURLConnection) this.url.openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json;charset=UTF-8");
+    connection.setFixedLengthStreamingMode(body.length);
+    try (OutputStream out = connection.getOutputStream()) {
+      out.write(body);
+    }
+
+    int status = connection.getResponseCode();
+    // Read the whole response, including error bodies, so the connection can be reused.
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    if (in != null) {
+      try (InputStream stream = in) {
+        byte[] buffer = new byte[8192];
+        for (int read = stream.read(buffer); read != -1; read = stream.read(buffer)) {
+          response.write(buffer, 0, read);
+        }
+      }
+    }
+    return status == 200 ? this.objectMapper.readTree(response.toByteArray()) : null;
+  }
+
+  private void reset() {
+    this.latencies.values().forEach(Histogram::reset);
+    this.serviceTimes.values().forEach(Histogram::reset);
+    this.errors.values().forEach(LongAdder::reset);
+  }
+
+  private Histogram total(Map<Operation, Histogram> histograms) {
+    Histogram total = new Histogram(MAX_LATENCY, 3);
+    histograms.values().forEach(total::add);
+    return total;
+  }
+
+  /**
+   * Print throughput, errors and latency percentiles in milliseconds per operation.
+   */
+  private void report(PrintStream out, long elapsedNanos) {
+    double seconds = elapsedNanos / 1e9;
+    out.println();
+    out.println(String.format("%-8s %8s %7s %9s | %-40s | %-26s",
+        "", "requests", "errors", "req/s",
+        "latency (ms) p50 / p99 / p99.9 / max", "service time p50 / p99 / p99.9"));
+
+    for (Operation operation : Operation.values()) {
+      if (this.latencies.get(operation).getTotalCount() > 0) {
+        this.reportLine(out, operation.name().toLowerCase(), this.latencies.get(operation),
+            this.serviceTimes.get(operation), this.errors.get(operation).sum(), seconds);
+      }
+    }
+    long errors = this.errors.values().stream().mapToLong(LongAdder::sum).sum();
+    this.reportLine(out, "all", this.total(this.latencies), this.total(this.serviceTimes), errors, seconds);
+
+    double achieved = this.total(this.latencies).getTotalCount() / seconds;
+    if (achieved < this.rate * 0.9) {
+      out.println(String.format("The app only kept up with %.1f of the target %.1f requests/s, so the "
+          + "latencies include the requests' time spent waiting to be sent.", achieved, this.rate));
+    }
+  }
+
+  private void reportLine(PrintStream out, String name, Histogram latency, Histogram service,
+      long errors, double seconds) {
+    out.println(String.format("%-8s %8d %7d %9.1f | %8.2f %8.2f %8.2f %10.2f   | %7.2f %7.2f %8.2f",
+        name, latency.getTotalCount(), errors, latency.getTotalCount() / seconds,
+        millis(latency, 50), millis(latency, 99), millis(latency, 99.9), latency.getMaxValue() / 1000.0,
+        millis(service, 50), millis(service, 99), millis(service, 99.9)));
+  }
+
+  private static double millis(Histogram histogram, double percentile) {
+    return histogram.getValueAtPercentile(percentile) / 1000.0;
+  }
+
+}
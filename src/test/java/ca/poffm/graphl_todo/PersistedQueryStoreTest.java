@@ -0,0 +1,64 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ca.poffm.graphql.todo.execution.PersistedQueryException;
+import ca.poffm.graphql.todo.execution.PersistedQueryStore;
+
+/**
+ * Automatic persisted query test.
+ */
+public class PersistedQueryStoreTest {
+
+  private static final String QUERY = "{ myTasks { totalCount } }";
+
+  private static Map<String, Object> extensions(String hash) {
+    return Collections.singletonMap(
+        "persistedQuery", Collections.singletonMap("sha256Hash", hash));
+  }
+
+  private static void assertRejected(String code, Runnable resolve) {
+    try {
+      resolve.run();
+      fail("Expected " + code);
+    } catch (PersistedQueryException e) {
+      assertEquals(code, e.getCode());
+    }
+  }
+
+  @Test
+  public void registersQueryByHash() throws IOException {
+    PersistedQueryStore store = new PersistedQueryStore(10, false, "classpath*:none/*.graphql");
+    String hash = PersistedQueryStore.sha256Hex(QUERY);
+
+    // Unknown hash: the client must send the full text once.
+    assertRejected("PERSISTED_QUERY_NOT_FOUND", () -> store.resolve(null, extensions(hash)));
+
+    assertEquals(QUERY, store.resolve(QUERY, extensions(hash)));
+    assertEquals(QUERY, store.resolve(null, extensions(hash)));
+  }
+
+  @Test
+  public void rejectsMismatchedHash() throws IOException {
+    PersistedQueryStore store = new PersistedQueryStore(10, false, "classpath*:none/*.graphql");
+    assertRejected("INTERNAL_SERVER_ERROR", () -> store.resolve(QUERY, extensions("abc")));
+  }
+
+  @Test
+  public void allowListRejectsUnregisteredQueries() throws IOException {
+    PersistedQueryStore store = new PersistedQueryStore(10, true, "classpath*:none/*.graphql");
+    String hash = PersistedQueryStore.sha256Hex(QUERY);
+
+    assertRejected("PERSISTED_QUERY_NOT_ALLOWED", () -> store.resolve(QUERY, null));
+    assertRejected("PERSISTED_QUERY_NOT_ALLOWED", () -> store.resolve(QUERY, extensions(hash)));
+    assertRejected("PERSISTED_QUERY_NOT_ALLOWED", () -> store.resolve(null, extensions(hash)));
+  }
+
+}
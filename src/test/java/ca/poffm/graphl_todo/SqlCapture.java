@@ -0,0 +1,32 @@
+package ca.poffm.graphl_todo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Records the SQL Hibernate prepares on the current thread, so tests can inspect the
+ * statements a query generates.
+ */
+public class SqlCapture implements StatementInspector {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final ThreadLocal<List<String>> STATEMENTS = ThreadLocal.withInitial(ArrayList::new);
+
+  @Override
+  public String inspect(String sql) {
+    STATEMENTS.get().add(sql);
+    return sql;
+  }
+
+  public static void clear() {
+    STATEMENTS.get().clear();
+  }
+
+  public static List<String> statements() {
+    return new ArrayList<>(STATEMENTS.get());
+  }
+
+}
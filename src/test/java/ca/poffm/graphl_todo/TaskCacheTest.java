@@ -0,0 +1,137 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.dataloader.DataLoaderRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import ca.poffm.graphql.todo.App;
+import ca.poffm.graphql.todo.execution.RequestContext;
+import ca.poffm.graphql.todo.service.DataLoaders;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+
+/**
+ * The task and page cache, through GraphQL operations, with task mutations invalidating
+ * it when they commit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(
+    classes = App.class,
+    properties = {
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=ca.poffm.graphl_todo.SqlCapture",
+        "todo.cache.enabled=true" })
+public class TaskCacheTest {
+
+  private static final String MY_TASKS = "{ myTasks(first: 5) { totalCount edges { node { id name } } } }";
+  private static final String EXAMPLE_TASKS = "{ exampleTasks(first: 5) { totalCount edges { node { id name } } } }";
+
+  @Autowired private App app;
+  @Autowired private DataLoaders dataLoaders;
+  @Autowired private ObjectMapper objectMapper;
+
+  private JsonNode execute(String query) {
+    DataLoaderRegistry registry = this.dataLoaders.newRegistry();
+    ExecutionResult result = this.app.newGraphQL(registry).execute(ExecutionInput.newExecutionInput()
+        .query(query)
+        .context(new RequestContext(new MockHttpServletRequest(), registry))
+        .build());
+    assertTrue(result.getErrors().toString(), result.getErrors().isEmpty());
+    return this.objectMapper.valueToTree(result.<Map<String, Object>>getData());
+  }
+
+  /**
+   * Run a query and report whether it ran any SQL.
+   */
+  private boolean queried(String query) {
+    SqlCapture.clear();
+    this.execute(query);
+    return !SqlCapture.statements().isEmpty();
+  }
+
+  /**
+   * Run a query and return the SELECTs it ran, other than counts.
+   */
+  private List<String> pageSelects(String query) {
+    SqlCapture.clear();
+    this.execute(query);
+    return SqlCapture.statements().stream()
+        .filter(sql -> sql.startsWith("select") && !sql.contains("count("))
+        .collect(Collectors.toList());
+  }
+
+  private long createTask(String name) {
+    return this.execute("mutation { createTask(input: {clientMutationId: \"c\", task: {name: \"" + name + "\"}})"
+        + " { result { id } } }").path("createTask").path("result").path("id").asLong();
+  }
+
+  private void renameTask(long id, String name) {
+    this.execute("mutation { updateTask(input: {clientMutationId: \"u\", id: " + id
+        + ", patch: {name: \"" + name + "\"}}) { result { id } } }");
+  }
+
+  private void deleteTask(long id) {
+    this.execute("mutation { deleteTask(input: {clientMutationId: \"d\", id: " + id + "}) { result } }");
+  }
+
+  @Test
+  public void mutationsInvalidateOnlyTheirConnectionsPages() {
+    this.execute(MY_TASKS);
+    this.execute(EXAMPLE_TASKS);
+    assertFalse(this.queried(MY_TASKS));
+    assertFalse(this.queried(EXAMPLE_TASKS));
+
+    long id = this.createTask("cached page");
+    assertFalse(this.queried(EXAMPLE_TASKS));
+    assertTrue(this.queried(MY_TASKS));
+    assertFalse(this.queried(MY_TASKS));
+
+    this.renameTask(id, "renamed page");
+    assertFalse(this.queried(EXAMPLE_TASKS));
+    assertTrue(this.queried(MY_TASKS));
+
+    long total = this.execute(MY_TASKS).path("myTasks").path("totalCount").asLong();
+    this.deleteTask(id);
+    assertFalse(this.queried(EXAMPLE_TASKS));
+    assertTrue(this.queried(MY_TASKS));
+    assertEquals(total - 1, this.execute(MY_TASKS).path("myTasks").path("totalCount").asLong());
+  }
+
+  @Test
+  public void cachedConnectionsOnlyReadTheirPageWhenItsSelected() {
+    List<String> selects = this.pageSelects("{ myTasks(first: 5) { totalCount } }");
+    assertTrue(selects.toString(), selects.isEmpty());
+  }
+
+  @Test
+  public void mutationsInvalidateTheirTask() {
+    long id = this.createTask("cached task");
+    String task = "{ task(id: " + id + ") { name } }";
+    assertTrue(this.queried(task));
+    assertFalse(this.queried(task));
+
+    this.renameTask(id, "renamed task");
+    assertTrue(this.queried(task));
+    assertEquals("renamed task", this.execute(task).path("task").path("name").asText());
+    assertFalse(this.queried(task));
+
+    this.deleteTask(id);
+    assertTrue(this.queried(task));
+    assertTrue(this.execute(task).path("task").isNull());
+  }
+
+}
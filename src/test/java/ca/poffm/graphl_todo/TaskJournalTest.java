@@ -0,0 +1,140 @@
+package ca.poffm.graphl_todo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ca.poffm.graphql.todo.journal.TaskJournal;
+import ca.poffm.graphql.todo.model.Task;
+import ca.poffm.graphql.todo.service.InMemoryTaskStore;
+
+/**
+ * Recovering the in-memory task store from its journal and snapshots.
+ */
+public class TaskJournalTest {
+
+  private static final Validator VALIDATOR = Validation.buildDefaultValidatorFactory().getValidator();
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private TaskJournal journal;
+
+  private InMemoryTaskStore open() {
+    this.journal = new TaskJournal(this.folder.getRoot().getPath(), 4096, 0);
+    InMemoryTaskStore store = new InMemoryTaskStore(VALIDATOR, Optional.of(this.journal));
+    store.recover();
+    return store;
+  }
+
+  private static Task create(InMemoryTaskStore store, String name) {
+    Task task = new Task();
+    task.setName(name);
+    store.create(task);
+    return task;
+  }
+
+  private static Task forUpdate(InMemoryTaskStore store, Long id) {
+    return store.findForUpdate(Collections.singletonList(id)).get(id);
+  }
+
+  @Test
+  public void recoversChangesFromTheJournal() {
+    InMemoryTaskStore store = this.open();
+    // Enough tasks to fill more than one segment.
+    for (int i = 0; i < 100; i++) {
+      create(store, "task " + i);
+    }
+    Task updated = forUpdate(store, 1L);
+    updated.setDone(true);
+    updated.setDescription("done");
+    store.update(updated);
+    store.delete(forUpdate(store, 100L));
+    this.journal.close();
+
+    InMemoryTaskStore recovered = this.open();
+    assertEquals(99, recovered.size());
+    assertEquals(100, recovered.lastId());
+    assertTrue(recovered.find(1L).getDone());
+    assertEquals("done", recovered.find(1L).getDescription());
+    assertEquals(updated.getUpdated(), recovered.find(1L).getUpdated());
+    assertNull(recovered.find(100L));
+
+    // The deleted task's id isn't given out again.
+    assertEquals(Long.valueOf(101), create(recovered, "new").getId());
+  }
+
+  @Test
+  public void recoversFromASnapshotAndTheJournalAfterIt() throws IOException {
+    InMemoryTaskStore store = this.open();
+    for (int i = 0; i < 50; i++) {
+      create(store, "task " + i);
+    }
+    this.journal.snapshot();
+    store.delete(forUpdate(store, 1L));
+    create(store, "after");
+    this.journal.close();
+
+    // The segments before the snapshot were deleted.
+    assertEquals(1, this.files("snapshot-").size());
+    InMemoryTaskStore recovered = this.open();
+    assertEquals(50, recovered.size());
+    assertNull(recovered.find(1L));
+    assertEquals("after", recovered.find(51L).getName());
+
+    // Shutting down takes a snapshot, after which nothing is replayed.
+    this.journal.shutdown();
+    assertEquals(50, this.open().size());
+  }
+
+  @Test
+  public void ignoresATornRecord() throws IOException {
+    InMemoryTaskStore store = this.open();
+    create(store, "kept");
+    create(store, "torn");
+    this.journal.close();
+
+    // Break the second record, as if the process died while writing it.
+    Path segment = this.files("journal-").get(0);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      int firstLength = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4).getInt();
+      long payload = 8 + firstLength + 8;
+      channel.write(ByteBuffer.wrap(new byte[] { 42 }), payload + 10);
+    }
+
+    InMemoryTaskStore recovered = this.open();
+    assertEquals(1, recovered.size());
+    assertEquals("kept", recovered.find(1L).getName());
+    assertEquals("new", create(recovered, "new").getName());
+    this.journal.close();
+    assertEquals(2, this.open().size());
+  }
+
+  private List<Path> files(String prefix) throws IOException {
+    try (Stream<Path> files = Files.list(this.folder.getRoot().toPath())) {
+      return files
+          .filter(file -> file.getFileName().toString().startsWith(prefix))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+}